@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * AllocationMap records which pages of a HeapFile have been initialized,
+ * i.e. written to disk at least once, and how many pages the file on disk
+ * has room for. A HeapFile grows its file a whole extent of pages at a time
+ * and writes each page only when it is flushed, so the pages between the
+ * last initialized page and the end of the file are preallocated but still
+ * all zeroes; reading one of them needs no I/O.
+ * <p>
+ * The map is kept in memory only; when a file is opened it is rebuilt from
+ * the file itself (see {@link HeapFile}).
+ *
+ * @Threadsafe
+ */
+public class AllocationMap {
+
+    /** Set bit i means page i was written to disk. */
+    private final BitSet initialized = new BitSet();
+    /** Number of pages the file on disk has room for. */
+    private int reserved = 0;
+
+    /**
+     * Forgets everything recorded so far and starts over from a file whose
+     * first numPages pages are initialized.
+     *
+     * @param numPages the number of initialized pages
+     * @param filePages the number of pages the file on disk holds
+     */
+    public synchronized void reset(int numPages, int filePages) {
+        initialized.clear();
+        initialized.set(0, numPages);
+        reserved = Math.max(numPages, filePages);
+    }
+
+    /** @return true if page pgNo was ever written to disk */
+    public synchronized boolean isInitialized(int pgNo) {
+        return initialized.get(pgNo);
+    }
+
+    /** Records that page pgNo was written to disk. */
+    public synchronized void initialize(int pgNo) {
+        initialized.set(pgNo);
+        reserved = Math.max(reserved, pgNo + 1);
+    }
+
+    /**
+     * Reserves room on disk for page pgNo, a whole number of extents at a
+     * time.
+     *
+     * @param extentPages the number of pages the file grows by
+     * @return the number of pages the file must be grown to, or -1 if it
+     *   already has room for the page
+     */
+    public synchronized int reserve(int pgNo, int extentPages) {
+        if (pgNo < reserved) {
+            return -1;
+        }
+        int extent = Math.max(extentPages, 1);
+        reserved = (pgNo / extent + 1) * extent;
+        return reserved;
+    }
+
+    /**
+     * Forgets the pages from numPages on, after the file was truncated to
+     * numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        initialized.clear(numPages, Math.max(numPages, initialized.length()));
+        reserved = numPages;
+    }
+}
@@ -0,0 +1,511 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table stored in a
+ * {@link HeapFile}. It is a DbFile of {@link BTreePage}s, so its pages go
+ * through the BufferPool and are logged and recovered like table pages.
+ * <p>
+ * Leaves hold (key, RecordId) entries in key order and are chained left to
+ * right, so an equality or range predicate is answered by descending to
+ * the first qualifying leaf and walking the chain until the key leaves the
+ * range. The tuples returned by the iterators are fetched from the table
+ * through the BufferPool.
+ * <p>
+ * Full pages are split on insert. Deletes only remove the entry: pages are
+ * never merged, and a leaf that becomes empty stays in the chain until
+ * entries are inserted into it again.
+ * <p>
+ * Locking is coarse: readers lock the header page shared and writers lock
+ * it exclusively, so a transaction that modifies the tree excludes every
+ * other transaction that uses this index until it commits or aborts. The
+ * pages below the header are locked as they are visited.
+ */
+public class BTreeFile implements DbIndex {
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final PageChannel channel;
+    private final AtomicInteger numPages;
+
+    /**
+     * Opens (or creates) the B+ tree stored in f.
+     *
+     * @param f the file that stores the tree
+     * @param tableId the id of the indexed table, which must already be in
+     *   the Catalog
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public BTreeFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("B+ tree indexes need a table stored in a HeapFile");
+        }
+        this.keyType = Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField);
+        this.channel = new PageChannel(f);
+        // page 0 is always the header page
+        this.numPages = new AtomicInteger(Math.max(1,
+                (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize())));
+    }
+
+    /**
+     * @return the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this BTreeFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the indexed field */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table; the iterators of this
+     * file return the table's tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including pages that
+     * were allocated but not yet written.
+     */
+    public int numPages() {
+        return numPages.get();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.readPage(pid.getPageNumber(), data);
+            return new BTreePage(new BTreePageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    /** Marks p dirty and remembers it in the list of modified pages. */
+    private void modified(TransactionId tid, BTreePage p, ArrayList<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p)) {
+            dirtied.add(p);
+        }
+    }
+
+    /** Adds a page of the given kind at the end of the file. */
+    private BTreePage allocate(TransactionId tid, int kind, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreePage p = getPage(tid, numPages.getAndIncrement(), Permissions.READ_WRITE);
+        p.init(kind);
+        modified(tid, p, dirtied);
+        return p;
+    }
+
+    /**
+     * Indexes tuple t, which must already be stored in the table.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * Removes the entry of tuple t, which must still carry its RecordId.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return delete(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        insert(tid, key, rid);
+    }
+
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        delete(tid, key, rid);
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int rp = rid.getPageId().getPageNumber();
+        int rs = rid.getTupleNumber();
+
+        BTreePage header = getPage(tid, 0, Permissions.READ_WRITE);
+        if (header.getKind() == BTreePage.EMPTY) {
+            header.init(BTreePage.HEADER);
+            modified(tid, header, dirtied);
+        }
+        if (header.getRoot() == 0) {
+            BTreePage leaf = allocate(tid, BTreePage.LEAF, dirtied);
+            header.setRoot(leaf.getId().getPageNumber());
+            modified(tid, header, dirtied);
+        }
+
+        ArrayDeque<BTreePage> path = new ArrayDeque<BTreePage>();
+        BTreePage p = getPage(tid, header.getRoot(), Permissions.READ_WRITE);
+        while (!p.isLeaf()) {
+            path.push(p);
+            p = getPage(tid, p.getChild(p.search(key, rp, rs, true)), Permissions.READ_WRITE);
+        }
+        int pos = p.search(key, rp, rs, false);
+        if (pos < p.getNumEntries() && p.compareEntry(pos, key, rp, rs) == 0) {
+            return dirtied;
+        }
+        if (p.getNumEntries() < p.getMaxEntries()) {
+            p.insertEntry(pos, key, rp, rs, 0);
+            modified(tid, p, dirtied);
+            return dirtied;
+        }
+
+        // split the leaf; its right half moves to a new leaf
+        BTreePage right = allocate(tid, BTreePage.LEAF, dirtied);
+        int half = p.getNumEntries() / 2;
+        p.moveEntries(half, right);
+        right.setNextLeaf(p.getNextLeaf());
+        p.setNextLeaf(right.getId().getPageNumber());
+        if (pos <= half) {
+            p.insertEntry(pos, key, rp, rs, 0);
+        } else {
+            right.insertEntry(pos - half, key, rp, rs, 0);
+        }
+        modified(tid, p, dirtied);
+
+        // push the separator up, splitting full parents on the way
+        int left = p.getId().getPageNumber();
+        Field sepKey = right.getKey(0);
+        int sepPage = right.getRecordPage(0);
+        int sepSlot = right.getRecordSlot(0);
+        int child = right.getId().getPageNumber();
+        while (true) {
+            if (path.isEmpty()) {
+                BTreePage root = allocate(tid, BTreePage.INTERNAL, dirtied);
+                root.setChild(0, left);
+                root.insertEntry(0, sepKey, sepPage, sepSlot, child);
+                header.setRoot(root.getId().getPageNumber());
+                modified(tid, header, dirtied);
+                return dirtied;
+            }
+            BTreePage parent = path.pop();
+            int ppos = parent.search(sepKey, sepPage, sepSlot, true);
+            modified(tid, parent, dirtied);
+            if (parent.getNumEntries() < parent.getMaxEntries()) {
+                parent.insertEntry(ppos, sepKey, sepPage, sepSlot, child);
+                return dirtied;
+            }
+            // split the parent; its middle separator moves up a level
+            BTreePage sibling = allocate(tid, BTreePage.INTERNAL, dirtied);
+            int mid = parent.getNumEntries() / 2;
+            Field upKey = parent.getKey(mid);
+            int upPage = parent.getRecordPage(mid);
+            int upSlot = parent.getRecordSlot(mid);
+            sibling.setChild(0, parent.getChild(mid + 1));
+            parent.moveEntries(mid + 1, sibling);
+            parent.removeEntry(mid);
+            if (ppos <= mid) {
+                parent.insertEntry(ppos, sepKey, sepPage, sepSlot, child);
+            } else {
+                sibling.insertEntry(ppos - mid - 1, sepKey, sepPage, sepSlot, child);
+            }
+            left = parent.getId().getPageNumber();
+            sepKey = upKey;
+            sepPage = upPage;
+            sepSlot = upSlot;
+            child = sibling.getId().getPageNumber();
+        }
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int rp = rid.getPageId().getPageNumber();
+        int rs = rid.getTupleNumber();
+
+        BTreePage header = getPage(tid, 0, Permissions.READ_WRITE);
+        int pgNo = header.getKind() == BTreePage.HEADER ? header.getRoot() : 0;
+        if (pgNo == 0) {
+            throw new DbException("index entry not found");
+        }
+        BTreePage p = getPage(tid, pgNo, Permissions.READ_WRITE);
+        while (!p.isLeaf()) {
+            p = getPage(tid, p.getChild(p.search(key, rp, rs, true)), Permissions.READ_WRITE);
+        }
+        int pos = p.search(key, rp, rs, false);
+        if (pos >= p.getNumEntries() || p.compareEntry(pos, key, rp, rs) != 0) {
+            throw new DbException("index entry not found");
+        }
+        p.removeEntry(pos);
+        modified(tid, p, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Builds the index from the table's contents. If the tree is still
+     * empty the entries are sorted and the leaves and internal pages are
+     * written bottom-up directly to the file, which is much faster than
+     * inserting the entries one at a time and leaves every page full;
+     * otherwise the entries are inserted one by one.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        if (channel.size() > 0 || numPages.get() > 1) {
+            DbIndex.super.build(tid);
+            return;
+        }
+        final ArrayList<Field> keys = new ArrayList<Field>();
+        final ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            rids.add(t.getRecordId());
+        }
+        it.close();
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = BTreePage.compareKeys(keys.get(a), keys.get(b));
+                if (c != 0) {
+                    return c;
+                }
+                RecordId ra = rids.get(a);
+                RecordId rb = rids.get(b);
+                c = Integer.compare(ra.getPageId().getPageNumber(), rb.getPageId().getPageNumber());
+                return c != 0 ? c : Integer.compare(ra.getTupleNumber(), rb.getTupleNumber());
+            }
+        });
+
+        // the first entry and page number of every page of the level being built
+        ArrayList<Integer> firstEntry = new ArrayList<Integer>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        int pgNo = 1;
+        int perLeaf = BTreePage.getMaxLeafEntries(keyType);
+        for (int start = 0; start < order.length; start += perLeaf) {
+            BTreePage leaf = newPage(pgNo, BTreePage.LEAF);
+            int end = Math.min(order.length, start + perLeaf);
+            for (int i = start; i < end; i++) {
+                RecordId rid = rids.get(order[i]);
+                leaf.insertEntry(i - start, keys.get(order[i]), rid.getPageId().getPageNumber(), rid.getTupleNumber(), 0);
+            }
+            leaf.setNextLeaf(end < order.length ? pgNo + 1 : 0);
+            writePage(leaf);
+            firstEntry.add(order[start]);
+            pages.add(pgNo++);
+        }
+        int perInternal = BTreePage.getMaxInternalEntries(keyType) + 1;
+        while (pages.size() > 1) {
+            ArrayList<Integer> upperFirst = new ArrayList<Integer>();
+            ArrayList<Integer> upperPages = new ArrayList<Integer>();
+            for (int start = 0; start < pages.size(); start += perInternal) {
+                BTreePage node = newPage(pgNo, BTreePage.INTERNAL);
+                int end = Math.min(pages.size(), start + perInternal);
+                node.setChild(0, pages.get(start));
+                for (int i = start + 1; i < end; i++) {
+                    RecordId rid = rids.get(firstEntry.get(i));
+                    node.insertEntry(i - start - 1, keys.get(firstEntry.get(i)),
+                            rid.getPageId().getPageNumber(), rid.getTupleNumber(), pages.get(i));
+                }
+                writePage(node);
+                upperFirst.add(firstEntry.get(start));
+                upperPages.add(pgNo++);
+            }
+            firstEntry = upperFirst;
+            pages = upperPages;
+        }
+        BTreePage header = newPage(0, BTreePage.HEADER);
+        header.setRoot(pages.isEmpty() ? 0 : pages.get(0));
+        writePage(header);
+        channel.force();
+        numPages.set(pgNo);
+        // a cached copy of the empty header page is now stale
+        Database.getBufferPool().discardPage(header.getId());
+    }
+
+    /** Creates an empty page that is not cached in the BufferPool. */
+    private BTreePage newPage(int pgNo, int kind) throws IOException {
+        BTreePage p = new BTreePage(new BTreePageId(getId(), pgNo), new byte[BufferPool.getPageSize()]);
+        p.init(kind);
+        return p;
+    }
+
+    /**
+     * Returns an iterator over all tuples of the table, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("B+ tree cannot answer " + op);
+        }
+        return new BTreeFileIterator(tid, op, key);
+    }
+
+    /**
+     * Iterates over the leaf entries that satisfy <code>key op bound</code>
+     * and returns the table tuples they point to.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field bound;
+        private BTreePage leaf;
+        private int pos;
+
+        /**
+         * @param op the comparison, or null to return every entry
+         * @param bound the value the key is compared with
+         */
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, Field bound) {
+            this.tid = tid;
+            this.op = op;
+            this.bound = bound;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            unpinLeaf();
+            BufferPool pool = Database.getBufferPool();
+            BTreePage header = getPage(tid, 0, Permissions.READ_ONLY);
+            pool.unpinPage(tid, header.getId());
+            if (header.getKind() != BTreePage.HEADER || header.getRoot() == 0) {
+                return;
+            }
+            // entries equal to the bound start at the smallest record id,
+            // entries greater than it after the largest one
+            boolean fromStart = op == null || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+            int edge = op == Predicate.Op.GREATER_THAN ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            BTreePage p = getPage(tid, header.getRoot(), Permissions.READ_ONLY);
+            while (!p.isLeaf()) {
+                int child = fromStart ? 0 : p.search(bound, edge, edge, true);
+                pool.unpinPage(tid, p.getId());
+                p = getPage(tid, p.getChild(child), Permissions.READ_ONLY);
+            }
+            leaf = p;
+            pos = fromStart ? 0 : p.search(bound, edge, edge, false);
+        }
+
+        /** @return true if every entry from a key of k onwards is out of range */
+        private boolean pastEnd(Field k) {
+            if (op == null) {
+                return false;
+            }
+            switch (op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return BTreePage.compareKeys(k, bound) > 0;
+            case LESS_THAN:
+                return BTreePage.compareKeys(k, bound) >= 0;
+            default:
+                return false;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                if (pos >= leaf.getNumEntries()) {
+                    int next = leaf.getNextLeaf();
+                    unpinLeaf();
+                    leaf = next == 0 ? null : getPage(tid, next, Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                if (pastEnd(leaf.getKey(pos))) {
+                    unpinLeaf();
+                    return null;
+                }
+                HeapPageId pid = new HeapPageId(tableId, leaf.getRecordPage(pos));
+                int slot = leaf.getRecordSlot(pos);
+                pos++;
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = page.getTuple(slot);
+                Database.getBufferPool().unpinPage(tid, pid);
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            unpinLeaf();
+        }
+
+        private void unpinLeaf() {
+            if (leaf != null) {
+                Database.getBufferPool().unpinPage(tid, leaf.getId());
+                leaf = null;
+            }
+        }
+    }
+}
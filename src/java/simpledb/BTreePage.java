@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage is one page of a {@link BTreeFile}. Every page starts with three
+ * ints: the page kind, the number of entries and a page link whose meaning
+ * depends on the kind.
+ * <ul>
+ * <li> The <em>header</em> page is always page 0; its link is the page
+ *      number of the root, or 0 while the tree is empty.
+ * <li> A <em>leaf</em> page holds sorted entries (key, record page, record
+ *      slot) pointing at tuples of the indexed table; its link is the next
+ *      leaf to the right, or 0 for the last leaf.
+ * <li> An <em>internal</em> page holds n sorted separator entries (key,
+ *      record page, record slot, child) and n+1 children; its link is the
+ *      leftmost child. Child i+1 holds the entries that are greater than or
+ *      equal to separator i.
+ * </ul>
+ * Entries are ordered by key and then by record id, so every entry is
+ * distinct even when keys repeat, and the separators can place duplicate
+ * keys on several leaves without ambiguity. A page that was never written
+ * reads as all zeroes and has kind {@link #EMPTY}.
+ * <p>
+ * The page keeps its on-disk image as the authoritative copy; entries are
+ * read from and written to the image directly.
+ */
+public class BTreePage implements Page {
+
+    /** Page kinds. */
+    public static final int EMPTY = 0;
+    public static final int HEADER = 1;
+    public static final int INTERNAL = 2;
+    public static final int LEAF = 3;
+
+    /** Bytes used by the kind, entry count and link. */
+    static final int HEADER_SIZE = 12;
+
+    private static final int KIND = 0;
+    private static final int COUNT = 4;
+    private static final int LINK = 8;
+
+    final BTreePageId pid;
+    final Type keyType;
+    private final byte[] data;
+    private final ByteBuffer image;
+    private boolean dirty;
+    private TransactionId transactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreePage from a page image read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page image; it is copied
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType();
+        this.data = data.clone();
+        this.image = ByteBuffer.wrap(this.data);
+        this.dirty = false;
+        this.transactionId = null;
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries that fit on a leaf page for keys of the
+     *   given type
+     */
+    public static int getMaxLeafEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the number of separators that fit on an internal page for
+     *   keys of the given type
+     */
+    public static int getMaxInternalEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 12);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreePage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page image
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Clears the page and gives it the given kind.
+     */
+    void init(int kind) {
+        java.util.Arrays.fill(data, (byte) 0);
+        image.putInt(KIND, kind);
+    }
+
+    public int getKind() {
+        return image.getInt(KIND);
+    }
+
+    public boolean isLeaf() {
+        return getKind() == LEAF;
+    }
+
+    public int getNumEntries() {
+        return image.getInt(COUNT);
+    }
+
+    private void setNumEntries(int n) {
+        image.putInt(COUNT, n);
+    }
+
+    /** @return the maximum number of entries this page can hold */
+    public int getMaxEntries() {
+        return isLeaf() ? getMaxLeafEntries(keyType) : getMaxInternalEntries(keyType);
+    }
+
+    /** @return the root page number stored in the header page, 0 if none */
+    public int getRoot() {
+        return image.getInt(LINK);
+    }
+
+    void setRoot(int pgNo) {
+        image.putInt(LINK, pgNo);
+    }
+
+    /** @return the page number of the next leaf, or 0 for the last leaf */
+    public int getNextLeaf() {
+        return image.getInt(LINK);
+    }
+
+    void setNextLeaf(int pgNo) {
+        image.putInt(LINK, pgNo);
+    }
+
+    private int entrySize() {
+        return keyType.getLen() + (isLeaf() ? 8 : 12);
+    }
+
+    private int entryOffset(int i) {
+        return HEADER_SIZE + i * entrySize();
+    }
+
+    public Field getKey(int i) {
+        return keyType.parse(image, entryOffset(i));
+    }
+
+    /** @return the page number of the record referenced by entry i */
+    public int getRecordPage(int i) {
+        return image.getInt(entryOffset(i) + keyType.getLen());
+    }
+
+    /** @return the slot of the record referenced by entry i */
+    public int getRecordSlot(int i) {
+        return image.getInt(entryOffset(i) + keyType.getLen() + 4);
+    }
+
+    /**
+     * Returns child i of an internal page; child 0 is left of separator 0
+     * and child i+1 is right of separator i.
+     */
+    public int getChild(int i) {
+        return i == 0 ? image.getInt(LINK) : image.getInt(entryOffset(i - 1) + keyType.getLen() + 8);
+    }
+
+    void setChild(int i, int pgNo) {
+        if (i == 0) {
+            image.putInt(LINK, pgNo);
+        } else {
+            image.putInt(entryOffset(i - 1) + keyType.getLen() + 8, pgNo);
+        }
+    }
+
+    /**
+     * Compares two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *   than, equal to or greater than b
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /**
+     * Compares entry i with the entry (key, recordPage, recordSlot).
+     */
+    int compareEntry(int i, Field key, int recordPage, int recordSlot) {
+        int c = compareKeys(getKey(i), key);
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(getRecordPage(i), recordPage);
+        return c != 0 ? c : Integer.compare(getRecordSlot(i), recordSlot);
+    }
+
+    /**
+     * Binary search for the entry (key, recordPage, recordSlot).
+     *
+     * @param inclusive whether entries equal to the searched one count as
+     *   being before it
+     * @return the number of entries before the searched one: those less
+     *   than it, or less than or equal to it if inclusive
+     */
+    int search(Field key, int recordPage, int recordSlot, boolean inclusive) {
+        int lo = 0;
+        int hi = getNumEntries();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareEntry(mid, key, recordPage, recordSlot);
+            if (c < 0 || (inclusive && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry at position pos, shifting later entries right. On
+     * an internal page child becomes the child right of the new separator;
+     * on a leaf it is ignored.
+     */
+    void insertEntry(int pos, Field key, int recordPage, int recordSlot, int child) {
+        int n = getNumEntries();
+        int size = entrySize();
+        int off = entryOffset(pos);
+        System.arraycopy(data, off, data, off + size, (n - pos) * size);
+        key.serialize(image, off);
+        image.putInt(off + keyType.getLen(), recordPage);
+        image.putInt(off + keyType.getLen() + 4, recordSlot);
+        if (!isLeaf()) {
+            image.putInt(off + keyType.getLen() + 8, child);
+        }
+        setNumEntries(n + 1);
+    }
+
+    /**
+     * Removes the entry at position pos (with the child right of it on an
+     * internal page), shifting later entries left.
+     */
+    void removeEntry(int pos) {
+        int n = getNumEntries();
+        int size = entrySize();
+        int off = entryOffset(pos);
+        System.arraycopy(data, off + size, data, off, (n - pos - 1) * size);
+        java.util.Arrays.fill(data, entryOffset(n - 1), entryOffset(n), (byte) 0);
+        setNumEntries(n - 1);
+    }
+
+    /**
+     * Moves the entries from position from onwards to the empty page
+     * right, which must be of the same kind.
+     */
+    void moveEntries(int from, BTreePage right) {
+        int n = getNumEntries();
+        int size = entrySize();
+        System.arraycopy(data, entryOffset(from), right.data, right.entryOffset(0), (n - from) * size);
+        right.setNumEntries(n - from);
+        java.util.Arrays.fill(data, entryOffset(from), entryOffset(n), (byte) 0);
+        setNumEntries(from);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+}
@@ -0,0 +1,501 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BitmapIndexFile is a bitmap index on one field of a table stored in a
+ * {@link HeapFile}, meant for fields with few distinct values. For every
+ * distinct value it keeps a bitmap with one bit per RecordId: the tuple in
+ * slot s of table page p is bit <code>p * getSlotsPerPage() + s</code>.
+ * <p>
+ * A bitmap is compressed the way roaring bitmaps are: it is split into
+ * chunks of {@link BitmapIndexPage#getChunkBits} bits, chunks without set
+ * bits are not stored, and every stored chunk is one container page that
+ * holds a sorted array of offsets while it is sparse and a plain bitmap
+ * once the array is full. A value's directory pages map chunk numbers to
+ * container pages. Inserts and deletes set and clear single bits.
+ * <p>
+ * A predicate other than equality is answered by OR-ing the bitmaps of all
+ * values that satisfy it, and {@link BitmapScan} ANDs the results of
+ * several predicates before reading any tuple, so it fetches only the table
+ * pages holding qualifying tuples, in page order. Locking is the same as in
+ * {@link BTreeFile}: readers lock the header page shared and writers lock
+ * it exclusively.
+ */
+public class BitmapIndexFile implements DbIndex {
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final PageChannel channel;
+    private final AtomicInteger numPages;
+    private final int slotsPerPage;
+
+    /**
+     * Opens (or creates) the bitmap index stored in f.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the indexed table, which must already be in
+     *   the Catalog
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public BitmapIndexFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(table instanceof HeapFile)) {
+            throw new IllegalArgumentException("bitmap indexes need a table stored in a HeapFile");
+        }
+        this.keyType = Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField);
+        this.channel = new PageChannel(f);
+        // page 0 is always the header page
+        this.numPages = new AtomicInteger(Math.max(1,
+                (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize())));
+        this.slotsPerPage = f.length() > 0 ? readSlotsPerPage() : maxSlots(table);
+    }
+
+    /** @return an upper bound on the number of slots of a page of table */
+    private static int maxSlots(DbFile table) {
+        if (table instanceof SlottedHeapFile) {
+            return (BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / SlottedHeapPage.SLOT_SIZE;
+        }
+        if (table instanceof DictionaryHeapFile) {
+            return DictionaryHeapPage.maxSlots(table.getTupleDesc());
+        }
+        return BufferPool.getPageSize() * 8 / (table.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    /** Reads the slots per page recorded in the header page on disk. */
+    private int readSlotsPerPage() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.readPage(0, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int slots = ByteBuffer.wrap(data).getInt(12);
+        return slots > 0 ? slots : maxSlots(Database.getCatalog().getDatabaseFile(tableId));
+    }
+
+    /**
+     * @return the File backing this BitmapIndexFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this BitmapIndexFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the indexed field */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return the number of bit positions reserved for each page of the
+     *   indexed table
+     */
+    public int getSlotsPerPage() {
+        return slotsPerPage;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table; the iterators of this
+     * file return the table's tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * Returns the number of pages in this BitmapIndexFile, including pages
+     * that were allocated but not yet written.
+     */
+    public int numPages() {
+        return numPages.get();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.readPage(pid.getPageNumber(), data);
+            return new BitmapIndexPage(new BitmapIndexPageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE;
+    }
+
+    private BitmapIndexPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BitmapIndexPage) Database.getBufferPool().getPage(tid, new BitmapIndexPageId(getId(), pgNo), perm);
+    }
+
+    /** Marks p dirty and remembers it in the list of modified pages. */
+    private void modified(TransactionId tid, BitmapIndexPage p, ArrayList<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p)) {
+            dirtied.add(p);
+        }
+    }
+
+    /** Adds a page of the given kind at the end of the file. */
+    private BitmapIndexPage allocate(TransactionId tid, int kind, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BitmapIndexPage p = getPage(tid, numPages.getAndIncrement(), Permissions.READ_WRITE);
+        p.init(kind);
+        modified(tid, p, dirtied);
+        return p;
+    }
+
+    /**
+     * Returns the container page of the given chunk of key's bitmap, read
+     * with the given permissions. If dirtied is not null, the value and the
+     * container are created if they do not exist yet; otherwise null is
+     * returned for them.
+     */
+    private BitmapIndexPage container(TransactionId tid, BitmapIndexPage header, Field key, int chunk,
+            Permissions perm, ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        BitmapIndexPage values = header;
+        int dirPage = 0;
+        while (true) {
+            for (int i = 0; i < values.getCount() && dirPage == 0; i++) {
+                if (values.getValue(i).equals(key)) {
+                    dirPage = values.getValueDirectory(i);
+                }
+            }
+            if (dirPage != 0 || values.getLink() == 0) {
+                break;
+            }
+            values = getPage(tid, values.getLink(), perm);
+        }
+        if (dirPage == 0) {
+            if (dirtied == null) {
+                return null;
+            }
+            if (values.getCount() == BitmapIndexPage.getMaxValueEntries(keyType)) {
+                BitmapIndexPage next = allocate(tid, BitmapIndexPage.VALUES, dirtied);
+                values.setLink(next.getId().getPageNumber());
+                modified(tid, values, dirtied);
+                values = next;
+            }
+            dirPage = allocate(tid, BitmapIndexPage.DIRECTORY, dirtied).getId().getPageNumber();
+            values.addValue(key, dirPage);
+            modified(tid, values, dirtied);
+        }
+
+        BitmapIndexPage dir = getPage(tid, dirPage, perm);
+        while (true) {
+            for (int i = 0; i < dir.getCount(); i++) {
+                if (dir.getChunk(i) == chunk) {
+                    return getPage(tid, dir.getChunkPage(i), perm);
+                }
+            }
+            if (dir.getLink() == 0) {
+                break;
+            }
+            dir = getPage(tid, dir.getLink(), perm);
+        }
+        if (dirtied == null) {
+            return null;
+        }
+        if (dir.getCount() == BitmapIndexPage.getMaxChunkEntries()) {
+            BitmapIndexPage next = allocate(tid, BitmapIndexPage.DIRECTORY, dirtied);
+            dir.setLink(next.getId().getPageNumber());
+            modified(tid, dir, dirtied);
+            dir = next;
+        }
+        BitmapIndexPage c = allocate(tid, BitmapIndexPage.ARRAY, dirtied);
+        dir.addChunk(chunk, c.getId().getPageNumber());
+        modified(tid, dir, dirtied);
+        return c;
+    }
+
+    /** @return the bit position of the tuple stored at rid */
+    private int position(RecordId rid) {
+        return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+    }
+
+    /**
+     * Indexes tuple t, which must already be stored in the table.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * Removes the entry of tuple t, which must still carry its RecordId.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return delete(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        insert(tid, key, rid);
+    }
+
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        delete(tid, key, rid);
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        if (rid.getTupleNumber() >= slotsPerPage) {
+            throw new DbException("slot " + rid.getTupleNumber() + " is beyond the bitmap's page width");
+        }
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BitmapIndexPage header = getPage(tid, 0, Permissions.READ_WRITE);
+        if (header.getKind() == BitmapIndexPage.EMPTY) {
+            header.init(BitmapIndexPage.HEADER);
+            header.setSlotsPerPage(slotsPerPage);
+            modified(tid, header, dirtied);
+        }
+        int chunkBits = BitmapIndexPage.getChunkBits();
+        int pos = position(rid);
+        BitmapIndexPage c = container(tid, header, key, pos / chunkBits, Permissions.READ_WRITE, dirtied);
+        if (c.add(pos % chunkBits)) {
+            modified(tid, c, dirtied);
+        }
+        return dirtied;
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BitmapIndexPage header = getPage(tid, 0, Permissions.READ_WRITE);
+        int chunkBits = BitmapIndexPage.getChunkBits();
+        int pos = position(rid);
+        BitmapIndexPage c = header.getKind() == BitmapIndexPage.HEADER
+                ? container(tid, header, key, pos / chunkBits, Permissions.READ_WRITE, null) : null;
+        if (c == null || !c.remove(pos % chunkBits)) {
+            throw new DbException("index entry not found");
+        }
+        // an emptied container stays listed and is reused
+        modified(tid, c, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Returns the bit positions of the tuples whose key field satisfies
+     * <code>field op key</code>: the union of the bitmaps of every value
+     * that satisfies it. A null op selects every tuple.
+     */
+    public BitSet positions(TransactionId tid, Predicate.Op op, Field key)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        BitSet bits = new BitSet();
+        BitmapIndexPage values = getPage(tid, 0, Permissions.READ_ONLY);
+        if (values.getKind() != BitmapIndexPage.HEADER) {
+            pool.unpinPage(tid, values.getId());
+            return bits;
+        }
+        int chunkBits = BitmapIndexPage.getChunkBits();
+        while (true) {
+            for (int i = 0; i < values.getCount(); i++) {
+                if (op != null && !values.getValue(i).compare(op, key)) {
+                    continue;
+                }
+                for (int d = values.getValueDirectory(i); d != 0; ) {
+                    BitmapIndexPage dir = getPage(tid, d, Permissions.READ_ONLY);
+                    for (int j = 0; j < dir.getCount(); j++) {
+                        BitmapIndexPage chunk = getPage(tid, dir.getChunkPage(j), Permissions.READ_ONLY);
+                        chunk.orInto(bits, dir.getChunk(j) * chunkBits);
+                        pool.unpinPage(tid, chunk.getId());
+                    }
+                    d = dir.getLink();
+                    pool.unpinPage(tid, dir.getId());
+                }
+            }
+            pool.unpinPage(tid, values.getId());
+            if (values.getLink() == 0) {
+                return bits;
+            }
+            values = getPage(tid, values.getLink(), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Builds the index from the table's contents. If the index is still
+     * empty the pages are written directly to the file; otherwise the
+     * entries are inserted one by one.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        if (channel.size() > 0 || numPages.get() > 1) {
+            DbIndex.super.build(tid);
+            return;
+        }
+        LinkedHashMap<Field, BitSet> bitmaps = new LinkedHashMap<Field, BitSet>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            BitSet bits = bitmaps.get(t.getField(keyField));
+            if (bits == null) {
+                bits = new BitSet();
+                bitmaps.put(t.getField(keyField), bits);
+            }
+            bits.set(position(t.getRecordId()));
+        }
+        it.close();
+
+        int chunkBits = BitmapIndexPage.getChunkBits();
+        BitmapIndexPage header = newPage(0, BitmapIndexPage.HEADER);
+        header.setSlotsPerPage(slotsPerPage);
+        BitmapIndexPage values = header;
+        int pgNo = 1;
+        for (Map.Entry<Field, BitSet> e : bitmaps.entrySet()) {
+            if (values.getCount() == BitmapIndexPage.getMaxValueEntries(keyType)) {
+                values.setLink(pgNo);
+                if (values != header) {
+                    writePage(values);
+                }
+                values = newPage(pgNo++, BitmapIndexPage.VALUES);
+            }
+            BitmapIndexPage dir = newPage(pgNo++, BitmapIndexPage.DIRECTORY);
+            values.addValue(e.getKey(), dir.getId().getPageNumber());
+            BitSet bits = e.getValue();
+            for (int from = bits.nextSetBit(0); from >= 0; from = bits.nextSetBit(from)) {
+                int chunk = from / chunkBits;
+                if (dir.getCount() == BitmapIndexPage.getMaxChunkEntries()) {
+                    dir.setLink(pgNo);
+                    writePage(dir);
+                    dir = newPage(pgNo++, BitmapIndexPage.DIRECTORY);
+                }
+                BitmapIndexPage c = newPage(pgNo, BitmapIndexPage.ARRAY);
+                c.setBits(bits.get(chunk * chunkBits, (chunk + 1) * chunkBits));
+                writePage(c);
+                dir.addChunk(chunk, pgNo++);
+                from = (chunk + 1) * chunkBits;
+            }
+            writePage(dir);
+        }
+        if (values != header) {
+            writePage(values);
+        }
+        writePage(header);
+        channel.force();
+        numPages.set(pgNo);
+        // a cached copy of the empty header page is now stale
+        Database.getBufferPool().discardPage(header.getId());
+    }
+
+    /** Creates an empty page that is not cached in the BufferPool. */
+    private BitmapIndexPage newPage(int pgNo, int kind) throws IOException {
+        BitmapIndexPage p = new BitmapIndexPage(new BitmapIndexPageId(getId(), pgNo), new byte[BufferPool.getPageSize()]);
+        p.init(kind);
+        return p;
+    }
+
+    /**
+     * Returns an iterator over all tuples of the table, in RecordId order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    public DbFileIterator iterator(final TransactionId tid, final Predicate.Op op, final Field key) {
+        if (op != null && !supports(op)) {
+            throw new UnsupportedOperationException("bitmap index cannot answer " + op);
+        }
+        return new PositionIterator(tid, tableId, slotsPerPage) {
+            protected BitSet positions() throws DbException, TransactionAbortedException {
+                return BitmapIndexFile.this.positions(tid, op, key);
+            }
+        };
+    }
+
+    /**
+     * Returns the table tuples at the bit positions computed by
+     * {@link #positions} when the iterator is opened, in position order, so
+     * every table page holding a qualifying tuple is fetched once and no
+     * other page is fetched.
+     */
+    static abstract class PositionIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int tableId;
+        private final int slotsPerPage;
+        private BitSet bits;
+        private int pos;
+
+        PositionIterator(TransactionId tid, int tableId, int slotsPerPage) {
+            this.tid = tid;
+            this.tableId = tableId;
+            this.slotsPerPage = slotsPerPage;
+        }
+
+        /** @return the positions of the tuples to return */
+        protected abstract BitSet positions() throws DbException, TransactionAbortedException;
+
+        public void open() throws DbException, TransactionAbortedException {
+            bits = positions();
+            pos = bits.nextSetBit(0);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (bits != null && pos >= 0) {
+                HeapPageId pid = new HeapPageId(tableId, pos / slotsPerPage);
+                int slot = pos % slotsPerPage;
+                pos = bits.nextSetBit(pos + 1);
+                TuplePage tp = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = tp.getTuple(slot);
+                Database.getBufferPool().unpinPage(tid, pid);
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            bits = null;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BitmapIndexPage is one page of a {@link BitmapIndexFile}. Every page starts
+ * with three ints: the page kind, a count and a page link.
+ * <ul>
+ * <li> The <em>header</em> page is always page 0. After the common fields it
+ *      stores the number of bit positions reserved for each page of the
+ *      indexed table, followed by value entries like a value page.
+ * <li> A <em>value</em> page lists distinct key values, each with the first
+ *      directory page of its bitmap; its count is the number of values and
+ *      its link the next value page, or 0.
+ * <li> A <em>directory</em> page lists (chunk number, container page)
+ *      pairs of one value's bitmap; its link is the next directory page of
+ *      the same value, or 0.
+ * <li> A <em>container</em> page holds the set bits of one chunk of
+ *      {@link #getChunkBits} bit positions, either as a sorted array of
+ *      16-bit offsets ({@link #ARRAY}) while few bits are set or as a plain
+ *      bitmap ({@link #BITMAP}) once the array is full. Its count is the
+ *      number of set bits.
+ * </ul>
+ * A page that was never written reads as all zeroes and has kind
+ * {@link #EMPTY}. The page keeps its on-disk image as the authoritative
+ * copy.
+ */
+public class BitmapIndexPage implements Page {
+
+    /** Page kinds. */
+    public static final int EMPTY = 0;
+    public static final int HEADER = 1;
+    public static final int VALUES = 2;
+    public static final int DIRECTORY = 3;
+    public static final int ARRAY = 4;
+    public static final int BITMAP = 5;
+
+    /** Bytes used by the kind, count and link. */
+    static final int HEADER_SIZE = 12;
+
+    private static final int KIND = 0;
+    private static final int COUNT = 4;
+    private static final int LINK = 8;
+    // fields of the header page; value pages leave them unused
+    private static final int SLOTS = 12;
+    private static final int VALUE_START = 16;
+
+    final BitmapIndexPageId pid;
+    final Type keyType;
+    private final byte[] data;
+    private final ByteBuffer image;
+    private boolean dirty;
+    private TransactionId transactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BitmapIndexPage from a page image read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page image; it is copied
+     */
+    public BitmapIndexPage(BitmapIndexPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = ((BitmapIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType();
+        this.data = data.clone();
+        this.image = ByteBuffer.wrap(this.data);
+        this.dirty = false;
+        this.transactionId = null;
+        setBeforeImage();
+    }
+
+    /** @return the number of values that fit on a header or value page */
+    public static int getMaxValueEntries(Type keyType) {
+        return (BufferPool.getPageSize() - VALUE_START) / (keyType.getLen() + 4);
+    }
+
+    /** @return the number of chunks one directory page lists */
+    public static int getMaxChunkEntries() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 8;
+    }
+
+    /** @return the number of bit positions covered by one container page */
+    public static int getChunkBits() {
+        // array offsets are 16 bits wide
+        return Math.min((BufferPool.getPageSize() - HEADER_SIZE) * 8, 1 << 16);
+    }
+
+    /** @return the number of offsets an array container holds */
+    public static int getMaxArrayEntries() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 2;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BitmapIndexPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BitmapIndexPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BitmapIndexPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page image
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Clears the page and gives it the given kind.
+     */
+    void init(int kind) {
+        java.util.Arrays.fill(data, (byte) 0);
+        image.putInt(KIND, kind);
+    }
+
+    public int getKind() {
+        return image.getInt(KIND);
+    }
+
+    /**
+     * @return the number of values on a header or value page, of chunks on
+     *   a directory page, or of set bits on a container page
+     */
+    public int getCount() {
+        return image.getInt(COUNT);
+    }
+
+    private void setCount(int n) {
+        image.putInt(COUNT, n);
+    }
+
+    /** @return the next page of a value or directory list, or 0 */
+    public int getLink() {
+        return image.getInt(LINK);
+    }
+
+    void setLink(int pgNo) {
+        image.putInt(LINK, pgNo);
+    }
+
+    /** @return the number of bit positions reserved per table page */
+    public int getSlotsPerPage() {
+        return image.getInt(SLOTS);
+    }
+
+    void setSlotsPerPage(int slots) {
+        image.putInt(SLOTS, slots);
+    }
+
+    // value pages
+
+    private int valueOffset(int i) {
+        return VALUE_START + i * (keyType.getLen() + 4);
+    }
+
+    public Field getValue(int i) {
+        return keyType.parse(image, valueOffset(i));
+    }
+
+    /** @return the first directory page of the bitmap of value i */
+    public int getValueDirectory(int i) {
+        return image.getInt(valueOffset(i) + keyType.getLen());
+    }
+
+    /** Appends a value to this header or value page, which must have room. */
+    void addValue(Field value, int directory) {
+        int n = getCount();
+        value.serialize(image, valueOffset(n));
+        image.putInt(valueOffset(n) + keyType.getLen(), directory);
+        setCount(n + 1);
+    }
+
+    // directory pages
+
+    public int getChunk(int i) {
+        return image.getInt(HEADER_SIZE + 8 * i);
+    }
+
+    public int getChunkPage(int i) {
+        return image.getInt(HEADER_SIZE + 8 * i + 4);
+    }
+
+    /** Appends a chunk to this directory page, which must have room. */
+    void addChunk(int chunk, int pgNo) {
+        int n = getCount();
+        image.putInt(HEADER_SIZE + 8 * n, chunk);
+        image.putInt(HEADER_SIZE + 8 * n + 4, pgNo);
+        setCount(n + 1);
+    }
+
+    // container pages
+
+    private int arrayOffset(int i) {
+        return image.getChar(HEADER_SIZE + 2 * i);
+    }
+
+    /** @return the position in the offset array of off, or -(insertion point) - 1 */
+    private int search(int off) {
+        int lo = 0;
+        int hi = getCount() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = arrayOffset(mid);
+            if (v < off) {
+                lo = mid + 1;
+            } else if (v > off) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private boolean getBit(int off) {
+        return (data[HEADER_SIZE + off / 8] & (1 << (off % 8))) != 0;
+    }
+
+    /** @return true if bit off of this container is set */
+    public boolean contains(int off) {
+        return getKind() == BITMAP ? getBit(off) : search(off) >= 0;
+    }
+
+    /**
+     * Sets bit off of this container, turning a full array container into
+     * a bitmap.
+     *
+     * @return false if the bit was already set
+     */
+    boolean add(int off) {
+        if (getKind() == BITMAP) {
+            if (getBit(off)) {
+                return false;
+            }
+            data[HEADER_SIZE + off / 8] |= (byte) (1 << (off % 8));
+            setCount(getCount() + 1);
+            return true;
+        }
+        int pos = search(off);
+        if (pos >= 0) {
+            return false;
+        }
+        if (getCount() == getMaxArrayEntries()) {
+            toBitmap();
+            return add(off);
+        }
+        pos = -pos - 1;
+        int at = HEADER_SIZE + 2 * pos;
+        System.arraycopy(data, at, data, at + 2, 2 * (getCount() - pos));
+        image.putChar(at, (char) off);
+        setCount(getCount() + 1);
+        return true;
+    }
+
+    /**
+     * Clears bit off of this container, turning a bitmap that became
+     * sparse back into an array.
+     *
+     * @return false if the bit was not set
+     */
+    boolean remove(int off) {
+        if (getKind() == BITMAP) {
+            if (!getBit(off)) {
+                return false;
+            }
+            data[HEADER_SIZE + off / 8] &= (byte) ~(1 << (off % 8));
+            setCount(getCount() - 1);
+            // convert back well below the array limit, so a container on
+            // the boundary does not flip on every update
+            if (getCount() <= getMaxArrayEntries() / 2) {
+                toArray();
+            }
+            return true;
+        }
+        int pos = search(off);
+        if (pos < 0) {
+            return false;
+        }
+        int at = HEADER_SIZE + 2 * pos;
+        int n = getCount();
+        System.arraycopy(data, at + 2, data, at, 2 * (n - pos - 1));
+        image.putChar(HEADER_SIZE + 2 * (n - 1), (char) 0);
+        setCount(n - 1);
+        return true;
+    }
+
+    /** Sets bit base + off of bits for every bit off set in this container. */
+    public void orInto(BitSet bits, int base) {
+        int n = getCount();
+        if (getKind() == BITMAP) {
+            BitSet own = BitSet.valueOf(ByteBuffer.wrap(data, HEADER_SIZE, data.length - HEADER_SIZE));
+            for (int off = own.nextSetBit(0); off >= 0; off = own.nextSetBit(off + 1)) {
+                bits.set(base + off);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                bits.set(base + arrayOffset(i));
+            }
+        }
+    }
+
+    /** Fills this empty container page from the given bits. */
+    void setBits(BitSet bits) {
+        int n = bits.cardinality();
+        if (n > getMaxArrayEntries()) {
+            image.putInt(KIND, BITMAP);
+            byte[] b = bits.toByteArray();
+            System.arraycopy(b, 0, data, HEADER_SIZE, b.length);
+        } else {
+            image.putInt(KIND, ARRAY);
+            int i = 0;
+            for (int off = bits.nextSetBit(0); off >= 0; off = bits.nextSetBit(off + 1)) {
+                image.putChar(HEADER_SIZE + 2 * i++, (char) off);
+            }
+        }
+        setCount(n);
+    }
+
+    private BitSet bits() {
+        BitSet bits = new BitSet(getChunkBits());
+        orInto(bits, 0);
+        return bits;
+    }
+
+    private void toBitmap() {
+        BitSet bits = bits();
+        init(BITMAP);
+        byte[] b = bits.toByteArray();
+        System.arraycopy(b, 0, data, HEADER_SIZE, b.length);
+        setCount(bits.cardinality());
+    }
+
+    private void toArray() {
+        BitSet bits = bits();
+        init(ARRAY);
+        setBits(bits);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+/** Unique identifier for BitmapIndexPage objects. */
+public class BitmapIndexPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific bitmap index file.
+     *
+     * @param tableId The id of the BitmapIndexFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public BitmapIndexPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the BitmapIndexFile associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        int hash = 13;
+        hash = 31 * hash + tableId;
+        hash = 31 * hash + pgNo;
+        return hash;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        BitmapIndexPageId other = (BitmapIndexPageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan reads the tuples of a table that satisfy all of a list of
+ * predicates, each answered by a {@link BitmapIndexFile} on the predicate's
+ * field. The bitmaps of the predicates are ANDed before any tuple is read,
+ * so only the table pages that hold a qualifying tuple are fetched, each of
+ * them once and in page order.
+ */
+public class BitmapScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final String tableAlias;
+    private final List<BitmapIndexFile> indexes;
+    private final List<Predicate> predicates;
+    private final DbFileIterator iter;
+
+    /**
+     * Creates a scan of the tuples that satisfy every predicate.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableAlias
+     *            the alias of the indexed table (needed by the parser); the
+     *            returned tupleDesc has fields with name tableAlias.fieldName
+     * @param indexes
+     *            bitmap indexes on one table; indexes.get(i) answers
+     *            predicates.get(i)
+     * @param predicates
+     *            predicates over the table's fields, each on the key field
+     *            of its index
+     * @throws IllegalArgumentException if the lists are empty or of
+     *            different lengths, or the indexes do not fit together
+     */
+    public BitmapScan(TransactionId tid, String tableAlias, List<BitmapIndexFile> indexes,
+            List<Predicate> predicates) {
+        if (indexes.isEmpty() || indexes.size() != predicates.size()) {
+            throw new IllegalArgumentException("need one index for every predicate");
+        }
+        final BitmapIndexFile first = indexes.get(0);
+        for (int i = 0; i < indexes.size(); i++) {
+            BitmapIndexFile index = indexes.get(i);
+            if (index.getTableId() != first.getTableId() || index.getSlotsPerPage() != first.getSlotsPerPage()) {
+                throw new IllegalArgumentException("bitmaps of different layouts cannot be combined");
+            }
+            if (index.getKeyField() != predicates.get(i).getField() || !index.supports(predicates.get(i).getOp())) {
+                throw new IllegalArgumentException("index cannot answer " + predicates.get(i));
+            }
+        }
+        this.tid = tid;
+        this.tableAlias = tableAlias;
+        this.indexes = new ArrayList<BitmapIndexFile>(indexes);
+        this.predicates = new ArrayList<Predicate>(predicates);
+        this.iter = new BitmapIndexFile.PositionIterator(tid, first.getTableId(), first.getSlotsPerPage()) {
+            protected BitSet positions() throws DbException, TransactionAbortedException {
+                return combine();
+            }
+        };
+    }
+
+    /** @return the positions of the tuples satisfying every predicate */
+    private BitSet combine() throws DbException, TransactionAbortedException {
+        BitSet bits = null;
+        for (int i = 0; i < indexes.size() && (bits == null || !bits.isEmpty()); i++) {
+            Predicate p = predicates.get(i);
+            BitSet b = indexes.get(i).positions(tid, p.getOp(), p.getOperand());
+            if (bits == null) {
+                bits = b;
+            } else {
+                bits.and(b);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return the actual name of the table the operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(indexes.get(0).getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the predicates the returned tuples satisfy, on the table's
+     *   field numbers
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        iter.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, with each field name
+     * prefixed with the tableAlias string from the constructor (e.g.,
+     * "alias.fieldName").
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(indexes.get(0).getTableId());
+        Type[] typeArr = new Type[td.numFields()];
+        String[] fieldArr = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            typeArr[i] = td.getFieldType(i);
+            fieldArr[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeArr, fieldArr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return iter.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return iter.next();
+    }
+
+    public void close() {
+        iter.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        iter.rewind();
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * BloomFilter is a set of fields that can answer "definitely not a
+ * member" without storing the fields: each added field sets a few bits
+ * chosen by its hash code, and a field whose bits are not all set was
+ * never added. False positives occur at a rate that falls with the number
+ * of bits per field; with the default of ten bits and three hash functions
+ * it is about one percent.
+ */
+public class BloomFilter {
+
+    /** Bits allotted to each expected field. */
+    public static final int BITS_PER_FIELD = 10;
+    private static final int HASHES = 3;
+
+    private final BitSet bits;
+    private final int size;
+
+    /**
+     * Creates an empty filter sized for the given number of fields.
+     *
+     * @param expected the number of fields that will be added
+     */
+    public BloomFilter(int expected) {
+        this.size = Math.max(64, expected * BITS_PER_FIELD);
+        this.bits = new BitSet(size);
+    }
+
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            bits.set(Math.floorMod(h1 + i * h2, size));
+        }
+    }
+
+    /** @return false if f was definitely not added, true if it may have been */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            if (!bits.get(Math.floorMod(h1 + i * h2, size))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Spreads the bits of a hash code, so that nearby ints set distant bits. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
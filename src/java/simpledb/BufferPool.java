@@ -1,13 +1,20 @@
 package simpledb;
 
 import java.io.*;
+import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -17,6 +24,22 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is partitioned into shards, each owning a share of the frames,
+ * its own replacement state and its own latch; a page belongs to the shard
+ * its id hashes to. Hits take no latch at all, and misses, evictions and
+ * flushes only latch the shard of the page concerned, so transactions
+ * working on different pages do not serialize on one pool-wide monitor.
+ * <p>
+ * Every {@link #getPage} call pins the page it returns, and the caller
+ * releases the pin with {@link #unpinPage} once it has moved off the page;
+ * pins a transaction still holds are released when it completes. Two
+ * operators of one transaction on the same page, such as the two sides of
+ * a self-join, hold a pin each, so the page stays put until both have
+ * moved off it. Only
+ * pages that are neither pinned nor dirty are evicted, so an operator's
+ * current page stays put and uncommitted changes never leave the pool
+ * (NO STEAL).
  * 
  * @Threadsafe, all fields are final
  */
@@ -190,6 +213,19 @@ public class BufferPool {
 		public synchronized boolean hasExclusiveLock(PageId pid, TransactionId tid) {
 			return exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid);
 		}
+
+		public synchronized boolean isExclusivelyLocked(PageId pid) {
+			return exclusiveLocks.containsKey(pid);
+		}
+
+		public synchronized boolean hasExclusiveLockOnTable(int tableId, TransactionId tid) {
+			for (Map.Entry<PageId, TransactionId> e : exclusiveLocks.entrySet()) {
+				if (e.getKey().getTableId() == tableId && e.getValue().equals(tid)) {
+					return true;
+				}
+			}
+			return false;
+		}
 		
 	}
     /** Bytes per page, including header. */
@@ -202,22 +238,127 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default upper bound on the number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
+
+    private static int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    /** Name of the replacement policy new pools use unless told otherwise. */
+    public static final String DEFAULT_REPLACEMENT_POLICY = "clock";
+
+    private static String replacementPolicy = DEFAULT_REPLACEMENT_POLICY;
+
+    /**
+     * Default fraction of the pool a table must exceed for scans of it to
+     * read through a {@link BufferRing}: a table that takes up to three
+     * quarters of the pool is worth caching, a larger one would push out
+     * the pages of everything else.
+     */
+    public static final double DEFAULT_BULK_READ_FRACTION = 0.75;
+
+    private static double bulkReadFraction = DEFAULT_BULK_READ_FRACTION;
+
+    /** Fewest frames worth a shard of their own when the shard count is chosen automatically. */
+    public static final int MIN_SHARD_PAGES = 64;
+
+    /** Background thread that performs read-ahead I/O for all buffer pools. */
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-readahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * A partition of the pool's frames. Its latch, the shard's monitor,
+     * guards its policy and resident count, and is held while pages of the
+     * shard enter or leave the pool or are written out.
+     */
+    private static class Shard {
+        final int capacity;
+        /** Chooses the pages of this shard to evict. */
+        final ReplacementPolicy policy;
+        /** Number of pages of this shard in the pool. */
+        int resident = 0;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            this.policy = newPolicy(replacementPolicy, capacity);
+        }
+    }
+
+    /** The pins one transaction holds on one page. */
+    private static class Pin {
+        /** The pin count of the page's frame. */
+        final AtomicInteger count;
+        int held = 0;
+
+        Pin(AtomicInteger count) {
+            this.count = count;
+        }
+    }
+
+    /** Every resident page, of all shards; lookups need no latch. */
     public ConcurrentHashMap<PageId, Page> setofPages;
+    /**
+     * Pin count of every resident page. Eviction claims an unpinned page by
+     * setting its count from 0 to -1, after which it can no longer be
+     * pinned, so pins need no latch either.
+     */
+    private final ConcurrentHashMap<PageId, AtomicInteger> pinCounts = new ConcurrentHashMap<>();
+    /** The pins each transaction holds. */
+    private final ConcurrentHashMap<TransactionId, HashMap<PageId, Pin>> pinsOf = new ConcurrentHashMap<>();
     public int capacity;
-    public Deque<PageId> deque;
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
     LockManager lockManag;
+    /** Page reads in progress; demand reads and read-ahead of the same page share one read. */
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, with one shard
+     * per processor but no shard smaller than {@link #MIN_SHARD_PAGES}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                                            numPages / MIN_SHARD_PAGES)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split as evenly
+     * as possible across numShards shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards number of shards, at least 1 and at most numPages
+     */
+    public BufferPool(int numPages, int numShards) {
         // some code goes here
+        if (numShards < 1 || numShards > Math.max(1, numPages)) {
+            throw new IllegalArgumentException("cannot split " + numPages + " pages into " + numShards + " shards");
+        }
         this.setofPages = new ConcurrentHashMap<>();
         this.capacity = numPages;
-        deque = new ArrayDeque<>();
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard(numPages / numShards + (i < numPages % numShards ? 1 : 0));
+        }
         lockManag = new LockManager();
+        loading = new ConcurrentHashMap<>();
+    }
+
+    /** @return the number of shards the pool is split into */
+    public int numShards() {
+        return shards.length;
+    }
+
+    /** @return the shard pid belongs to */
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
     }
     
     public static int getPageSize() {
@@ -234,10 +375,75 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Selects the replacement policy of the pools created from now on:
+     * <code>clock</code> for {@link ClockPolicy} or <code>2q</code> for the
+     * scan-resistant {@link TwoQueuePolicy}. The parser's
+     * <code>-policy</code> option calls this at startup.
+     *
+     * @throws IllegalArgumentException if the name is not a known policy
+     */
+    public static void setReplacementPolicy(String name) {
+        newPolicy(name, 1);
+        BufferPool.replacementPolicy = name;
+    }
+
+    /** Restores the default replacement policy. */
+    public static void resetReplacementPolicy() {
+        BufferPool.replacementPolicy = DEFAULT_REPLACEMENT_POLICY;
+    }
+
+    private static ReplacementPolicy newPolicy(String name, int numPages) {
+        if (name.equals("clock"))
+            return new ClockPolicy(numPages);
+        if (name.equals("2q"))
+            return new TwoQueuePolicy(numPages);
+        throw new IllegalArgumentException("unknown replacement policy " + name);
+    }
+
+    /** @return the replacement policy of this pool's first shard; all shards use the same kind */
+    public ReplacementPolicy getReplacementPolicy() {
+        return shards[0].policy;
+    }
+
+    /**
+     * @return the fraction of {@link #getPage} calls since the pool was
+     *   created, or since {@link #resetHitRatio}, that found the page
+     *   resident; 0 if there were none
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** Starts counting hits and misses afresh. */
+    public void resetHitRatio() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Sets the largest number of pages a sequential scan may prefetch ahead
+     * of its current position; 0 disables read-ahead.
+     */
+    public static void setReadAheadPages(int pages) {
+        BufferPool.readAheadPages = pages;
+    }
+
+    /**
+     * @return the read-ahead window for scans of this pool: the configured
+     *   window, but never more than a quarter of the pool.
+     */
+    public int getReadAheadWindow() {
+        return Math.min(readAheadPages, capacity / 4);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
-     * transaction.
+     * transaction. The page is pinned until the caller passes it to
+     * {@link #unpinPage} or the transaction completes.
      * <p>
      * The retrieved page should be looked up in the buffer pool.  If it
      * is present, it should be returned.  If it is not present, it should
@@ -248,18 +454,228 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws DbException if the page has to be read but every page of its
+     *   shard is pinned or dirty
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	
+        lock(tid, pid, perm);
+        // checks whether this page is present in BufferPoll
+        Page resident = pinResident(tid, pid);
+        if (resident != null) {
+            // a hit takes no latch
+            shardOf(pid).policy.touch(pid);
+            hits.increment();
+            return resident;
+        }
+        misses.increment();
+
+        // Read the page (or wait for a read-ahead of it) and add it to the BufferPool
+        return pinLoaded(tid, pid);
+    }
+
+    /**
+     * Retrieves a page for a bulk read, such as a scan of a table much
+     * larger than the pool (see {@link #isBulkRead}). A page already
+     * resident is served from the pool as usual; any other page is read
+     * into the given ring instead, or taken from it if it was read ahead
+     * there, and does not displace any page of the pool. Pages requested
+     * with READ_WRITE permission, or that the transaction holds an
+     * exclusive lock on, always go through the pool, where the
+     * transaction's changes are. Only pages served from the pool are
+     * pinned.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+        lock(tid, pid, perm);
+        Page resident = pinResident(tid, pid);
+        if (resident != null) {
+            shardOf(pid).policy.touch(pid);
+            hits.increment();
+            return resident;
+        }
+        misses.increment();
+        FutureTask<Page> read = ring.take(pid);
+        if (loading.containsKey(pid) || lockManag.hasExclusiveLock(pid, tid)) {
+            // another transaction is reading it into the pool, or ours changed it
+            return pinLoaded(tid, pid);
+        }
+        if (read == null) {
+            read = newRead(pid);
+            read.run();
+        }
+        return await(read, pid);
+    }
+
+    /**
+     * Sets the fraction of the pool a table must exceed for scans of it to
+     * read through a {@link BufferRing}, leaving the pool to the pages of
+     * other transactions. Pages read through a ring are not pinned and do
+     * not count against the pool.
+     */
+    public static void setBulkReadFraction(double fraction) {
+        BufferPool.bulkReadFraction = fraction;
+    }
+
+    /** @return true if a table with the given number of pages exceeds the bulk read fraction of the pool */
+    public boolean isBulkRead(int numPages) {
+        return numPages > capacity * bulkReadFraction;
+    }
+
+    /**
+     * Returns true if a scan of a table by tid should read through a
+     * {@link BufferRing}: the table exceeds the bulk read fraction of the
+     * pool and tid has not changed any of its pages. A transaction that
+     * changed the table scans it through the pool, where its changes are,
+     * and competes for frames like any other reader.
+     *
+     * @param tid the scanning transaction
+     * @param tableId the table scanned
+     * @param numPages the number of pages of the table
+     */
+    public boolean isBulkRead(TransactionId tid, int tableId, int numPages) {
+        return isBulkRead(numPages) && !lockManag.hasExclusiveLockOnTable(tableId, tid);
+    }
+
+    /**
+     * Pins pid for tid if the page is resident.
+     *
+     * @return the page, or null if it is not resident or is being evicted
+     */
+    private Page pinResident(TransactionId tid, PageId pid) {
+        AtomicInteger count = pinCounts.get(pid);
+        if (count == null) {
+            return null;
+        }
+        int n;
+        do {
+            n = count.get();
+            if (n < 0) {
+                return null;
+            }
+        } while (!count.compareAndSet(n, n + 1));
+        Page page = setofPages.get(pid);
+        if (page == null) {
+            // discarded meanwhile
+            count.decrementAndGet();
+            return null;
+        }
+        if (tid == null) {
+            // nobody to release the pin later
+            count.decrementAndGet();
+            return page;
+        }
+        HashMap<PageId, Pin> pins = pinsOf.computeIfAbsent(tid, t -> new HashMap<PageId, Pin>());
+        synchronized (pins) {
+            Pin pin = pins.get(pid);
+            if (pin == null || pin.count != count) {
+                // any older pin is on a frame the page has since left
+                pin = new Pin(count);
+                pins.put(pid, pin);
+            }
+            pin.held++;
+        }
+        return page;
+    }
+
+    /** Reads pid into the pool, unless it is resident, and pins it for tid. */
+    private Page pinLoaded(TransactionId tid, PageId pid) throws DbException {
+        while (true) {
+            loadPage(pid);
+            // the page may be evicted again before it is pinned
+            Page page = pinResident(tid, pid);
+            if (page != null) {
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Releases one pin tid holds on a page, from one call to
+     * {@link #getPage}. Iterators and operators call this once they have
+     * moved off the page; the pins a transaction still holds are released
+     * when it completes. Does nothing if tid holds no pin on the page, as
+     * for pages read through a {@link BufferRing}.
+     *
+     * @param tid the transaction that got the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        HashMap<PageId, Pin> pins = tid == null ? null : pinsOf.get(tid);
+        if (pins == null) {
+            return;
+        }
+        synchronized (pins) {
+            Pin pin = pins.get(pid);
+            if (pin == null) {
+                return;
+            }
+            if (--pin.held == 0) {
+                pins.remove(pid);
+            }
+            pin.count.decrementAndGet();
+        }
+    }
+
+    /** Releases every pin tid holds. */
+    private void unpinAll(TransactionId tid) {
+        HashMap<PageId, Pin> pins = tid == null ? null : pinsOf.remove(tid);
+        if (pins == null) {
+            return;
+        }
+        synchronized (pins) {
+            for (Pin pin : pins.values()) {
+                pin.count.addAndGet(-pin.held);
+            }
+            pins.clear();
+        }
+    }
+
+    /** @return the number of pins on pid, 0 if it is not resident */
+    public int pinCount(PageId pid) {
+        AtomicInteger count = pinCounts.get(pid);
+        return count == null ? 0 : Math.max(0, count.get());
+    }
+
+    /** @return a task that reads pid from its DbFile without installing it in the pool */
+    private static FutureTask<Page> newRead(final PageId pid) {
+        return new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+        });
+    }
+
+    /**
+     * Acquires a lock on the specified page for the transaction without
+     * reading the page, blocking while another transaction holds a
+     * conflicting lock, but holding no latch of the pool's while it waits.
+     * {@link #getPage} locks pages this way; DbFiles
+     * whose data does not live in pages, such as a {@link LogicalDbFile}, use
+     * it to lock a page id standing for their data. The lock is released
+     * when the transaction completes.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would deadlock
+     */
+    public void lock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
     	boolean hasLock = false;
     	while(!hasLock) {
-    		synchronized(this) {
-    			if(perm == Permissions.READ_WRITE) {
-    				hasLock = lockManag.getExclusiveLock(pid, tid);
-    			} else {
-    				hasLock = lockManag.getReadLock(pid, tid);
-    			}
+    		if(perm == Permissions.READ_WRITE) {
+    			hasLock = lockManag.getExclusiveLock(pid, tid);
+    		} else {
+    			hasLock = lockManag.getReadLock(pid, tid);
     		}
     		if(!hasLock) {
     			try {
@@ -269,27 +685,128 @@ public class BufferPool {
     			}
     		}
     	}
-        // checks whether this page is present in BufferPoll
-        if (setofPages.keySet().contains(pid) && setofPages.get(pid) != null) {
-            // move to the front of the queue. Most recently used
-            deque.remove(pid);
-            deque.addLast(pid);
-            return setofPages.get(pid);
+    }
+
+    /**
+     * Reads the specified page from its DbFile and installs it in the pool,
+     * evicting an unpinned clean page of its shard if the shard is full. If the page is already being
+     * read (e.g. by read-ahead) the caller waits for that read instead of
+     * issuing a second one.
+     */
+    private Page loadPage(final PageId pid) throws DbException {
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                Shard s = shardOf(pid);
+                synchronized (s) {
+                    Page resident = setofPages.get(pid);
+                    if (resident != null) {
+                        return resident;
+                    }
+                    if (s.resident >= s.capacity) {
+                        evictPage(s);
+                    }
+                    cachePage(s, page);
+                }
+                return page;
+            }
+        });
+        FutureTask<Page> inFlight = loading.putIfAbsent(pid, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(pid, task);
+            }
         }
+        return await(inFlight, pid);
+    }
 
-        // some code goes here
-        if (setofPages.size() >= capacity ) {
-            evictPage();
+    /** Waits for a read of pid and returns the page it read. */
+    private static Page await(FutureTask<Page> read, PageId pid) throws DbException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while reading page " + pid.getPageNumber());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DbException) {
+                throw (DbException) e.getCause();
+            }
+            throw new DbException("failed to read page " + pid.getPageNumber() + ": " + e.getCause());
         }
+    }
 
-        // Gets the tableID contains this page
-        int tableId = pid.getTableId();
+    /**
+     * Asynchronously reads the specified page into the pool on the
+     * read-ahead thread. Read-ahead is best effort: it takes no locks, and
+     * the page is skipped if it is already resident or being read, if some
+     * transaction holds an exclusive lock on it, or if its shard has no
+     * unpinned clean page to make room. The transaction that later asks for the
+     * page through {@link #getPage} still acquires its lock as usual.
+     *
+     * @param pid the ID of the page to prefetch
+     */
+    public void prefetchPage(final PageId pid) {
+        if (setofPages.containsKey(pid) || loading.containsKey(pid)) {
+            return;
+        }
+        ioExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (setofPages.containsKey(pid) || lockManag.isExclusivelyLocked(pid)) {
+                        return;
+                    }
+                    Shard s = shardOf(pid);
+                    synchronized (s) {
+                        if (s.resident >= s.capacity && !evictCleanPage(s)) {
+                            return;
+                        }
+                    }
+                    loadPage(pid);
+                } catch (Exception e) {
+                    // read-ahead is only a hint; the demand read will report any real error
+                }
+            }
+        });
+    }
 
-        // Add the page the BufferPool and return
-        Page page = Database.getCatalog().idToFile.get(tableId).readPage(pid);
-        setofPages.put(pid, page);
-        deque.addLast(pid);
-        return page;
+    /**
+     * Asynchronously reads the specified page into a scan's ring on the
+     * read-ahead thread. The page is skipped if it is resident, being read,
+     * or already in the ring, and if any transaction holds an exclusive
+     * lock on it, since the shared lock could not be had without waiting
+     * or the page would be read through the pool anyway. Otherwise the
+     * lock is acquired now, which the scan would do anyway once it reaches
+     * the page, so that no other transaction can change the page while its
+     * copy waits in the ring.
+     *
+     * @param tid the transaction scanning
+     * @param pid the ID of the page to prefetch
+     * @param ring the scan's ring, or null to prefetch into the pool
+     */
+    public void prefetchPage(TransactionId tid, PageId pid, BufferRing ring) {
+        if (ring == null) {
+            prefetchPage(pid);
+            return;
+        }
+        if (setofPages.containsKey(pid) || loading.containsKey(pid) || ring.contains(pid)) {
+            return;
+        }
+        synchronized (lockManag) {
+            if (lockManag.isExclusivelyLocked(pid)) {
+                return;
+            }
+            try {
+                lockManag.getReadLock(pid, tid);
+            } catch (TransactionAbortedException e) {
+                return;
+            }
+        }
+        FutureTask<Page> read = newRead(pid);
+        if (ring.add(pid, read) == read) {
+            ioExecutor.execute(read);
+        }
     }
 
     /**
@@ -338,39 +855,38 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
         if (commit) {
-            // Flush all the dirty pages of this transaction to disk
-            //flushPages(tid);
-            for (PageId pid : setofPages.keySet()) {
-                if (setofPages.get(pid).isDirty() != null && setofPages.get(pid).isDirty().equals(tid)) {
-                    // Flush all pages to disk
-                    //flushPage(pid);
-                    // Write log for this page
-                    if (tid != null && Database.getLogFile().tidToFirstLogRecord.containsKey(tid.getId()) ){
-                        HeapPage page = (HeapPage) setofPages.get(pid);
-                        Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
-                        Database.getLogFile().force();
-                        // Mark not dirty
-                        setofPages.get(pid).markDirty(false, null);
-                        page.setBeforeImage();
-                    }
-                }
-            }
+            // Log and write the pages of this transaction before they are
+            // marked clean: a clean page may be evicted at any time, and
+            // its updates must not leave the pool with it (FORCE)
+            flushPages(tid);
             //Database.getLogFile().logCommit(tid);
 
         } else {
             // Abort and restore the page of its disk state
-            for (PageId pid : setofPages.keySet()) {
-                if (setofPages.get(pid).isDirty() != null && setofPages.get(pid).isDirty().equals(tid)) {
+            for (Page resident : setofPages.values()) {
+                if (resident.isDirty() != null && resident.isDirty().equals(tid)) {
+                    PageId pid = resident.getId();
                     // Flush all pages to disk
-                    Page page = Database.getCatalog().idToFile.get(pid.getTableId()).readPage(pid);
-                    setofPages.put(pid, page);
-                    //deque.addLast(pid);
+                    Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    Shard s = shardOf(pid);
+                    synchronized (s) {
+                        cachePage(s, page);
+                    }
                     // Mark not dirty
-                    setofPages.get(pid).markDirty(false, null);
+                    page.markDirty(false, null);
                 }
             }
             Database.getLogFile().logAbort(tid);
         }
+        // tables outside the pool commit or undo their own changes
+        Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+        while (tables.hasNext()) {
+            DbFile table = Database.getCatalog().getDatabaseFile(tables.next());
+            if (table instanceof LogicalDbFile) {
+                ((LogicalDbFile) table).transactionComplete(tid, commit);
+            }
+        }
+        unpinAll(tid);
         lockManag.releaseTransaction(tid);
 
         // Release any state of the BufferPool keeps regarding the transaction
@@ -397,8 +913,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        // Get the HeapFile from tableId
-        HeapFile hf = (HeapFile) Database.getCatalog().idToFile.get(tableId);
+        // Get the DbFile from tableId
+        DbFile hf = Database.getCatalog().getDatabaseFile(tableId);
         
         // Insert tuple t into this hf file.
         ArrayList<Page> li = hf.insertTuple(tid, t);
@@ -406,7 +922,10 @@ public class BufferPool {
             page.markDirty(true, tid);
 
             // replace this dirty page in Buffer Poll
-            setofPages.put(page.getId(), page);
+            Shard s = shardOf(page.getId());
+            synchronized (s) {
+                cachePage(s, page);
+            }
         }
 
     }
@@ -430,7 +949,7 @@ public class BufferPool {
         // not necessary for lab1
         // retrive the file base on info from tuple t
         int tableId =  t.getRecordId().getPageId().getTableId();
-        HeapFile hf = (HeapFile) Database.getCatalog().idToFile.get(tableId);
+        DbFile hf = Database.getCatalog().getDatabaseFile(tableId);
 
         // delete the tuple from the hf file
         ArrayList<Page> li = hf.deleteTuple(tid, t);
@@ -439,7 +958,10 @@ public class BufferPool {
             page.markDirty(true, tid);
 
             // replace this dirty page in Buffer Poll
-            setofPages.put(page.getId(), page);
+            Shard s = shardOf(page.getId());
+            synchronized (s) {
+                cachePage(s, page);
+            }
         }
         
     }
@@ -449,7 +971,7 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
         for (PageId pageId : setofPages.keySet()) {
@@ -465,27 +987,56 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-    	this.setofPages.remove(pid);
+        Shard s = shardOf(pid);
+        synchronized (s) {
+            if (setofPages.remove(pid) != null) {
+                s.resident--;
+            }
+            AtomicInteger count = pinCounts.remove(pid);
+            if (count != null) {
+                count.set(-1);
+            }
+            s.policy.remove(pid);
+        }
         // this.lockManag.exclusiveLocks.remove(pid);
         // this.lockManag.readLocks.remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Puts page in the pool, replacing any version of it there, and admits
+     * it to the shard's policy if it was not resident. The caller holds the
+     * shard's latch.
+     */
+    private void cachePage(Shard s, Page page) {
+        if (setofPages.put(page.getId(), page) == null) {
+            pinCounts.put(page.getId(), new AtomicInteger());
+            s.resident++;
+            s.policy.admit(page.getId());
+        }
+    }
+
+    /**
+     * Flushes a certain page to disk, unless it has left the pool since
+     * the caller saw it.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        // Get the page from Pageid
-        HeapPage page = (HeapPage) setofPages.get(pid);
-
-        if (page == null) {
-            throw new IOException("The page is not in Buffer Pool");
+        synchronized (shardOf(pid)) {
+            // Get the page from Pageid
+            Page page = setofPages.get(pid);
+            if (page != null) {
+                writePage(page);
+            }
         }
+    }
+
+    /** Logs page if its transaction is logged, then writes it to disk. */
+    private void writePage(Page page) throws IOException {
 
         TransactionId dirtier = page.isDirty();
         if (dirtier != null && Database.getLogFile().tidToFirstLogRecord.containsKey(dirtier.getId()) ){
@@ -494,46 +1045,67 @@ public class BufferPool {
         }
 
         // write this page to disk
-        Database.getCatalog().idToFile.get(pid.getTableId()).writePage(page);
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
 
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
         // Iterate through all pages in BufferPoll, and chekc tid of each page equal to tid
         for (PageId pid : setofPages.keySet()) {
-            if (setofPages.get(pid).isDirty() != null && setofPages.get(pid).isDirty().equals(tid)) {
-                // Flush all pages to disk
-                flushPage(pid);
-                // Mark not dirty
-                setofPages.get(pid).markDirty(false, null);
+            synchronized (shardOf(pid)) {
+                Page page = setofPages.get(pid);
+                if (page != null && tid.equals(page.isDirty())) {
+                    // Flush all pages to disk
+                    writePage(page);
+                    // Mark not dirty; later changes are logged against this image
+                    page.markDirty(false, null);
+                    page.setBeforeImage();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts a page of shard s that is neither pinned nor dirty, as chosen
+     * by the shard's replacement policy. The caller holds the shard's latch.
+     * @return true if a page was evicted, false if every resident page of the shard is pinned or dirty
+     */
+    private boolean evictCleanPage(Shard s) {
+        PageId pageId = s.policy.evict(pid -> {
+            Page page = setofPages.get(pid);
+            if (page == null) {
+                return true;
             }
+            AtomicInteger count = pinCounts.get(pid);
+            // claiming the count keeps anyone from pinning the page from now on
+            return page.isDirty() == null && (count == null || count.compareAndSet(0, -1));
+        });
+        if (pageId == null) {
+            return false;
+        }
+        if (setofPages.remove(pageId) != null) {
+            s.resident--;
         }
+        pinCounts.remove(pageId);
+        return true;
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards an unpinned clean page of shard s from the buffer pool. The
+     * caller holds the shard's latch. Dirty pages stay until their
+     * transaction completes (NO STEAL), so nothing is written.
+     * @throws DbException if every page of the shard is pinned or dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Shard s) throws DbException {
         // some code goes here
         // not necessary for lab1
-        Iterator<PageId> iter = deque.iterator();
-        while (iter.hasNext()) {
-            PageId pageId = iter.next();
-            // Get the first not dirty page
-            //if (setofPages.get(pageId).isDirty() == null) {
-                deque.remove(pageId);
-                // remove from the Hash
-                setofPages.remove(pageId);
-                break;
-            //}    
-        }
-        if (setofPages.size() >= this.capacity) {
-            throw new DbException("Buffer Pool is full and can't be evict");
+        if (!evictCleanPage(s) && s.resident >= s.capacity) {
+            throw new DbException("buffer pool exhausted: all " + s.resident
+                    + " pages of the shard are pinned or dirty");
         }
     }
 
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.FutureTask;
+
+/**
+ * BufferRing is a small set of page frames private to one scan. A scan of
+ * a table much larger than the buffer pool reads its pages into the ring
+ * instead of the pool (see {@link BufferPool#getPage(TransactionId, PageId,
+ * Permissions, BufferRing)}), so that it recycles the ring's frames rather
+ * than evicting the pages other transactions are working with. The ring
+ * holds the reads of the pages the scan is about to need, mostly those
+ * read ahead; a page leaves the ring once the scan has it, or, oldest
+ * first, when the ring is full.
+ *
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /** Default number of pages a ring holds. */
+    public static final int DEFAULT_PAGES = 32;
+
+    private final int size;
+    /** Reads of pages, done or in progress, oldest first. */
+    private final LinkedHashMap<PageId, FutureTask<Page>> reads = new LinkedHashMap<PageId, FutureTask<Page>>();
+
+    /**
+     * @param size the number of pages the ring holds
+     */
+    public BufferRing(int size) {
+        this.size = size;
+    }
+
+    /** @return the number of pages the ring holds */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes the read of pid from the ring, freeing its frame: a scan
+     * reads each page once.
+     *
+     * @return the read of pid, or null if the ring has none
+     */
+    synchronized FutureTask<Page> take(PageId pid) {
+        return reads.remove(pid);
+    }
+
+    /** @return true if the ring holds a read of pid */
+    synchronized boolean contains(PageId pid) {
+        return reads.containsKey(pid);
+    }
+
+    /**
+     * Adds the read of pid unless the ring has one already, dropping the
+     * oldest read if the ring is full.
+     *
+     * @return the read the ring now holds for pid
+     */
+    synchronized FutureTask<Page> add(PageId pid, FutureTask<Page> read) {
+        FutureTask<Page> existing = reads.get(pid);
+        if (existing != null) {
+            return existing;
+        }
+        if (reads.size() >= size) {
+            Iterator<PageId> oldest = reads.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        reads.put(pid, read);
+        return read;
+    }
+}
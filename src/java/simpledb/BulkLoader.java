@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader fills a heap file from a delimited text file (the format read
+ * by HeapFileEncoder) without going through the BufferPool.
+ * <p>
+ * The input is cut into large chunks at line boundaries. Worker threads
+ * parse the chunks in parallel and encode full HeapPage images directly,
+ * and the pages of each chunk are appended to the output with a single
+ * write, in input order. The last page of each chunk may be partly empty;
+ * later inserts fill those pages first.
+ * <p>
+ * The pages are written to a temporary file that is forced to disk and
+ * then renamed over the table's file, so a crash during a load leaves
+ * either the old contents or the complete new ones. Loads are not logged
+ * and must not run concurrently with transactions that use the table.
+ */
+public class BulkLoader {
+
+    /** Bytes of input handed to one worker at a time. */
+    static final int CHUNK_BYTES = 8 << 20;
+
+    /**
+     * Replaces the contents of a heap table that is already in the catalog
+     * with the rows of the given text file.
+     *
+     * @param tableName the table to load; it must be stored in a HeapFile
+     * @param in the text file to read, one row per line
+     * @param fieldSeparator the character separating the fields of a row
+     * @return the table's file
+     * @throws DbException if the table is not a heap table or has indexes
+     */
+    public static HeapFile load(String tableName, File in, char fieldSeparator)
+            throws DbException, IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName));
+        if (!(file instanceof HeapFile) || file instanceof SlottedHeapFile || file instanceof CompressedHeapFile
+                || file instanceof DictionaryHeapFile) {
+            throw new DbException("bulk load supports heap tables only, not " + tableName);
+        }
+        if (!Database.getCatalog().getIndexes(file.getId()).isEmpty()) {
+            throw new DbException("bulk load cannot maintain the indexes of " + tableName);
+        }
+        HeapFile hf = (HeapFile) file;
+        int oldPages = hf.numPages();
+        writeHeapFile(in, hf.getFile(), hf.getTupleDesc(), fieldSeparator,
+                Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < oldPages; i++) {
+            Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+        }
+        hf.fileReplaced();
+        return hf;
+    }
+
+    /**
+     * Creates a heap file from the rows of the given text file and adds it
+     * to the catalog under the given name.
+     *
+     * @param in the text file to read, one row per line
+     * @param out the heap file to create; an existing file is replaced
+     * @param td the schema of the rows
+     * @param tableName the name to register the table under
+     * @param fieldSeparator the character separating the fields of a row
+     * @return the new table's file
+     */
+    public static HeapFile load(File in, File out, TupleDesc td, String tableName, char fieldSeparator)
+            throws IOException {
+        writeHeapFile(in, out, td, fieldSeparator, Runtime.getRuntime().availableProcessors());
+        HeapFile hf = new HeapFile(out, td);
+        Database.getCatalog().addTable(hf, tableName);
+        return hf;
+    }
+
+    /**
+     * Encodes the rows of in as heap pages and writes them to out.
+     *
+     * @param threads the number of chunks to parse at the same time
+     * @return the number of pages written
+     */
+    static int writeHeapFile(File in, File out, TupleDesc td, char fieldSeparator, int threads)
+            throws IOException {
+        return writeHeapFile(in, out, td, fieldSeparator, threads, CHUNK_BYTES);
+    }
+
+    /**
+     * Encodes the rows of in as heap pages and writes them to out, handing
+     * chunkBytes of input to a worker at a time.
+     */
+    static int writeHeapFile(File in, File out, TupleDesc td, char fieldSeparator, int threads,
+            int chunkBytes) throws IOException {
+        File temp = new File(out.getPath() + ".load");
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(threads, 1));
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        int pages = 0;
+        try (FileChannel src = FileChannel.open(in.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] carry = new byte[0];
+            ByteBuffer block = ByteBuffer.allocate(chunkBytes);
+            boolean eof = false;
+            while (!eof) {
+                block.clear();
+                block.put(carry);
+                while (block.hasRemaining()) {
+                    if (src.read(block) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                byte[] bytes = block.array();
+                int end = block.position();
+                int cut = end;
+                if (!eof) {
+                    // hand over whole lines only
+                    while (cut > 0 && bytes[cut - 1] != '\n') {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        throw new IOException("line longer than " + chunkBytes + " bytes in " + in);
+                    }
+                }
+                final byte[] chunk = Arrays.copyOf(bytes, cut);
+                carry = Arrays.copyOfRange(bytes, cut, end);
+                pending.add(workers.submit(new Callable<byte[]>() {
+                    public byte[] call() {
+                        return encodeChunk(chunk, td, fieldSeparator);
+                    }
+                }));
+                // keep a bounded number of chunks in memory
+                while (pending.size() > 2 * threads || (eof && !pending.isEmpty())) {
+                    pages += writeChunk(dst, pending.poll());
+                }
+            }
+            dst.force(true);
+        } finally {
+            workers.shutdownNow();
+        }
+        Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return pages;
+    }
+
+    private static int writeChunk(FileChannel dst, Future<byte[]> chunk) throws IOException {
+        byte[] data;
+        try {
+            data = chunk.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("failed to encode input", e.getCause());
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            dst.write(buf);
+        }
+        return data.length / BufferPool.getPageSize();
+    }
+
+    /**
+     * Parses the lines of chunk and encodes them as consecutive HeapPage
+     * images. Malformed lines are reported and skipped.
+     */
+    static byte[] encodeChunk(byte[] chunk, TupleDesc td, char fieldSeparator) {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int slots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length + pageSize);
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        Field[] row = new Field[td.numFields()];
+        int slot = 0;
+
+        int pos = 0;
+        while (pos < chunk.length) {
+            int eol = pos;
+            while (eol < chunk.length && chunk[eol] != '\n') {
+                eol++;
+            }
+            int lineEnd = eol;
+            if (lineEnd > pos && chunk[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > pos && parseLine(chunk, pos, lineEnd, td, fieldSeparator, row)) {
+                int offset = headerSize + slot * tupleSize;
+                for (int i = 0; i < row.length; i++) {
+                    row[i].serialize(page, offset);
+                    offset += td.getFieldType(i).getLen();
+                }
+                page.put(slot / 8, (byte) (page.get(slot / 8) | (1 << (slot % 8))));
+                if (++slot == slots) {
+                    out.write(page.array(), 0, pageSize);
+                    page = ByteBuffer.allocate(pageSize);
+                    slot = 0;
+                }
+            }
+            pos = eol + 1;
+        }
+        if (slot > 0) {
+            out.write(page.array(), 0, pageSize);
+        }
+        return out.toByteArray();
+    }
+
+    /** Splits one line into fields; returns false if the line is malformed. */
+    private static boolean parseLine(byte[] b, int start, int end, TupleDesc td, char sep, Field[] row) {
+        int field = 0;
+        int pos = start;
+        while (field < row.length) {
+            int next = pos;
+            while (next < end && b[next] != sep) {
+                next++;
+            }
+            if (next == end && field < row.length - 1) {
+                break;
+            }
+            int s = pos, e = next;
+            while (s < e && b[s] <= ' ') s++;
+            while (e > s && b[e - 1] <= ' ') e--;
+            if (td.getFieldType(field) == Type.INT_TYPE) {
+                try {
+                    row[field] = new IntField(Integer.parseInt(new String(b, s, e - s)));
+                } catch (NumberFormatException ex) {
+                    break;
+                }
+            } else {
+                row[field] = new StringField(new String(b, s, Math.min(e - s, Type.STRING_LEN)), Type.STRING_LEN);
+            }
+            field++;
+            pos = next + 1;
+        }
+        if (field < row.length) {
+            System.out.println("BAD LINE : " + new String(b, start, end - start));
+            return false;
+        }
+        return true;
+    }
+}
@@ -20,6 +20,12 @@ public class Catalog {
     public HashMap<Integer, DbFile> idToFile;
     public HashMap<Integer, String> idToName;
     public HashMap<Integer, String> idToKey;
+    /** Index files by their own id; they are DbFiles but not tables. */
+    private final HashMap<Integer, DbIndex> idToIndex;
+    /** The indexes of each table, by table id. */
+    private final HashMap<Integer, ArrayList<DbIndex>> tableToIndexes;
+    /** Partition files by their own id; they hold a table's tuples but are not tables. */
+    private final HashMap<Integer, HeapFile> idToPartition;
 
     /**
      * Constructor.
@@ -30,6 +36,9 @@ public class Catalog {
         this.idToFile = new HashMap<>();
         this.idToName = new HashMap<>();
         this.idToKey = new HashMap<>();
+        this.idToIndex = new HashMap<>();
+        this.tableToIndexes = new HashMap<>();
+        this.idToPartition = new HashMap<>();
     }
 
     /**
@@ -39,15 +48,28 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
+     * The partitions of a {@link PartitionedDbFile} are added along with it, so
+     * their pages are resolved through {@link #getDatabaseFile}.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
         if (idToName.values().contains(name)) {
             int id = this.getTableId(name);
-            idToFile.remove(id);
+            DbFile old = idToFile.remove(id);
             idToKey.remove(id);
             idToName.remove(id);
+            removeIndexes(id);
+            if (old instanceof PartitionedDbFile) {
+                for (HeapFile partition : ((PartitionedDbFile) old).getPartitions()) {
+                    idToPartition.remove(partition.getId());
+                }
+            }
+        }
+        if (file instanceof PartitionedDbFile) {
+            for (HeapFile partition : ((PartitionedDbFile) file).getPartitions()) {
+                idToPartition.put(partition.getId(), partition);
+            }
         }
         idToFile.put(file.getId(), file);
         idToKey.put(file.getId(), pkeyField);
@@ -69,6 +91,77 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index to the catalog. Its pages are then resolved through
+     * {@link #getDatabaseFile} like table pages, and the Insert and Delete
+     * operators maintain it along with its table.
+     * @param index the index to add; the table it indexes must already be
+     *    in the catalog
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     * @throws UnsupportedOperationException if the indexed table is partitioned
+     *    or its tuples do not live in pages
+     */
+    public void addIndex(DbIndex index) throws NoSuchElementException {
+        if (!idToFile.containsKey(index.getTableId())) {
+            throw new NoSuchElementException();
+        }
+        DbFile table = idToFile.get(index.getTableId());
+        if (table instanceof PartitionedDbFile || table instanceof LogicalDbFile) {
+            throw new UnsupportedOperationException(table.getClass().getSimpleName() + " tables cannot be indexed");
+        }
+        idToIndex.put(index.getId(), index);
+        ArrayList<DbIndex> indexes = tableToIndexes.get(index.getTableId());
+        if (indexes == null) {
+            indexes = new ArrayList<DbIndex>();
+            tableToIndexes.put(index.getTableId(), indexes);
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * Returns the indexes of the specified table, which may be none.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public List<DbIndex> getIndexes(int tableid) {
+        ArrayList<DbIndex> indexes = tableToIndexes.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Returns an index on the specified field of a table that can answer
+     * predicates with the given operator, or null if there is none. For
+     * equality a hash index is preferred, since a lookup in it reads a
+     * single bucket.
+     */
+    public DbIndex getIndex(int tableid, int field, Predicate.Op op) {
+        DbIndex found = null;
+        for (DbIndex index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.supports(op)) {
+                if (index instanceof HashIndexFile) {
+                    return index;
+                }
+                if (found == null) {
+                    found = index;
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Forgets the indexes of a table that is no longer in the catalog. */
+    private void removeIndexes(int tableid) {
+        ArrayList<DbIndex> indexes = tableToIndexes.remove(tableid);
+        if (indexes != null) {
+            for (DbIndex index : indexes) {
+                idToIndex.remove(index.getId());
+            }
+        }
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -94,24 +187,28 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (!idToFile.keySet().contains(tableid)) {
-            throw new NoSuchElementException();
-        }
-        return idToFile.get(tableid).getTupleDesc();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or the index or partition file with that id.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable or addIndex
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (!idToFile.keySet().contains(tableid)) {
+        DbFile file = idToFile.get(tableid);
+        if (file == null) {
+            file = idToIndex.get(tableid);
+        }
+        if (file == null) {
+            file = idToPartition.get(tableid);
+        }
+        if (file == null) {
             throw new NoSuchElementException();
         }
-        return idToFile.get(tableid);
+        return file;
     }
 
     public String getPrimaryKey(int tableid) {
@@ -129,16 +226,38 @@ public class Catalog {
         return idToName.get(id);
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        ArrayList<DbFile> files = new ArrayList<DbFile>(idToFile.values());
+        files.addAll(idToIndex.values());
+        for (DbFile f : files) {
+            try {
+                f.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         idToFile.clear();
         idToKey.clear();
         idToName.clear();
+        idToIndex.clear();
+        tableToIndexes.clear();
+        idToPartition.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A field annotated with <code>btree</code> gets a {@link BTreeFile} index,
+     * one annotated with <code>hash</code> a {@link HashIndexFile} and one
+     * annotated with <code>bitmap</code> a {@link BitmapIndexFile}, stored
+     * next to the table as <code>table.field.btree</code>,
+     * <code>table.field.hash</code> or <code>table.field.bitmap</code>.
+     * A table whose line ends in a partitioning clause, e.g.
+     * <code>partition by range(venueid) (10, 20)</code> or
+     * <code>partition by hash(venueid) 4</code>, is stored in a
+     * {@link PartitionedDbFile} whose partitions are stored as
+     * <code>table.p0.dat</code>, <code>table.p1.dat</code> and so on.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -156,6 +275,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String[]> indexedFields = new ArrayList<String[]>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -167,11 +287,14 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("btree") || els2[i].trim().equals("hash")
+                                || els2[i].trim().equals("bitmap"))
+                            indexedFields.add(new String[] {els2[0].trim(), els2[i].trim()});
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -179,17 +302,151 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                String partitioning = "";
+                int clause = storage.toLowerCase().indexOf("partition by");
+                if (clause >= 0) {
+                    partitioning = storage.substring(clause + "partition by".length()).trim();
+                    storage = storage.substring(0, clause).trim();
+                }
+                storage = storage.toLowerCase();
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (partitioning.isEmpty()) {
+                    tabHf = openTableFile(dataFile, t, storage, primaryKey);
+                } else {
+                    tabHf = openPartitionedFile(dataFile, t, storage, partitioning);
+                }
+                if (!indexedFields.isEmpty()
+                        && (tabHf instanceof PartitionedDbFile || tabHf instanceof LogicalDbFile)) {
+                    System.out.println("Table " + name + " cannot be indexed");
+                    System.exit(0);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String[] indexed : indexedFields) {
+                    File indexFile = new File(baseFolder+"/"+name+"."+indexed[0]+"."+indexed[1]);
+                    openIndex(indexFile, tabHf.getId(), t.fieldNameToIndex(indexed[0]), indexed[1]);
+                    System.out.println("Added " + indexed[1] + " index on " + name + "." + indexed[0]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException | NoSuchElementException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
     }
-}
 
+    /**
+     * Adds an index declared in a schema file, building it from the table's
+     * contents if its file does not exist yet.
+     */
+    private void openIndex(File f, int tableId, int field, String kind) throws IOException {
+        boolean isNew = f.length() == 0;
+        DbIndex index;
+        if (kind.equals("btree"))
+            index = new BTreeFile(f, tableId, field);
+        else if (kind.equals("bitmap"))
+            index = new BitmapIndexFile(f, tableId, field);
+        else
+            index = new HashIndexFile(f, tableId, field);
+        addIndex(index);
+        if (isNew) {
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+            } catch (DbException | TransactionAbortedException e) {
+                throw new IOException("cannot build index " + f + ": " + e.getMessage());
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Creates the PartitionedDbFile for a table declared in a schema file
+     * with a partitioning clause, which is either
+     * <code>range(field) (bound, bound, ...)</code> or
+     * <code>hash(field) partitions</code>. Each partition is stored as
+     * given by the storage keyword.
+     *
+     * @param f the table's data file, which the partition files are named after
+     * @param spec the partitioning clause, without <code>partition by</code>
+     */
+    private PartitionedDbFile openPartitionedFile(File f, TupleDesc td, String storage, String spec) {
+        String kind = spec.substring(0, spec.indexOf("(")).trim().toLowerCase();
+        int field = td.fieldNameToIndex(spec.substring(spec.indexOf("(") + 1, spec.indexOf(")")).trim());
+        String args = spec.substring(spec.indexOf(")") + 1).trim();
+        int[] bounds = null;
+        int count;
+        if (kind.equals("range")) {
+            String[] els = args.substring(args.indexOf("(") + 1, args.indexOf(")")).split(",");
+            bounds = new int[els.length];
+            for (int i = 0; i < els.length; i++)
+                bounds[i] = Integer.parseInt(els[i].trim());
+            count = bounds.length + 1;
+        } else if (kind.equals("hash")) {
+            count = Integer.parseInt(args);
+        } else {
+            System.out.println("Unknown partitioning " + kind);
+            System.exit(0);
+            return null;
+        }
+        String base = f.getName().substring(0, f.getName().length() - ".dat".length());
+        HeapFile[] partitions = new HeapFile[count];
+        for (int i = 0; i < count; i++) {
+            DbFile p = openTableFile(new File(f.getParentFile(), base + ".p" + i + ".dat"), td, storage, "");
+            if (!(p instanceof HeapFile)) {
+                System.out.println("Storage " + storage + " cannot be partitioned");
+                System.exit(0);
+            }
+            partitions[i] = (HeapFile) p;
+        }
+        try {
+            return bounds == null ? PartitionedDbFile.byHash(f, td, field, partitions)
+                    : PartitionedDbFile.byRange(f, td, field, bounds, partitions);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid partitioning " + spec + ": " + e.getMessage());
+            System.exit(0);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the DbFile for a table declared in a schema file. The text
+     * after the column list selects how the table is stored:
+     * <ul>
+     * <li> nothing, or <code>heap</code>: a plain {@link HeapFile}
+     * <li> <code>mmap</code>: a {@link MappedHeapFile}, read through a memory mapping
+     * <li> <code>slotted</code>: a {@link SlottedHeapFile}, storing variable-length records
+     * <li> <code>column</code>: a {@link ColumnFile}, storing each column separately
+     * <li> <code>compressed</code>: a {@link CompressedHeapFile}, storing every page deflated
+     * <li> <code>dict</code>: a {@link DictionaryHeapFile}, storing string columns as dictionary codes
+     * <li> <code>memory</code>: a {@link MemoryDbFile}, keeping the table in memory
+     * <li> <code>lsm</code>: an {@link LsmDbFile}, a log-structured merge tree
+     *   sorted by the primary key, or else the first field
+     * </ul>
+     */
+    private DbFile openTableFile(File f, TupleDesc td, String storage, String primaryKey) {
+        if (storage.equals("") || storage.equals("heap"))
+            return new HeapFile(f, td);
+        if (storage.equals("mmap"))
+            return new MappedHeapFile(f, td);
+        if (storage.equals("slotted"))
+            return new SlottedHeapFile(f, td);
+        if (storage.equals("column"))
+            return new ColumnFile(f, td);
+        if (storage.equals("compressed"))
+            return new CompressedHeapFile(f, td);
+        if (storage.equals("dict"))
+            return new DictionaryHeapFile(f, td);
+        if (storage.equals("memory"))
+            return new MemoryDbFile(f, td);
+        if (storage.equals("lsm"))
+            return new LsmDbFile(f, td, primaryKey.isEmpty() ? 0 : td.fieldNameToIndex(primaryKey));
+        System.out.println("Unknown storage " + storage);
+        System.exit(0);
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ClockPolicy chooses the pages a BufferPool evicts by the CLOCK, or
+ * second-chance, approximation of LRU. Every resident page occupies a
+ * frame with a reference bit. A hit only sets the bit of the page's frame,
+ * in constant time and without locking. To find a victim a hand sweeps the
+ * frames, clearing set bits and stopping at the first page whose bit is
+ * already clear, so a page survives a sweep once for every time it was
+ * used; each bit the hand clears was set by a hit, which makes eviction
+ * amortized constant time.
+ * <p>
+ * CLOCK is the default policy. Like LRU it favors recently used pages, so
+ * a large sequential scan can push the whole working set out of the pool;
+ * {@link TwoQueuePolicy} resists that.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final PageId[] frames;
+    private final AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf = new ConcurrentHashMap<PageId, Integer>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    /**
+     * @param numFrames the number of pages the pool holds
+     */
+    public ClockPolicy(int numFrames) {
+        frames = new PageId[numFrames];
+        referenced = new AtomicIntegerArray(numFrames);
+        for (int i = 0; i < numFrames; i++) {
+            free.add(i);
+        }
+    }
+
+    public void touch(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f != null) {
+            referenced.set(f, 1);
+        }
+    }
+
+    /** Places pid in a free frame; fails if every frame is taken. */
+    public boolean admit(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            touch(pid);
+            return true;
+        }
+        Integer f = free.poll();
+        if (f == null) {
+            return false;
+        }
+        frames[f] = pid;
+        referenced.set(f, 1);
+        frameOf.put(pid, f);
+        return true;
+    }
+
+    public void remove(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f != null) {
+            frames[f] = null;
+            free.add(f);
+        }
+    }
+
+    /**
+     * Sweeps the hand at most twice around the frames, so that every page
+     * whose bit was set gets a chance to be tested once it is cleared.
+     */
+    public PageId evict(java.util.function.Predicate<PageId> evictable) {
+        for (int steps = 0; steps < 2 * frames.length; steps++) {
+            int f = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[f];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(f, 0) == 1) {
+                continue;
+            }
+            if (evictable.test(pid)) {
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,398 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ColumnFile is a column-oriented DbFile: each column of the table is kept
+ * in its own chain of {@link ColumnPage}s, stored in its own file next to
+ * the table's file (column i of <code>t.dat</code> lives in
+ * <code>t.dat.i</code>). A scan that needs only some of the columns reads
+ * only their pages; see {@link #iterator(TransactionId, int[])} and
+ * {@link ColumnScan}.
+ * <p>
+ * Rows are numbered from zero. Row r of column c is stored in slot
+ * r % s of page r / s of that column's chain, where s is the number of
+ * values of the column's type that fit on one page. The pages of column 0
+ * decide where new rows go, and their ids are used in the RecordIds of the
+ * tuples of this file.
+ * <p>
+ * Tuples returned by this file decode their fields from the column pages
+ * only when {@link Tuple#getField} is called.
+ * <p>
+ * Select it for a table by adding <code>column</code> after the column list
+ * in the catalog file, e.g. <code>venues (id int, name string, year int) column</code>.
+ *
+ * @see ColumnPage
+ * @see ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final PageChannel[] columns;
+    private final int[] rowsPerPage;
+    /** Number of pages in the chain of column 0, including ones not yet flushed. */
+    private final AtomicInteger numRowPages;
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+
+    /**
+     * Constructs a column file for the table whose catalog file is f.
+     *
+     * @param f the table's file; the columns are stored in files named
+     *   after it (see {@link #getColumnFile})
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.columns = new PageChannel[td.numFields()];
+        this.rowsPerPage = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new PageChannel(getColumnFile(i));
+            rowsPerPage[i] = ColumnPage.getNumSlots(td.getFieldType(i));
+        }
+        long len = getColumnFile(0).length();
+        this.numRowPages = new AtomicInteger((int) ((len + BufferPool.getPageSize() - 1) / BufferPool.getPageSize()));
+    }
+
+    /**
+     * Returns the File this table was created with. The data itself is in
+     * the per-column files returned by {@link #getColumnFile}.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the file holding the page chain of the given column
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + "." + column);
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows whose slots have been allocated, i.e. an
+     *   upper bound on the number of tuples in this file
+     */
+    int numRows() {
+        return numRowPages.get() * rowsPerPage[0];
+    }
+
+    /**
+     * @return the number of pages in the page chain of the given column
+     */
+    public int numPages(int column) {
+        return (numRows() + rowsPerPage[column] - 1) / rowsPerPage[column];
+    }
+
+    /**
+     * @return the number of pages of all columns together, i.e. the number
+     *   of pages a scan of whole rows reads
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int i = 0; i < columns.length; i++) {
+            pages += numPages(i);
+        }
+        return pages;
+    }
+
+    /**
+     * @return the id of the page holding the given row of the given column
+     */
+    ColumnPageId rowPageId(int row, int column) {
+        return new ColumnPageId(getId(), column, row / rowsPerPage[column]);
+    }
+
+    /**
+     * @return the slot holding the given row on its page of the given column
+     */
+    int rowSlot(int row, int column) {
+        return row % rowsPerPage[column];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            columns[cpid.getColumn()].readPage(cpid.getPageNumber(), data);
+            ColumnPage page = new ColumnPage(cpid, data);
+            if (cpid.getColumn() == 0) {
+                freeSpace.update(cpid.getPageNumber(), page.getNumEmptySlots());
+            }
+            return page;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        columns[cpid.getColumn()].writePage(cpid.getPageNumber(), page.getPageData());
+    }
+
+    /**
+     * Closes the files of all columns; they are reopened on the next page
+     * access.
+     */
+    public void close() throws IOException {
+        for (PageChannel c : columns) {
+            c.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("Tupledesc is mismatch");
+        }
+        BufferPool pool = Database.getBufferPool();
+        int pageNo;
+        while ((pageNo = freeSpace.findPage(tid.hashCode(), numRowPages.get(), 1)) >= 0) {
+            ColumnPageId pid = new ColumnPageId(getId(), 0, pageNo);
+            boolean heldLock = pool.holdsLock(tid, pid);
+            ColumnPage page = (ColumnPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            int slot = page.getFirstEmptySlot();
+            if (slot >= 0) {
+                return insertRow(tid, page, slot, t);
+            }
+            // stale entry: the page is full, and we only looked at it
+            freeSpace.update(pageNo, 0);
+            pool.unpinPage(tid, pid);
+            if (!heldLock) {
+                pool.releasePage(tid, pid);
+            }
+        }
+        pageNo = numRowPages.getAndIncrement();
+        ColumnPage page = (ColumnPage) pool.getPage(tid, new ColumnPageId(getId(), 0, pageNo),
+                Permissions.READ_WRITE);
+        return insertRow(tid, page, page.getFirstEmptySlot(), t);
+    }
+
+    /** Stores t in the row whose column 0 value goes in the given slot of first. */
+    private ArrayList<Page> insertRow(TransactionId tid, ColumnPage first, int slot, Tuple t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> res = new ArrayList<Page>();
+        int row = first.getId().getPageNumber() * rowsPerPage[0] + slot;
+        first.setField(slot, t.getField(0));
+        res.add(first);
+        for (int i = 1; i < columns.length; i++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, rowPageId(row, i),
+                    Permissions.READ_WRITE);
+            page.setField(rowSlot(row, i), t.getField(i));
+            res.add(page);
+        }
+        freeSpace.update(first.getId().getPageNumber(), first.getNumEmptySlots());
+        t.setRecordId(new RecordId(first.getId(), slot));
+        return res;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("Tuple is not in this file");
+        }
+        int row = rid.getPageId().getPageNumber() * rowsPerPage[0] + rid.getTupleNumber();
+        ArrayList<Page> res = new ArrayList<Page>();
+        for (int i = 0; i < columns.length; i++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, rowPageId(row, i),
+                    Permissions.READ_WRITE);
+            page.clearSlot(rowSlot(row, i));
+            res.add(page);
+        }
+        freeSpace.update(rid.getPageId().getPageNumber(), ((ColumnPage) res.get(0)).getNumEmptySlots());
+        return res;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[columns.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the given columns of the rows of this file.
+     * Only the pages of those columns are read; the returned tuples have
+     * the TupleDesc returned by {@link #getTupleDesc(int[])}.
+     *
+     * @param tid the transaction the scan runs in
+     * @param cols the columns to return, in output order; at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] cols) {
+        if (cols.length == 0) {
+            throw new IllegalArgumentException("a column scan needs at least one column");
+        }
+        return new ColumnFileIterator(tid, cols.clone());
+    }
+
+    /**
+     * @return the TupleDesc of tuples holding only the given columns
+     */
+    public TupleDesc getTupleDesc(int[] cols) {
+        Type[] types = new Type[cols.length];
+        String[] names = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            types[i] = td.getFieldType(cols[i]);
+            names[i] = td.getFieldName(cols[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * A tuple backed by column pages. Each field is decoded from its page
+     * the first time it is asked for; the pages decode the cells of a slot
+     * before changing it, so the tuple keeps the values it was read with.
+     */
+    static class ColumnTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+        private final ColumnPage.Cell[] cells;
+        private final Field[] fields;
+
+        ColumnTuple(TupleDesc td, ColumnPage.Cell[] cells) {
+            super(td);
+            this.cells = cells;
+            this.fields = new Field[cells.length];
+        }
+
+        public Field getField(int i) {
+            if (fields[i] == null) {
+                fields[i] = cells[i].get();
+            }
+            return fields[i];
+        }
+
+        public void setField(int i, Field f) {
+            fields[i] = f;
+        }
+
+        public Iterator<Field> fields() {
+            ArrayList<Field> all = new ArrayList<Field>();
+            for (int i = 0; i < fields.length; i++) {
+                all.add(getField(i));
+            }
+            return all.iterator();
+        }
+    }
+
+    /**
+     * Iterates over the rows of the file, reading the pages of the
+     * requested columns only. Row liveness is taken from the column with
+     * the most values per page, so empty stretches are skipped a page at a
+     * time with the fewest page reads.
+     */
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] cols;
+        private final TupleDesc outTd;
+        /** Index into cols of the column used to find live rows. */
+        private final int driver;
+        private final ColumnPage[] current;
+        private int row;
+        private int limit;
+        private boolean open = false;
+
+        ColumnFileIterator(TransactionId tid, int[] cols) {
+            this.tid = tid;
+            this.cols = cols;
+            this.outTd = getTupleDesc(cols);
+            this.current = new ColumnPage[cols.length];
+            int best = 0;
+            for (int i = 1; i < cols.length; i++) {
+                if (rowsPerPage[cols[i]] > rowsPerPage[cols[best]]) {
+                    best = i;
+                }
+            }
+            this.driver = best;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            row = 0;
+            limit = numRows();
+            for (int i = 0; i < current.length; i++) {
+                unpin(i);
+            }
+            open = true;
+        }
+
+        /** @return the page of the i-th requested column that holds row */
+        private ColumnPage page(int i, int row) throws DbException, TransactionAbortedException {
+            ColumnPageId pid = rowPageId(row, cols[i]);
+            if (current[i] == null || !current[i].getId().equals(pid)) {
+                unpin(i);
+                current[i] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            return current[i];
+        }
+
+        /** Releases the pin on the current page of the i-th requested column. */
+        private void unpin(int i) {
+            if (current[i] != null) {
+                Database.getBufferPool().unpinPage(tid, current[i].getId());
+                current[i] = null;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return null;
+            }
+            int per = rowsPerPage[cols[driver]];
+            while (row < limit) {
+                ColumnPage p = page(driver, row);
+                int slot = rowSlot(row, cols[driver]);
+                if (slot == 0 && p.getNumEmptySlots() == p.numSlots) {
+                    row += per;
+                    continue;
+                }
+                if (!p.isSlotUsed(slot)) {
+                    row++;
+                    continue;
+                }
+                ColumnPage.Cell[] cells = new ColumnPage.Cell[cols.length];
+                for (int i = 0; i < cols.length; i++) {
+                    cells[i] = page(i, row).getCell(rowSlot(row, cols[i]));
+                }
+                Tuple t = new ColumnTuple(outTd, cells);
+                t.setRecordId(new RecordId(rowPageId(row, 0), rowSlot(row, 0)));
+                row++;
+                return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            for (int i = 0; i < current.length; i++) {
+                unpin(i);
+            }
+            open = false;
+        }
+    }
+}
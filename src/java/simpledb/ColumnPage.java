@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnPage stores the values of a single column for a range of rows of a
+ * ColumnFile. Like HeapPage it starts with a bitmap header marking which
+ * slots are in use, followed by one fixed-size value per slot; a page of an
+ * int column therefore holds
+ * <p>
+ *          floor((BufferPool.getPageSize()*8) / (4 * 8 + 1))
+ * <p>
+ * values, far more than a HeapPage holds rows of a wide table.
+ * <p>
+ * The page keeps its on-disk image and decodes a value only when
+ * {@link #getField} asks for it, so scanning a page does not allocate a
+ * Field for every slot up front. Scans hand out the values of a slot as a
+ * {@link Cell}; before a slot is overwritten or cleared the page decodes
+ * its cell, so tuples built from it keep their values.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    final int numSlots;
+    final int headerSize;
+    private final byte[] data;
+    private final ByteBuffer image;
+    /** The cell handed out for each slot, if any. */
+    private final Cell[] cells;
+    private boolean dirty;
+    private TransactionId transactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a page image read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page image; it is copied
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.numSlots = getNumSlots(type);
+        this.headerSize = (numSlots + 7) / 8;
+        this.data = data.clone();
+        this.image = ByteBuffer.wrap(this.data);
+        this.cells = new Cell[numSlots];
+        this.dirty = false;
+        this.transactionId = null;
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of values of the given type that fit on one page
+     */
+    public static int getNumSlots(Type type) {
+        return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page image
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Decodes the value stored in the given slot. The layout of a value is
+     * the same as Field.serialize() produces.
+     */
+    public Field getField(int slot) {
+        return type.parse(image, headerSize + slot * type.getLen());
+    }
+
+    /**
+     * Returns the cell for the value stored in the given slot. The value is
+     * decoded the first time it is asked for, but never after the slot
+     * changed.
+     */
+    Cell getCell(int slot) {
+        if (cells[slot] == null) {
+            cells[slot] = new Cell(this, slot);
+        }
+        return cells[slot];
+    }
+
+    /**
+     * Decodes the cell handed out for the given slot, if any, and forgets
+     * it, so the slot can change under tuples that are still in use.
+     */
+    private void detach(int slot) {
+        if (cells[slot] != null) {
+            cells[slot].get();
+            cells[slot] = null;
+        }
+    }
+
+    /**
+     * Stores f in the given slot and marks the slot as used.
+     */
+    public void setField(int slot, Field f) {
+        detach(slot);
+        f.serialize(image, headerSize + slot * type.getLen());
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Clears the given slot.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    public void clearSlot(int slot) throws DbException {
+        if (!isSlotUsed(slot)) {
+            throw new DbException("Column slot is already empty");
+        }
+        detach(slot);
+        markSlotUsed(slot, false);
+    }
+
+    /**
+     * @return the first empty slot on this page, or -1 if it is full
+     */
+    public int getFirstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            used += Integer.bitCount(data[i] & 0xFF);
+        }
+        return numSlots - used;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            data[i / 8] |= (1 << (i % 8));
+        } else {
+            data[i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+
+    /**
+     * The value of one slot, decoded from the page image the first time it
+     * is asked for. Before the slot changes the page calls {@link #get}, so
+     * the cell keeps the value it had when it was handed out.
+     */
+    static class Cell {
+
+        private final ColumnPage page;
+        private final int slot;
+        private Field value;
+
+        Cell(ColumnPage page, int slot) {
+            this.page = page;
+            this.slot = slot;
+        }
+
+        Field get() {
+            if (value == null) {
+                value = page.getField(slot);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: one page of one column of a table. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNum;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of that table whose page chain holds the page
+     * @param pgNo The page number in that column's page chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNum = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose page chain this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the page chain of column getColumn()
+     */
+    public int getPageNumber() {
+        return pageNum;
+    }
+
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + tableId;
+        hash = 31 * hash + column;
+        hash = 31 * hash + pageNum;
+        return hash;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null) return false;
+        if (getClass() != o.getClass()) return false;
+        ColumnPageId other = (ColumnPageId) o;
+        return other.tableId == tableId && other.column == column && other.pageNum == pageNum;
+    }
+
+    public int[] serialize() {
+        int data[] = new int[3];
+
+        data[0] = tableId;
+        data[1] = column;
+        data[2] = pageNum;
+
+        return data;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNum + ")";
+    }
+}
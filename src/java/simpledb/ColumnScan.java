@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan over a {@link ColumnFile} that reads only
+ * some of the table's columns. Its tuples contain just those columns, in
+ * the order given, so pages of the other columns are never read.
+ */
+public class ColumnScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int[] columns;
+    private final DbFileIterator iter;
+
+    /**
+     * Creates a scan over some of the columns of the specified table as a
+     * part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a ColumnFile.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser); the returned
+     *            tupleDesc has fields with name tableAlias.fieldName
+     * @param columns
+     *            the indexes of the columns to read, in output order
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        ColumnFile file = (ColumnFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.iter = file.iterator(tid, this.columns);
+    }
+
+    /**
+     * @return the actual name of the table the operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the indexes of the columns this scan reads
+     */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        iter.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned columns, with each field name
+     * prefixed with the tableAlias string from the constructor (e.g.,
+     * "alias.fieldName").
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        Type[] typeArr = new Type[columns.length];
+        String[] fieldArr = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            typeArr[i] = td.getFieldType(columns[i]);
+            fieldArr[i] = tableAlias + "." + td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(typeArr, fieldArr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return iter.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return iter.next();
+    }
+
+    public void close() {
+        iter.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        iter.rewind();
+    }
+}
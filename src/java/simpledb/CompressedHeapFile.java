@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflated (see
+ * {@link CompressedPageChannel}). It is meant for large, rarely updated
+ * tables whose scans are bound by I/O bandwidth rather than CPU: every page
+ * still has the HeapPage format once it is in the BufferPool, but the file
+ * holds a fraction of the bytes. Inserts and deletes work as usual; a
+ * rewritten page alternates between two records on disk, so a crash while it
+ * is written leaves the previous image readable.
+ * <p>
+ * Select it for a table by adding <code>compressed</code> after the column
+ * list in the catalog file, e.g. <code>archive (id int, note string)
+ * compressed</code>, and fill it with <code>SimpleDb convert ...
+ * -compress</code> or through insertTuple.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, new CompressedPageChannel(f));
+    }
+
+    /**
+     * Writes the page-offset table before the zone map is saved, so the
+     * zone map is stamped with the final state of the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        super.close();
+    }
+}
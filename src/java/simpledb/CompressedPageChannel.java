@@ -0,0 +1,415 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageChannel is a PageChannel that stores every page deflated,
+ * so a scan of a cold table moves a fraction of the bytes a plain heap file
+ * needs. Pages no longer sit at fixed offsets; a page-offset table kept in
+ * memory maps each page number to its record, so reading a single page is
+ * still one positional read followed by inflating straight into the
+ * caller's page buffer.
+ * <p>
+ * The file starts with a header (magic number, page size) followed by one
+ * record per page image: page number, capacity, stored length, version,
+ * checksum, and the deflated page padded to the capacity. A page that does
+ * not shrink is stored as is, with a stored length of a whole page.
+ * <p>
+ * A rewritten page never overwrites its current record. It goes into the
+ * page's spare record, the one its current record superseded, if that has
+ * room, and is otherwise appended at the end of the file, the spare being
+ * marked dead. The page-offset table switches to the new record only once
+ * it is written. A crash in the middle of a write therefore leaves the
+ * previous image intact, and the torn record fails its checksum.
+ * <p>
+ * When the channel is closed the page-offset table is appended after the
+ * last record together with a footer pointing at it, so opening the file
+ * reads the table instead of every record header. A file without a valid
+ * footer (e.g. after a crash) is scanned record by record, and for each page
+ * the record with the highest version whose checksum matches wins.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageChannel extends PageChannel {
+
+    private static final int MAGIC = 0x53444250;
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 20;
+    private static final int FOOTER = 12;
+    /** Bytes per page in the page-offset table. */
+    private static final int TABLE_ENTRY = 32;
+    /** Page number of the record holding the page-offset table. */
+    private static final int TABLE = -1;
+    /** Page number of a record that was abandoned or truncated away. */
+    private static final int DEAD = -2;
+    /** Records are padded to a multiple of this, so a page can grow a little in place. */
+    private static final int ALIGN = 64;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean loaded = false;
+    // the page-offset table; offset 0 (the file header) marks a missing page
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private int[] versions = new int[0];
+    // the record each page's current record superseded, or 0
+    private long[] spares = new long[0];
+    private int[] spareCapacities = new int[0];
+    private int numPages = 0;
+    /** Where the next record goes: just past the last one. */
+    private long end = FILE_HEADER;
+    /** Start of the page-offset table written on close, or -1 if none is on disk. */
+    private long tableStart = -1;
+    private boolean changed = false;
+
+    public CompressedPageChannel(File f) {
+        super(f);
+    }
+
+    /** Reads the page-offset table, from the footer or by scanning the records. */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        long size = size();
+        if (size < FILE_HEADER) {
+            return;
+        }
+        FileChannel ch = channel();
+        ByteBuffer header = read(ch, 0, FILE_HEADER);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a compressed heap file");
+        }
+        if (size >= FILE_HEADER + RECORD_HEADER + FOOTER) {
+            ByteBuffer footer = read(ch, size - FOOTER, FOOTER);
+            long start = footer.getLong(0);
+            ByteBuffer head = footer.getInt(8) == MAGIC && start >= FILE_HEADER && start + 8 <= size - FOOTER
+                    ? read(ch, start, 8) : null;
+            int count = head == null ? -1 : head.getInt(4);
+            if (head != null && head.getInt(0) == TABLE && start + 8 + (long) TABLE_ENTRY * count == size - FOOTER) {
+                ByteBuffer table = read(ch, start + 8, count * TABLE_ENTRY);
+                for (int pg = 0; pg < count; pg++) {
+                    table.position(pg * TABLE_ENTRY);
+                    long off = table.getLong();
+                    int length = table.getInt();
+                    int capacity = table.getInt();
+                    int version = table.getInt();
+                    long spare = table.getLong();
+                    int spareCapacity = table.getInt();
+                    if (off != 0) {
+                        setEntry(pg, off, length, capacity, version, spare, spareCapacity);
+                    }
+                }
+                end = start;
+                tableStart = start;
+                return;
+            }
+        }
+        long pos = FILE_HEADER;
+        while (pos + RECORD_HEADER <= size) {
+            ByteBuffer rec = read(ch, pos, RECORD_HEADER);
+            int pgNo = rec.getInt(0);
+            int capacity = rec.getInt(4);
+            if (pgNo == TABLE || capacity < 0 || pos + RECORD_HEADER + capacity > size) {
+                break;
+            }
+            int length = rec.getInt(8);
+            int version = rec.getInt(12);
+            long current = pgNo >= 0 && pgNo < numPages ? offsets[pgNo] : 0;
+            if (pgNo >= 0 && length >= 0 && length <= capacity
+                    && rec.getInt(16) == checksum(pgNo, length, version, read(ch, pos + RECORD_HEADER, length))) {
+                if (current == 0) {
+                    setEntry(pgNo, pos, length, capacity, version, 0, 0);
+                } else if (version - versions[pgNo] > 0) {
+                    setEntry(pgNo, pos, length, capacity, version, current, capacities[pgNo]);
+                } else {
+                    spares[pgNo] = pos;
+                    spareCapacities[pgNo] = capacity;
+                }
+            } else if (pgNo >= 0 && current != 0) {
+                // a torn write: its room can take the next image of the page
+                spares[pgNo] = pos;
+                spareCapacities[pgNo] = capacity;
+            }
+            pos += RECORD_HEADER + capacity;
+        }
+        end = pos;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+
+    private static void write(FileChannel ch, long pos, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb, pos + bb.position());
+        }
+    }
+
+    /** @return the checksum of a record, over its header fields and stored bytes */
+    private static int checksum(int pgNo, int length, int version, ByteBuffer stored) {
+        CRC32 crc = new CRC32();
+        ByteBuffer fields = ByteBuffer.allocate(12);
+        fields.putInt(pgNo).putInt(length).putInt(version).flip();
+        crc.update(fields);
+        crc.update(stored.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private void setEntry(int pgNo, long offset, int length, int capacity, int version,
+            long spare, int spareCapacity) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(pgNo + 1, 2 * offsets.length);
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            capacities = Arrays.copyOf(capacities, n);
+            versions = Arrays.copyOf(versions, n);
+            spares = Arrays.copyOf(spares, n);
+            spareCapacities = Arrays.copyOf(spareCapacities, n);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        versions[pgNo] = version;
+        spares[pgNo] = spare;
+        spareCapacities[pgNo] = spareCapacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * Reads page pgNo into buf. A page that was never written reads as all
+     * zeroes.
+     */
+    @Override
+    public void readPage(int pgNo, byte[] buf) throws IOException {
+        long offset;
+        int length;
+        int version;
+        ByteBuffer stored;
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    load();
+                } finally {
+                    lock.readLock().lock();
+                    lock.writeLock().unlock();
+                }
+            }
+            if (pgNo >= numPages || offsets[pgNo] == 0) {
+                Arrays.fill(buf, (byte) 0);
+                return;
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+            version = versions[pgNo];
+            // read under the lock, so a concurrent rewrite cannot reuse the record
+            stored = read(channel(), offset + RECORD_HEADER - 4, length + 4);
+        } finally {
+            lock.readLock().unlock();
+        }
+        int crc = stored.getInt();
+        if (crc != checksum(pgNo, length, version, stored)) {
+            throw new IOException("corrupt page " + pgNo + " in " + file);
+        }
+        if (length == buf.length) {
+            stored.get(buf);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored.array(), stored.position(), length);
+            int n = 0;
+            while (n < buf.length && !inflater.finished()) {
+                int k = inflater.inflate(buf, n, buf.length - n);
+                if (k == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("truncated page");
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt page " + pgNo + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes buf as page pgNo, into the page's spare record if it has room
+     * and at the end of the file otherwise.
+     */
+    @Override
+    public void writePage(int pgNo, byte[] buf) throws IOException {
+        byte[] packed = new byte[buf.length];
+        int length = 0;
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(buf);
+            deflater.finish();
+            while (!deflater.finished() && length < packed.length) {
+                length += deflater.deflate(packed, length, packed.length - length);
+            }
+            if (!deflater.finished() || length >= buf.length) {
+                // incompressible: store the page itself
+                packed = buf;
+                length = buf.length;
+            }
+        } finally {
+            deflater.end();
+        }
+        lock.writeLock().lock();
+        try {
+            load();
+            FileChannel ch = channel();
+            dropTable(ch);
+            if (end == FILE_HEADER && size() < FILE_HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+                header.putInt(MAGIC).putInt(buf.length).flip();
+                write(ch, 0, header);
+            }
+            long old = pgNo < numPages ? offsets[pgNo] : 0;
+            long spare = old != 0 ? spares[pgNo] : 0;
+            int version = old != 0 ? versions[pgNo] + 1 : 0;
+            long offset;
+            int capacity;
+            if (spare != 0 && spareCapacities[pgNo] >= length) {
+                offset = spare;
+                capacity = spareCapacities[pgNo];
+            } else {
+                if (spare != 0) {
+                    markDead(ch, spare);
+                }
+                offset = end;
+                capacity = length == buf.length ? length : (length + ALIGN - 1) / ALIGN * ALIGN;
+                end += RECORD_HEADER + capacity;
+            }
+            ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER + capacity);
+            rec.putInt(pgNo).putInt(capacity).putInt(length).putInt(version)
+                    .putInt(checksum(pgNo, length, version, ByteBuffer.wrap(packed, 0, length)))
+                    .put(packed, 0, length);
+            rec.clear();
+            write(ch, offset, rec);
+            // the record just superseded stays intact until the next write
+            // of the page, which reuses it
+            if (old != 0) {
+                setEntry(pgNo, offset, length, capacity, version, old, capacities[pgNo]);
+            } else {
+                setEntry(pgNo, offset, length, capacity, version, 0, 0);
+            }
+            changed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void markDead(FileChannel ch, long offset) throws IOException {
+        ByteBuffer dead = ByteBuffer.allocate(4);
+        dead.putInt(DEAD).flip();
+        write(ch, offset, dead);
+    }
+
+    /**
+     * Cuts the page-offset table and footer off the file before it is
+     * changed, so a later open never trusts a stale table.
+     */
+    private void dropTable(FileChannel ch) throws IOException {
+        if (tableStart >= 0) {
+            ch.truncate(tableStart);
+            tableStart = -1;
+        }
+    }
+
+    /**
+     * Drops the pages past the given size, in bytes of uncompressed pages.
+     */
+    @Override
+    public void truncate(long size) throws IOException {
+        lock.writeLock().lock();
+        try {
+            load();
+            if (numPages == 0) {
+                return;
+            }
+            FileChannel ch = channel();
+            dropTable(ch);
+            int pageSize = read(ch, 4, 4).getInt(0);
+            int keep = (int) ((size + pageSize - 1) / pageSize);
+            for (int pg = keep; pg < numPages; pg++) {
+                if (offsets[pg] != 0) {
+                    markDead(ch, offsets[pg]);
+                    offsets[pg] = 0;
+                }
+                if (spares[pg] != 0) {
+                    markDead(ch, spares[pg]);
+                    spares[pg] = 0;
+                }
+            }
+            numPages = Math.min(numPages, keep);
+            changed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Pages are placed as they are written; there is nothing to preallocate. */
+    @Override
+    public void preallocate(long size) {
+    }
+
+    /** @return the number of pages, including the gaps of pages never written */
+    @Override
+    public int pageCount(int pageSize) throws IOException {
+        lock.writeLock().lock();
+        try {
+            load();
+            return numPages;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the page-offset table and the footer if the table changed,
+     * then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (loaded && changed && tableStart < 0 && end > FILE_HEADER) {
+                FileChannel ch = channel();
+                ByteBuffer table = ByteBuffer.allocate(8 + TABLE_ENTRY * numPages + FOOTER);
+                table.putInt(TABLE).putInt(numPages);
+                for (int pg = 0; pg < numPages; pg++) {
+                    table.putLong(offsets[pg]).putInt(lengths[pg]).putInt(capacities[pg])
+                            .putInt(versions[pg]).putLong(spares[pg]).putInt(spareCapacities[pg]);
+                }
+                table.putLong(end).putInt(MAGIC).flip();
+                write(ch, end, table);
+                tableStart = end;
+                changed = false;
+            }
+            super.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
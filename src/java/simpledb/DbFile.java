@@ -88,4 +88,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases any operating system resources (open channels, mappings)
+     * held by this file. Files that hold none need not override this.
+     *
+     * @throws IOException if the underlying file cannot be closed
+     */
+    public default void close() throws IOException {
+    }
 }
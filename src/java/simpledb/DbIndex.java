@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * DbIndex is a secondary index on one field of a table. An index is itself
+ * a DbFile, so its pages are cached, locked and logged by the BufferPool
+ * like any table page; it is registered with
+ * {@link Catalog#addIndex} rather than as a table.
+ * <p>
+ * An index maps the value of its key field to the RecordIds of the tuples
+ * holding that value. The {@link Insert} and {@link Delete} operators keep
+ * every index of a table up to date; the tuples returned by an index
+ * iterator are the table's own tuples, fetched through the BufferPool.
+ */
+public interface DbIndex extends DbFile {
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the key field within the table's TupleDesc
+     */
+    public int getKeyField();
+
+    /**
+     * @return true if {@link #iterator(TransactionId, Predicate.Op, Field)}
+     *   can answer predicates with the given operator
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Adds an entry for a tuple that was stored at rid.
+     *
+     * @param tid the transaction performing the update
+     * @param key the value of the key field of the tuple
+     * @param rid where the tuple is stored
+     */
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes the entry for a tuple that was stored at rid.
+     *
+     * @param tid the transaction performing the update
+     * @param key the value of the key field of the tuple
+     * @param rid where the tuple was stored
+     * @throws DbException if the index has no such entry
+     */
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Returns an iterator over the tuples of the table whose key field
+     * satisfies <code>field op key</code>.
+     *
+     * @throws UnsupportedOperationException if !supports(op)
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key);
+
+    /**
+     * Adds an entry for every tuple currently in the table, e.g. when an
+     * index is created on a table that already holds data.
+     */
+    public default void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(getTableId()).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            insertEntry(tid, t.getField(getKeyField()), t.getRecordId());
+        }
+        it.close();
+    }
+}
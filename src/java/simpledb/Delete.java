@@ -63,7 +63,8 @@ public class Delete extends Operator {
     }
 
     /**
-     * Deletes tuples as they are read from the child operator. Deletes are
+     * Deletes tuples as they are read from the child operator, removing
+     * them from the table's indexes as well. Deletes are
      * processed via the buffer pool (which can be accessed via the
      * Database.getBufferPool() method.
      * 
@@ -79,7 +80,12 @@ public class Delete extends Operator {
     		try {
             	while(this.child.hasNext()) {
             		deleteCount++;
-            		Database.getBufferPool().deleteTuple(t, child.next());
+            		Tuple tup = child.next();
+            		RecordId rid = tup.getRecordId();
+            		Database.getBufferPool().deleteTuple(t, tup);
+            		for (DbIndex index : Database.getCatalog().getIndexes(rid.getPageId().getTableId())) {
+            			index.deleteEntry(t, tup.getField(index.getKeyField()), rid);
+            		}
             	}
         	}catch(IOException e) {
         		e.printStackTrace();
@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column. It carries the code
+ * the column stores along with the dictionary the code belongs to, so
+ * equality tests, hashing for group-by, and join predicates between fields
+ * of the same dictionary compare codes instead of strings. The string
+ * itself is the dictionary's shared copy, so reading a field copies no
+ * bytes; it is only looked at when the field is printed or compared with a
+ * string from elsewhere.
+ *
+ * @see StringDictionary
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dictionary;
+    private final int code;
+
+    /**
+     * Constructor.
+     *
+     * @param dictionary the dictionary of the column the field was read from
+     * @param code the code stored in the column
+     */
+    public DictionaryField(StringDictionary dictionary, int code) {
+        super(dictionary.decode(code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /** @return the code of this field's value */
+    public int getCode() {
+        return code;
+    }
+
+    /** @return true if this field's code belongs to the given dictionary */
+    public boolean isFrom(StringDictionary d) {
+        return dictionary != null && dictionary == d;
+    }
+
+    public boolean equals(Object field) {
+        if (field instanceof DictionaryField && ((DictionaryField) field).isFrom(dictionary)) {
+            return ((DictionaryField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    /**
+     * Same as StringField.hashCode, so this field hashes like any equal
+     * StringField; the dictionary's shared string caches its hash.
+     */
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    public boolean compare(Predicate.Op op, Field val) {
+        if (val instanceof DictionaryField && ((DictionaryField) val).isFrom(dictionary)) {
+            switch (op) {
+            case EQUALS:
+                return ((DictionaryField) val).code == code;
+            case NOT_EQUALS:
+                return ((DictionaryField) val).code != code;
+            default:
+                break;
+            }
+        }
+        return super.compare(op, val);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DictionaryHeapFile is a HeapFile whose string columns are dictionary
+ * encoded: pages use the {@link DictionaryHeapPage} format, which stores a
+ * small integer code per string, and the table's distinct strings are kept
+ * once in a {@link StringDictionary} next to the data file. Tables whose
+ * string columns repeat a limited set of values fit many more tuples per
+ * page this way, and equality tests, group-by and joins on those columns
+ * compare codes rather than strings (see {@link DictionaryField}).
+ * <p>
+ * Select it for a table by adding <code>dict</code> after the column list
+ * in the catalog file, e.g. <code>orders (id int, status string)
+ * dict</code>. Note that HeapFileEncoder writes the plain HeapPage format,
+ * so a dictionary-encoded table has to be filled through insertTuple.
+ */
+public class DictionaryHeapFile extends HeapFile {
+
+    private final StringDictionary dictionary;
+
+    public DictionaryHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.dictionary = new StringDictionary(StringDictionary.sideFile(f));
+    }
+
+    /** @return the dictionary of this table's string columns */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new DictionaryHeapPage(pid, data);
+    }
+
+    /** Forces the dictionary and closes it along with the data file. */
+    @Override
+    public void close() throws IOException {
+        dictionary.close();
+        super.close();
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * DictionaryHeapPage is a HeapPage of a {@link DictionaryHeapFile}. Its
+ * layout is that of a HeapPage, except that every string field is stored
+ * as the 4-byte code its value has in the table's {@link StringDictionary}
+ * rather than as a padded string of {@link Type#getLen} bytes, so many
+ * more tuples fit on a page. String fields read from the page are
+ * {@link DictionaryField}s.
+ */
+public class DictionaryHeapPage extends HeapPage {
+
+    private final StringDictionary dictionary;
+
+    public DictionaryHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.dictionary = dictionaryOf(id.getTableId());
+    }
+
+    private static StringDictionary dictionaryOf(int tableId) {
+        return ((DictionaryHeapFile) Database.getCatalog().getDatabaseFile(tableId)).getDictionary();
+    }
+
+    /**
+     * @return the number of tuples a page of a table with the given schema
+     *   holds
+     */
+    public static int maxSlots(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.STRING_TYPE ? 4 : td.getFieldType(j).getLen();
+        }
+        return BufferPool.getPageSize() * 8 / (size * 8 + 1);
+    }
+
+    @Override
+    protected int fieldLen(int j) {
+        return td.getFieldType(j) == Type.STRING_TYPE ? 4 : super.fieldLen(j);
+    }
+
+    /**
+     * Encodes the string fields of t before storing it, so the page keeps
+     * t with DictionaryFields just like the tuples it reads from its image.
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (t.getTupleDesc().equals(td) && hasRoomFor(t)) {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.STRING_TYPE
+                        && !(f instanceof DictionaryField && ((DictionaryField) f).isFrom(dictionary))) {
+                    t.setField(j, new DictionaryField(dictionary,
+                            dictionary.encode(((StringField) f).getValue())));
+                }
+            }
+        }
+        super.insertTuple(t);
+    }
+
+    @Override
+    protected Field readField(int j, ByteBuffer image, int pos) {
+        if (td.getFieldType(j) == Type.STRING_TYPE) {
+            return new DictionaryField(dictionary, image.getInt(pos));
+        }
+        return super.readField(j, image, pos);
+    }
+
+    @Override
+    protected void writeField(int j, Field f, ByteBuffer image, int pos) {
+        if (td.getFieldType(j) != Type.STRING_TYPE) {
+            super.writeField(j, f, image, pos);
+        } else if (f instanceof DictionaryField && ((DictionaryField) f).isFrom(dictionary)) {
+            image.putInt(pos, ((DictionaryField) f).getCode());
+        } else {
+            image.putInt(pos, dictionary.encode(((StringField) f).getValue()));
+        }
+    }
+
+    /**
+     * Forces the dictionary before the image leaves memory, so every code
+     * on a page written to disk or to the log can be decoded after a crash.
+     */
+    @Override
+    public byte[] getPageData() {
+        // null while the HeapPage constructor takes the first before image
+        if (dictionary != null) {
+            try {
+                dictionary.force();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return super.getPageData();
+    }
+
+    @Override
+    protected HeapPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return new DictionaryHeapPage(id, data);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf starting at the
+     * given position, in the same format as {@link #serialize(DataOutputStream)}.
+     * The position of buf is not changed.
+     * @param buf The buffer to write to.
+     * @param pos The index of the first byte to write.
+     */
+    void serialize(ByteBuffer buf, int pos);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap tracks how much room each page of a HeapFile has left, so an
+ * insert can go straight to a page its tuple fits on instead of reading
+ * every page of the file.
+ * <p>
+ * Free space is kept in whatever unit the file measures tuples in: empty
+ * slots for fixed-slot pages, bytes for variable-length ones. The map is a
+ * hint kept in memory only. A page starts out as having unlimited room;
+ * every time the page is read from disk, or a tuple is inserted into or
+ * deleted from it, its entry is set from the page itself. An insert that
+ * lands on a page without room for its tuple records the page's actual free
+ * space and asks again from the next page, so a stale entry costs one extra
+ * page visit, never a wrong result, and the page is not offered again to
+ * tuples that do not fit on it.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Free space recorded for pages that were never seen. */
+    private static final int UNKNOWN = Integer.MAX_VALUE;
+
+    /** Entry i is the free space of page i. */
+    private int[] free = new int[16];
+    /** Pages at or beyond this number have never been recorded. */
+    private int known = 0;
+
+    /**
+     * Records how much free space page pgNo currently has.
+     */
+    public synchronized void update(int pgNo, int space) {
+        ensureKnown(pgNo + 1);
+        free[pgNo] = space;
+    }
+
+    /**
+     * Returns a page that may have at least needed free space, searching
+     * forward from start and wrapping around, or -1 if no page is known to
+     * have that much room.
+     *
+     * @param start the page number to start looking at; callers use
+     *   different starting points to spread concurrent inserts over pages
+     * @param numPages the number of pages in the file
+     * @param needed the space the tuple to insert takes
+     */
+    public synchronized int findPage(int start, int numPages, int needed) {
+        if (numPages <= 0) {
+            return -1;
+        }
+        ensureKnown(numPages);
+        start = Math.floorMod(start, numPages);
+        for (int i = 0; i < numPages; i++) {
+            int pg = (start + i) % numPages;
+            if (free[pg] >= needed) {
+                return pg;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets everything recorded so far, e.g. after the file was
+     * replaced.
+     */
+    public synchronized void clear() {
+        known = 0;
+    }
+
+    /**
+     * Forgets the pages from numPages on, after the file was truncated to
+     * numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages < known) {
+            known = numPages;
+        }
+    }
+
+    /** Pages not seen before are assumed to have room until visited. */
+    private void ensureKnown(int numPages) {
+        if (numPages > known) {
+            if (numPages > free.length) {
+                free = Arrays.copyOf(free, Math.max(numPages, 2 * free.length));
+            }
+            Arrays.fill(free, known, numPages, UNKNOWN);
+            known = numPages;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HashIndexFile is a linear hashing index on one field of a table stored in
+ * a {@link HeapFile}. It answers equality predicates only: the key's hash
+ * selects one bucket, so a lookup reads the header page, one directory
+ * page and the bucket's page chain, however large the table is. It is a
+ * DbFile of {@link HashIndexPage}s, so its pages go through the BufferPool
+ * and every change, bucket splits included, is logged and recovered like
+ * a change to a table page.
+ * <p>
+ * The index starts with {@link #INITIAL_BUCKETS} buckets. Whenever the
+ * entries would fill more than {@link #MAX_LOAD} of the primary bucket
+ * pages, the bucket the split pointer points at is split: a new bucket is
+ * appended and the entries of the old one are divided between the two
+ * using one more bit of the hash. When every bucket of the round has been
+ * split the level goes up and the pointer starts over, so the number of
+ * buckets grows one at a time with the data. A bucket that overflows
+ * between splits gets overflow pages chained to its primary page.
+ * <p>
+ * Deletes only remove entries; buckets are never merged. Locking is the
+ * same as in {@link BTreeFile}: readers lock the header page shared and
+ * writers lock it exclusively.
+ */
+public class HashIndexFile implements DbIndex {
+
+    /** Number of buckets of a new index. */
+    public static final int INITIAL_BUCKETS = 4;
+    /** Fraction of the primary bucket pages' capacity used before a split. */
+    public static final double MAX_LOAD = 0.75;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final PageChannel channel;
+    private final AtomicInteger numPages;
+
+    /**
+     * Opens (or creates) the hash index stored in f.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the indexed table, which must already be in
+     *   the Catalog
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public HashIndexFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("hash indexes need a table stored in a HeapFile");
+        }
+        this.keyType = Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField);
+        this.channel = new PageChannel(f);
+        // page 0 is always the header page
+        this.numPages = new AtomicInteger(Math.max(1,
+                (int) ((f.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize())));
+    }
+
+    /**
+     * @return the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this HashIndexFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the indexed field */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table; the iterators of this
+     * file return the table's tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, including pages
+     * that were allocated but not yet written.
+     */
+    public int numPages() {
+        return numPages.get();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.readPage(pid.getPageNumber(), data);
+            return new HashIndexPage(new HashIndexPageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        channel.writePage(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /** @return a non-negative hash of key with its bits well mixed */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the bucket that keys with hash h belong to, given the hashing
+     *   level and split pointer
+     */
+    static int bucketOf(int h, int level, int next) {
+        int b = h % (INITIAL_BUCKETS << level);
+        if (b < next) {
+            b = h % (INITIAL_BUCKETS << (level + 1));
+        }
+        return b;
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid, new HashIndexPageId(getId(), pgNo), perm);
+    }
+
+    /** Marks p dirty and remembers it in the list of modified pages. */
+    private void modified(TransactionId tid, HashIndexPage p, ArrayList<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p)) {
+            dirtied.add(p);
+        }
+    }
+
+    /** Adds a page of the given kind at the end of the file. */
+    private HashIndexPage allocate(TransactionId tid, int kind, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashIndexPage p = getPage(tid, numPages.getAndIncrement(), Permissions.READ_WRITE);
+        p.init(kind);
+        modified(tid, p, dirtied);
+        return p;
+    }
+
+    /** @return the primary page of bucket b */
+    private HashIndexPage bucketPage(TransactionId tid, HashIndexPage header, int b, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        int perDir = HashIndexPage.getBucketsPerDirectoryPage();
+        HashIndexPage dir = getPage(tid, header.getDirectoryPage(b / perDir), perm);
+        Database.getBufferPool().unpinPage(tid, dir.getId());
+        return getPage(tid, dir.getBucketPage(b % perDir), perm);
+    }
+
+    /**
+     * Appends a new empty bucket to the directory.
+     *
+     * @return false if the directory is full
+     */
+    private boolean addBucket(TransactionId tid, HashIndexPage header, int b, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        int perDir = HashIndexPage.getBucketsPerDirectoryPage();
+        HashIndexPage dir;
+        if (b % perDir == 0) {
+            if (header.getNumDirectoryPages() >= HashIndexPage.getMaxDirectoryPages()) {
+                return false;
+            }
+            dir = allocate(tid, HashIndexPage.DIRECTORY, dirtied);
+            header.addDirectoryPage(dir.getId().getPageNumber());
+            modified(tid, header, dirtied);
+        } else {
+            dir = getPage(tid, header.getDirectoryPage(b / perDir), Permissions.READ_WRITE);
+        }
+        HashIndexPage bucket = allocate(tid, HashIndexPage.BUCKET, dirtied);
+        dir.addBucketPage(bucket.getId().getPageNumber());
+        modified(tid, dir, dirtied);
+        return true;
+    }
+
+    /** Adds an entry to the first page of a bucket chain with room for it. */
+    private void addToChain(TransactionId tid, HashIndexPage p, Field key, int rp, int rs,
+            ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        while (!p.hasRoom()) {
+            if (p.getOverflow() == 0) {
+                HashIndexPage overflow = allocate(tid, HashIndexPage.BUCKET, dirtied);
+                p.setOverflow(overflow.getId().getPageNumber());
+                modified(tid, p, dirtied);
+                p = overflow;
+            } else {
+                p = getPage(tid, p.getOverflow(), Permissions.READ_WRITE);
+            }
+        }
+        p.addEntry(key, rp, rs);
+        modified(tid, p, dirtied);
+    }
+
+    /**
+     * Indexes tuple t, which must already be stored in the table.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * Removes the entry of tuple t, which must still carry its RecordId.
+     *
+     * @return the pages of this file that were modified
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return delete(tid, t.getField(keyField), t.getRecordId());
+    }
+
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        insert(tid, key, rid);
+    }
+
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        delete(tid, key, rid);
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int rp = rid.getPageId().getPageNumber();
+        int rs = rid.getTupleNumber();
+
+        HashIndexPage header = getPage(tid, 0, Permissions.READ_WRITE);
+        if (header.getKind() == HashIndexPage.EMPTY) {
+            header.init(HashIndexPage.HEADER);
+            modified(tid, header, dirtied);
+            for (int b = 0; b < INITIAL_BUCKETS; b++) {
+                addBucket(tid, header, b, dirtied);
+            }
+        }
+        int b = bucketOf(hash(key), header.getLevel(), header.getNext());
+        HashIndexPage first = bucketPage(tid, header, b, Permissions.READ_WRITE);
+        for (HashIndexPage p = first; p != null;
+                p = p.getOverflow() == 0 ? null : getPage(tid, p.getOverflow(), Permissions.READ_WRITE)) {
+            for (int i = 0; i < p.getCount(); i++) {
+                if (p.getRecordSlot(i) == rs && p.getRecordPage(i) == rp && p.getKey(i).equals(key)) {
+                    return dirtied;
+                }
+            }
+        }
+        addToChain(tid, first, key, rp, rs, dirtied);
+        header.setCount(header.getCount() + 1);
+        modified(tid, header, dirtied);
+
+        int buckets = (INITIAL_BUCKETS << header.getLevel()) + header.getNext();
+        if (header.getCount() > MAX_LOAD * buckets * HashIndexPage.getMaxBucketEntries(keyType)) {
+            split(tid, header, dirtied);
+        }
+        return dirtied;
+    }
+
+    /** Splits the bucket the split pointer points at. */
+    private void split(TransactionId tid, HashIndexPage header, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        int level = header.getLevel();
+        int next = header.getNext();
+        int roundSize = INITIAL_BUCKETS << level;
+        if (!addBucket(tid, header, roundSize + next, dirtied)) {
+            // the directory is full; let the chains grow instead
+            return;
+        }
+        HashIndexPage oldFirst = bucketPage(tid, header, next, Permissions.READ_WRITE);
+        HashIndexPage newFirst = bucketPage(tid, header, roundSize + next, Permissions.READ_WRITE);
+
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<int[]> rids = new ArrayList<int[]>();
+        for (HashIndexPage p = oldFirst; p != null;
+                p = p.getOverflow() == 0 ? null : getPage(tid, p.getOverflow(), Permissions.READ_WRITE)) {
+            for (int i = 0; i < p.getCount(); i++) {
+                keys.add(p.getKey(i));
+                rids.add(new int[] { p.getRecordPage(i), p.getRecordSlot(i) });
+            }
+            // emptied overflow pages stay in the chain and are reused
+            p.clearEntries();
+            modified(tid, p, dirtied);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            boolean moves = hash(keys.get(i)) % (roundSize << 1) != next;
+            addToChain(tid, moves ? newFirst : oldFirst, keys.get(i), rids.get(i)[0], rids.get(i)[1], dirtied);
+        }
+
+        if (next + 1 == roundSize) {
+            header.setLevel(level + 1);
+            header.setNext(0);
+        } else {
+            header.setNext(next + 1);
+        }
+        modified(tid, header, dirtied);
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int rp = rid.getPageId().getPageNumber();
+        int rs = rid.getTupleNumber();
+
+        HashIndexPage header = getPage(tid, 0, Permissions.READ_WRITE);
+        if (header.getKind() != HashIndexPage.HEADER) {
+            throw new DbException("index entry not found");
+        }
+        int b = bucketOf(hash(key), header.getLevel(), header.getNext());
+        for (HashIndexPage p = bucketPage(tid, header, b, Permissions.READ_WRITE); p != null;
+                p = p.getOverflow() == 0 ? null : getPage(tid, p.getOverflow(), Permissions.READ_WRITE)) {
+            for (int i = 0; i < p.getCount(); i++) {
+                if (p.getRecordSlot(i) == rs && p.getRecordPage(i) == rp && p.getKey(i).equals(key)) {
+                    p.removeEntry(i);
+                    modified(tid, p, dirtied);
+                    header.setCount(header.getCount() - 1);
+                    modified(tid, header, dirtied);
+                    return dirtied;
+                }
+            }
+        }
+        throw new DbException("index entry not found");
+    }
+
+    /**
+     * Builds the index from the table's contents. If the index is still
+     * empty it is created with enough buckets for the table's rows and the
+     * pages are written directly to the file; otherwise the entries are
+     * inserted one by one.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        if (channel.size() > 0 || numPages.get() > 1) {
+            DbIndex.super.build(tid);
+            return;
+        }
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            rids.add(t.getRecordId());
+        }
+        it.close();
+
+        // the smallest level whose buckets stay below the maximum load
+        int perBucket = HashIndexPage.getMaxBucketEntries(keyType);
+        int perDir = HashIndexPage.getBucketsPerDirectoryPage();
+        int maxBuckets = perDir * HashIndexPage.getMaxDirectoryPages();
+        int level = 0;
+        while (keys.size() > MAX_LOAD * (INITIAL_BUCKETS << level) * perBucket
+                && (INITIAL_BUCKETS << (level + 1)) <= maxBuckets) {
+            level++;
+        }
+        int buckets = INITIAL_BUCKETS << level;
+        ArrayList<ArrayList<Integer>> members = new ArrayList<ArrayList<Integer>>();
+        for (int b = 0; b < buckets; b++) {
+            members.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            members.get(bucketOf(hash(keys.get(i)), level, 0)).add(i);
+        }
+
+        HashIndexPage header = newPage(0, HashIndexPage.HEADER);
+        header.setLevel(level);
+        header.setCount(keys.size());
+        int pgNo = 1;
+        HashIndexPage dir = null;
+        for (int b = 0; b < buckets; b++) {
+            if (b % perDir == 0) {
+                if (dir != null) {
+                    writePage(dir);
+                }
+                dir = newPage(pgNo, HashIndexPage.DIRECTORY);
+                header.addDirectoryPage(pgNo++);
+            }
+            dir.addBucketPage(pgNo);
+            HashIndexPage p = newPage(pgNo++, HashIndexPage.BUCKET);
+            for (int i : members.get(b)) {
+                if (!p.hasRoom()) {
+                    p.setOverflow(pgNo);
+                    writePage(p);
+                    p = newPage(pgNo++, HashIndexPage.BUCKET);
+                }
+                RecordId rid = rids.get(i);
+                p.addEntry(keys.get(i), rid.getPageId().getPageNumber(), rid.getTupleNumber());
+            }
+            writePage(p);
+        }
+        writePage(dir);
+        writePage(header);
+        channel.force();
+        numPages.set(pgNo);
+        // a cached copy of the empty header page is now stale
+        Database.getBufferPool().discardPage(header.getId());
+    }
+
+    /** Creates an empty page that is not cached in the BufferPool. */
+    private HashIndexPage newPage(int pgNo, int kind) throws IOException {
+        HashIndexPage p = new HashIndexPage(new HashIndexPageId(getId(), pgNo), new byte[BufferPool.getPageSize()]);
+        p.init(kind);
+        return p;
+    }
+
+    /**
+     * Returns an iterator over all tuples of the table, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, null);
+    }
+
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("hash index cannot answer " + op);
+        }
+        return new HashIndexIterator(tid, key);
+    }
+
+    /**
+     * Walks the page chain of the bucket of a key, or of every bucket, and
+     * returns the table tuples the matching entries point to.
+     */
+    private class HashIndexIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;
+        private HashIndexPage header;
+        private HashIndexPage page;
+        private int bucket;
+        private int lastBucket;
+        private int pos;
+
+        /**
+         * @param key the key to look up, or null to return every entry
+         */
+        HashIndexIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            unpinPages();
+            header = getPage(tid, 0, Permissions.READ_ONLY);
+            if (header.getKind() != HashIndexPage.HEADER) {
+                return;
+            }
+            if (key == null) {
+                bucket = 0;
+                lastBucket = (INITIAL_BUCKETS << header.getLevel()) + header.getNext() - 1;
+            } else {
+                bucket = lastBucket = bucketOf(hash(key), header.getLevel(), header.getNext());
+            }
+            page = bucketPage(tid, header, bucket, Permissions.READ_ONLY);
+            pos = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                if (pos >= page.getCount()) {
+                    HashIndexPage done = page;
+                    if (page.getOverflow() != 0) {
+                        page = getPage(tid, page.getOverflow(), Permissions.READ_ONLY);
+                    } else if (bucket < lastBucket) {
+                        page = bucketPage(tid, header, ++bucket, Permissions.READ_ONLY);
+                    } else {
+                        page = null;
+                    }
+                    Database.getBufferPool().unpinPage(tid, done.getId());
+                    pos = 0;
+                    continue;
+                }
+                int i = pos++;
+                if (key != null && !page.getKey(i).equals(key)) {
+                    continue;
+                }
+                HeapPageId pid = new HeapPageId(tableId, page.getRecordPage(i));
+                TuplePage tp = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = tp.getTuple(page.getRecordSlot(i));
+                Database.getBufferPool().unpinPage(tid, pid);
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            unpinPages();
+        }
+
+        private void unpinPages() {
+            BufferPool pool = Database.getBufferPool();
+            if (page != null) {
+                pool.unpinPage(tid, page.getId());
+                page = null;
+            }
+            if (header != null) {
+                pool.unpinPage(tid, header.getId());
+                header = null;
+            }
+        }
+    }
+}
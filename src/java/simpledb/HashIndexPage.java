@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashIndexPage is one page of a {@link HashIndexFile}. Every page starts
+ * with three ints: the page kind, a count and a page link.
+ * <ul>
+ * <li> The <em>header</em> page is always page 0. Its count is the number
+ *      of entries in the index, and after the common fields it stores the
+ *      hashing level, the next bucket to split, the number of directory
+ *      pages and the page numbers of the directory pages.
+ * <li> A <em>directory</em> page maps bucket numbers to the page numbers
+ *      of the buckets' primary pages; its count is the number of buckets
+ *      it maps.
+ * <li> A <em>bucket</em> page holds unordered entries (key, record page,
+ *      record slot); its link is the next overflow page of the bucket, or
+ *      0 for the last page of the chain.
+ * </ul>
+ * A page that was never written reads as all zeroes and has kind
+ * {@link #EMPTY}. The page keeps its on-disk image as the authoritative
+ * copy.
+ */
+public class HashIndexPage implements Page {
+
+    /** Page kinds. */
+    public static final int EMPTY = 0;
+    public static final int HEADER = 1;
+    public static final int DIRECTORY = 2;
+    public static final int BUCKET = 3;
+
+    /** Bytes used by the kind, count and link. */
+    static final int HEADER_SIZE = 12;
+
+    private static final int KIND = 0;
+    private static final int COUNT = 4;
+    private static final int LINK = 8;
+    // fields of the header page
+    private static final int LEVEL = 12;
+    private static final int NEXT = 16;
+    private static final int NUM_DIRECTORY = 20;
+    private static final int DIRECTORY_PAGES = 24;
+
+    final HashIndexPageId pid;
+    final Type keyType;
+    private final byte[] data;
+    private final ByteBuffer image;
+    private boolean dirty;
+    private TransactionId transactionId;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashIndexPage from a page image read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page image; it is copied
+     */
+    public HashIndexPage(HashIndexPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = ((HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType();
+        this.data = data.clone();
+        this.image = ByteBuffer.wrap(this.data);
+        this.dirty = false;
+        this.transactionId = null;
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a bucket page */
+    public static int getMaxBucketEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the number of buckets one directory page maps */
+    public static int getBucketsPerDirectoryPage() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    /** @return the number of directory pages the header page can list */
+    public static int getMaxDirectoryPages() {
+        return (BufferPool.getPageSize() - DIRECTORY_PAGES) / 4;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashIndexPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashIndexPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page image
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Clears the page and gives it the given kind.
+     */
+    void init(int kind) {
+        java.util.Arrays.fill(data, (byte) 0);
+        image.putInt(KIND, kind);
+    }
+
+    public int getKind() {
+        return image.getInt(KIND);
+    }
+
+    /**
+     * @return the number of entries on a bucket page, the number of buckets
+     *   on a directory page, or the number of entries in the index for the
+     *   header page
+     */
+    public int getCount() {
+        return image.getInt(COUNT);
+    }
+
+    void setCount(int n) {
+        image.putInt(COUNT, n);
+    }
+
+    public int getLevel() {
+        return image.getInt(LEVEL);
+    }
+
+    void setLevel(int level) {
+        image.putInt(LEVEL, level);
+    }
+
+    /** @return the next bucket to be split in the current round */
+    public int getNext() {
+        return image.getInt(NEXT);
+    }
+
+    void setNext(int next) {
+        image.putInt(NEXT, next);
+    }
+
+    public int getNumDirectoryPages() {
+        return image.getInt(NUM_DIRECTORY);
+    }
+
+    public int getDirectoryPage(int i) {
+        return image.getInt(DIRECTORY_PAGES + 4 * i);
+    }
+
+    void addDirectoryPage(int pgNo) {
+        int n = getNumDirectoryPages();
+        image.putInt(DIRECTORY_PAGES + 4 * n, pgNo);
+        image.putInt(NUM_DIRECTORY, n + 1);
+    }
+
+    /** @return the primary page of the i-th bucket on this directory page */
+    public int getBucketPage(int i) {
+        return image.getInt(HEADER_SIZE + 4 * i);
+    }
+
+    /** Appends the primary page of the next bucket to this directory page. */
+    void addBucketPage(int pgNo) {
+        int n = getCount();
+        image.putInt(HEADER_SIZE + 4 * n, pgNo);
+        setCount(n + 1);
+    }
+
+    /** @return the next page of this bucket, or 0 if this is the last one */
+    public int getOverflow() {
+        return image.getInt(LINK);
+    }
+
+    void setOverflow(int pgNo) {
+        image.putInt(LINK, pgNo);
+    }
+
+    private int entryOffset(int i) {
+        return HEADER_SIZE + i * (keyType.getLen() + 8);
+    }
+
+    public Field getKey(int i) {
+        return keyType.parse(image, entryOffset(i));
+    }
+
+    /** @return the page number of the record referenced by entry i */
+    public int getRecordPage(int i) {
+        return image.getInt(entryOffset(i) + keyType.getLen());
+    }
+
+    /** @return the slot of the record referenced by entry i */
+    public int getRecordSlot(int i) {
+        return image.getInt(entryOffset(i) + keyType.getLen() + 4);
+    }
+
+    /** @return true if another entry fits on this bucket page */
+    public boolean hasRoom() {
+        return getCount() < getMaxBucketEntries(keyType);
+    }
+
+    /** Appends an entry to this bucket page, which must have room. */
+    void addEntry(Field key, int recordPage, int recordSlot) {
+        int n = getCount();
+        int off = entryOffset(n);
+        key.serialize(image, off);
+        image.putInt(off + keyType.getLen(), recordPage);
+        image.putInt(off + keyType.getLen() + 4, recordSlot);
+        setCount(n + 1);
+    }
+
+    /** Removes entry i by moving the last entry of the page into its place. */
+    void removeEntry(int i) {
+        int n = getCount();
+        int size = keyType.getLen() + 8;
+        System.arraycopy(data, entryOffset(n - 1), data, entryOffset(i), size);
+        java.util.Arrays.fill(data, entryOffset(n - 1), entryOffset(n), (byte) 0);
+        setCount(n - 1);
+    }
+
+    /** Removes every entry from this bucket page, keeping its link. */
+    void clearEntries() {
+        java.util.Arrays.fill(data, HEADER_SIZE, data.length, (byte) 0);
+        setCount(0);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * HashIndexScan reads the tuples of a table whose indexed field equals a
+ * given value, using a {@link HashIndexFile}. A lookup reads only the pages
+ * of one bucket, so it is the access method of choice for point queries;
+ * {@link #setOperand} lets the same scan be reused to probe the index for
+ * every tuple of the outer input of an index nested-loops join.
+ */
+public class HashIndexScan extends IndexScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a scan of the tuples whose indexed field equals key.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the hash index to read
+     * @param tableAlias
+     *            the alias of the indexed table (needed by the parser); the
+     *            returned tupleDesc has fields with name tableAlias.fieldName
+     * @param key
+     *            the value to look up
+     */
+    public HashIndexScan(TransactionId tid, HashIndexFile index, String tableAlias, Field key) {
+        super(tid, index, tableAlias, Predicate.Op.EQUALS, key);
+    }
+}
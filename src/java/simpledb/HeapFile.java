@@ -10,15 +10,30 @@ import java.util.concurrent.atomic.AtomicInteger;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * The file grows by whole extents of {@link #setExtentPages} pages, which
+ * are preallocated on disk when the first of them is needed. The number of
+ * pages in use and the pages written so far (see {@link AllocationMap}) are
+ * kept in memory, so neither a scan nor an insert has to ask the file system
+ * for the length of the file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Default number of pages the file grows by when it runs out of room. */
+    public static final int DEFAULT_EXTENT_PAGES = 16;
+
+    private static int extentPages = DEFAULT_EXTENT_PAGES;
+
     public File file;
     public TupleDesc tupleDesc;
     public AtomicInteger numPage;
+    protected final PageChannel channel;
+    protected final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    protected final ZoneMap zones;
+    protected final AllocationMap allocation = new AllocationMap();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,10 +43,79 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, new PageChannel(f));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * read and written through the given channel.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples stored in this file.
+     * @param channel the page I/O layer for f.
+     */
+    protected HeapFile(File f, TupleDesc td, PageChannel channel) {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
-        this.numPage = new AtomicInteger(((int) file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+        this.channel = channel;
+        this.numPage = new AtomicInteger();
+        this.zones = new ZoneMap(f, td);
+        countPages();
+    }
+
+    /**
+     * Sets the number of pages each heap file grows by at a time; 1 grows
+     * files page by page.
+     */
+    public static void setExtentPages(int pages) {
+        HeapFile.extentPages = pages;
+    }
+
+    /** Restores the default extent size. */
+    public static void resetExtentPages() {
+        HeapFile.extentPages = DEFAULT_EXTENT_PAGES;
+    }
+
+    /**
+     * Sets the page count and the allocation map from the file on disk. The
+     * trailing pages of the last extent that are all zeroes were
+     * preallocated but never written, and are not counted.
+     */
+    private void countPages() {
+        int pageSize = BufferPool.getPageSize();
+        int filePages = 0;
+        byte[] data = new byte[pageSize];
+        try {
+            filePages = channel.pageCount(pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        int n = filePages;
+        try {
+            while (n > 0 && filePages - n < extentPages) {
+                Arrays.fill(data, (byte) 0);
+                channel.readPage(n - 1, data);
+                if (!isZero(data)) {
+                    break;
+                }
+                n--;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            n = filePages;
+        }
+        numPage.set(n);
+        allocation.reset(n, filePages);
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -73,18 +157,15 @@ public class HeapFile implements DbFile {
         // some code goes here
         byte[] data = new byte[BufferPool.getPageSize()];
         try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            int pos = BufferPool.getPageSize() * pid.getPageNumber();
-            if (pos < randomAccessFile.length()) {
-                randomAccessFile.seek(pos);
-                randomAccessFile.read(data);
-                randomAccessFile.close();
-            }
-            HeapPage page = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
-            //System.out.println("readPage"  + pid.getPageNumber());
-            // Write this page back to file, in case the file is empty, we need to wirte it back
-            // to update the number of Page.
-            //writePage(page);
+            // a page that was never written is all zeroes
+            if (allocation.isInitialized(pid.getPageNumber())) {
+                channel.readPage(pid.getPageNumber(), data);
+            }
+            TuplePage page = createPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
+            freeSpace.update(pid.getPageNumber(), page.getFreeSpace());
+            if (!zones.isSummarized(pid.getPageNumber())) {
+                zones.summarize(pid.getPageNumber(), page);
+            }
             return page;
         } catch (IOException e) {
             e.printStackTrace();
@@ -92,30 +173,75 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Builds a page of this file from its on-disk image. Subclasses that
+     * store a different page format override this.
+     *
+     * @param pid the id of the page
+     * @param data the page image read from disk
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.seek(BufferPool.getPageSize() * page.getId().getPageNumber());
-            randomAccessFile.write(page.getPageData());
-            randomAccessFile.close();
-            //this.numPage = ((int)file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int pgNo = page.getId().getPageNumber();
+        zones.summarize(pgNo, (TuplePage) page);
+        zones.beforeWrite();
+        allocation.initialize(pgNo);
+        channel.writePage(pgNo, page.getPageData());
+        numPage.accumulateAndGet(pgNo + 1, Math::max);
+    }
+
+    /**
+     * Saves the zone map and closes the channel backing this file. The file
+     * is reopened on the next page access, so closing a file that is still
+     * in use is harmless.
+     */
+    public void close() throws IOException {
+        zones.save();
+        channel.close();
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Forgets what this object knows about the file's contents after the
+     * file was replaced on disk, e.g. by {@link BulkLoader}. The caller
+     * must make sure no page of the old file is still in the BufferPool.
+     */
+    void fileReplaced() throws IOException {
+        channel.close();
+        countPages();
+        freeSpace.clear();
+        zones.clear();
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. Preallocated pages that
+     * no insert has claimed yet are not counted.
      */
     public int numPages() {
         // some code goes here
-        //System.out.println("file size: "  + this.file.length());
-        int res = ((int) file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize();
-        //return numPage.get();
-        return Math.max(res, numPage.get());
+        return numPage.get();
+    }
+
+    /**
+     * Claims a new page at the end of this file, growing the file on disk
+     * by an extent if it has no room for the page.
+     *
+     * @return the number of the new page
+     */
+    protected int allocatePage() throws IOException {
+        synchronized (allocation) {
+            int pgNo = numPage.getAndIncrement();
+            int reserved = allocation.reserve(pgNo, extentPages);
+            if (reserved >= 0) {
+                channel.preallocate((long) reserved * BufferPool.getPageSize());
+            }
+            return pgNo;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -123,46 +249,288 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        BufferPool pool = Database.getBufferPool();
         ArrayList<Page> res = new ArrayList<Page>();
-        for (int i = 0; i < this.numPage.get(); i++) {
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), i),
-                    Permissions.READ_WRITE);
-            
-            if (page.getNumEmptySlots() > 0 ) {
-                //System.out.println("1");
+        // Start the free-space search at a transaction-specific page so that
+        // concurrent inserters tend to land on (and lock) different pages.
+        int start = tid.hashCode();
+        int needed = spaceNeeded(t);
+        int pageNo;
+        HashSet<Integer> visited = new HashSet<Integer>();
+        while ((pageNo = freeSpace.findPage(start, this.numPage.get(), needed)) >= 0 && visited.add(pageNo)) {
+            HeapPageId pid = new HeapPageId(this.getId(), pageNo);
+            boolean heldLock = pool.holdsLock(tid, pid);
+            TuplePage page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (pageNo < this.numPage.get() && page.hasRoomFor(t)) {
                 page.insertTuple(t);
+                freeSpace.update(pageNo, page.getFreeSpace());
+                zones.include(pageNo, t);
+                unpinDirty(tid, page);
                 res.add(page);
                 return res;
             }
+            // stale entry: the page has no room, or a vacuum cut it off the
+            // file while we waited for its lock, and we only looked at it.
+            // Recording its actual free space keeps it from tuples this size
+            // while it can still take smaller ones.
+            freeSpace.update(pageNo, pageNo < this.numPage.get() ? page.getFreeSpace() : 0);
+            start = pageNo + 1;
+            pool.unpinPage(tid, pid);
+            if (!heldLock) {
+                pool.releasePage(tid, pid);
+            }
         }
         // If thers is no slot empty, allocate new Page
-        int pageNum = this.numPage.getAndIncrement();
-        //System.out.println("Total Page:" + pageNum);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), pageNum),
-        Permissions.READ_WRITE);
+        int pageNum;
+        TuplePage page;
+        while (true) {
+            pageNum = allocatePage();
+            HeapPageId pid = new HeapPageId(this.getId(), pageNum);
+            boolean heldLock = pool.holdsLock(tid, pid);
+            page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (pageNum < this.numPage.get()) {
+                break;
+            }
+            // truncated by a vacuum before we got the lock
+            pool.unpinPage(tid, pid);
+            if (!heldLock) {
+                pool.releasePage(tid, pid);
+            }
+        }
         page.insertTuple(t);
+        freeSpace.update(pageNum, page.getFreeSpace());
+        zones.summarize(pageNum, page);
+        unpinDirty(tid, page);
         res.add(page);
         return res;
     }
 
+    /**
+     * Returns the space t takes on a page, in the unit
+     * {@link TuplePage#getFreeSpace} reports: one slot for the fixed-slot
+     * pages of a HeapFile.
+     */
+    protected int spaceNeeded(Tuple t) {
+        return 1;
+    }
+
+    /**
+     * Marks a page tid changed dirty and releases the pin getPage took on
+     * it; a dirty page stays in the pool until it is flushed anyway.
+     */
+    private static void unpinDirty(TransactionId tid, Page page) {
+        page.markDirty(true, tid);
+        Database.getBufferPool().unpinPage(tid, page.getId());
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
         ArrayList<Page> res = new ArrayList<Page>();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().pid, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, t.getRecordId().pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        freeSpace.update(page.getId().getPageNumber(), page.getFreeSpace());
+        zones.forget(page.getId().getPageNumber());
+        unpinDirty(tid, page);
         res.add(page);
         return res;
     }
 
+    /**
+     * Compacts this file while other transactions keep using it: the tuples
+     * of the last pages are moved into free slots of earlier pages, and the
+     * trailing pages that end up empty are cut off the file.
+     * <p>
+     * Each source page is emptied by its own short, logged transaction that
+     * locks every page it touches through the BufferPool and moves the
+     * table's index entries to the tuples' new RecordIds, so concurrent
+     * transactions wait for (or abort against) it like against any other
+     * writer and {@link LogFile#recover} redoes or undoes it like any
+     * other transaction. Compaction stops at the first page whose tuples
+     * no longer fit below it.
+     *
+     * @return the number of pages the file shrank by
+     * @throws TransactionAbortedException if a move deadlocked with another
+     *   transaction; the moves committed before it are kept
+     */
+    public int vacuum() throws DbException, IOException, TransactionAbortedException {
+        int pgNo = numPage.get() - 1;
+        while (pgNo > 0 && emptyPage(pgNo)) {
+            pgNo--;
+        }
+        return truncateEmptyPages();
+    }
+
+    /**
+     * Moves the tuples of page pgNo into pages before it, in one
+     * transaction.
+     *
+     * @return true if the page is empty afterwards
+     */
+    private boolean emptyPage(int pgNo) throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(getId());
+        Transaction xact = new Transaction();
+        xact.start();
+        TransactionId tid = xact.getId();
+        try {
+            TuplePage src = (TuplePage) pool.getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            ArrayList<Tuple> live = new ArrayList<Tuple>();
+            Iterator<Tuple> it = src.iterator();
+            while (it.hasNext()) {
+                live.add(it.next());
+            }
+            int moved = 0;
+            int low = 0;
+            for (Tuple t : live) {
+                Tuple copy = new Tuple(t.getTupleDesc());
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                    copy.setField(i, t.getField(i));
+                }
+                TuplePage dst = null;
+                while (dst == null && (low = freeSpace.findPage(low, pgNo, spaceNeeded(copy))) >= 0) {
+                    HeapPageId pid = new HeapPageId(getId(), low);
+                    boolean heldLock = pool.holdsLock(tid, pid);
+                    TuplePage page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                    if (page.hasRoomFor(copy)) {
+                        dst = page;
+                    } else {
+                        freeSpace.update(low, page.getFreeSpace());
+                        pool.unpinPage(tid, pid);
+                        if (!heldLock) {
+                            pool.releasePage(tid, pid);
+                        }
+                    }
+                }
+                if (dst == null) {
+                    break;
+                }
+                dst.insertTuple(copy);
+                src.deleteTuple(t);
+                zones.forget(pgNo);
+                dst.markDirty(true, tid);
+                src.markDirty(true, tid);
+                freeSpace.update(low, dst.getFreeSpace());
+                zones.include(low, copy);
+                for (DbIndex index : indexes) {
+                    Field key = t.getField(index.getKeyField());
+                    index.deleteEntry(tid, key, t.getRecordId());
+                    index.insertEntry(tid, key, copy.getRecordId());
+                }
+                moved++;
+            }
+            if (moved > 0) {
+                freeSpace.update(pgNo, src.getFreeSpace());
+            }
+            // commit leaves pages in the cache only; write them (after their
+            // log records) so the moves do not depend on the cached copies
+            // once the file is truncated
+            pool.flushPages(tid);
+            xact.commit();
+            return moved == live.size();
+        } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+            xact.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Cuts the empty pages off the end of the file, in one transaction that
+     * holds the write locks of the pages it removes.
+     *
+     * @return the number of pages removed
+     */
+    private int truncateEmptyPages() throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        Transaction xact = new Transaction();
+        xact.start();
+        TransactionId tid = xact.getId();
+        try {
+            int end = numPage.get();
+            int newEnd = end;
+            while (newEnd > 0) {
+                TuplePage page = (TuplePage) pool.getPage(tid, new HeapPageId(getId(), newEnd - 1),
+                        Permissions.READ_WRITE);
+                if (page.iterator().hasNext()) {
+                    break;
+                }
+                newEnd--;
+            }
+            // an insert that allocated a page meanwhile makes the CAS fail,
+            // and the file is left as it is; the log's monitor comes first,
+            // as for a checkpoint, which writes pages and so allocates them
+            synchronized (Database.getLogFile()) {
+                synchronized (allocation) {
+                    if (newEnd == end || !numPage.compareAndSet(end, newEnd)) {
+                        newEnd = end;
+                    } else {
+                        // logged first, or recovery would redo the pages cut off
+                        Database.getLogFile().logTruncateFile(tid, getId(), newEnd);
+                        cutPages(end, newEnd);
+                    }
+                }
+            }
+            xact.commit();
+            return end - newEnd;
+        } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+            xact.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Cuts the file to its first numPages pages, as {@link LogFile#recover}
+     * does to redo a truncation logged by {@link #vacuum}. Does nothing to
+     * a file that is not longer than numPages.
+     */
+    void truncate(int numPages) throws IOException {
+        int end = numPage.getAndAccumulate(numPages, Math::min);
+        if (end > numPages) {
+            cutPages(end, numPages);
+        }
+    }
+
+    /**
+     * Removes pages newEnd to end from the file, its maps and the
+     * BufferPool, once numPage has been lowered to newEnd.
+     */
+    private void cutPages(int end, int newEnd) throws IOException {
+        for (int pg = newEnd; pg < end; pg++) {
+            Database.getBufferPool().discardPage(new HeapPageId(getId(), pg));
+        }
+        freeSpace.truncate(newEnd);
+        zones.truncate(newEnd);
+        allocation.truncate(newEnd);
+        zones.beforeWrite();
+        channel.truncate((long) newEnd * BufferPool.getPageSize());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(tid, getId(), simpledb.Permissions.READ_ONLY);
     }
 
+    /**
+     * Returns an iterator that skips the pages whose zone map shows that no
+     * tuple on them satisfies all of the given predicates, without reading
+     * them. Tuples on the pages that are read are returned whether they
+     * satisfy the predicates or not.
+     *
+     * @param tid the transaction reading the file
+     * @param predicates predicates over the fields of this file's tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, getId(), simpledb.Permissions.READ_ONLY, predicates);
+    }
+
+    /** @return the zone map of this file */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
     public class HeapFileIterator implements DbFileIterator {
 
         public TransactionId tid;
@@ -170,27 +538,81 @@ public class HeapFile implements DbFile {
         public simpledb.Permissions perm;
         public int pageNum;
         public Iterator<Tuple> tupleIterator;
+        private ReadAhead readAhead;
+        /** The ring a scan of a large file reads through, or null. */
+        private BufferRing ring = null;
+        /** The page the scan is on, pinned until the scan moves off it, or null. */
+        private HeapPageId current = null;
+        private final List<Predicate> predicates;
 
         public HeapFileIterator(TransactionId tid, int tableId, simpledb.Permissions perm) {
+            this(tid, tableId, perm, Collections.<Predicate>emptyList());
+        }
+
+        public HeapFileIterator(TransactionId tid, int tableId, simpledb.Permissions perm,
+                List<Predicate> predicates) {
             this.tid = tid;
             this.tableId = tableId;
             this.perm = perm;
             this.pageNum = 0;
             tupleIterator = null;
+            readAhead = new ReadAhead(tableId);
+            this.predicates = new ArrayList<Predicate>(predicates);
         }
 
         public void open() throws DbException, TransactionAbortedException {
+            // a file much larger than the pool is scanned in bulk read mode
+            if (ring == null && perm == simpledb.Permissions.READ_ONLY
+                    && Database.getBufferPool().isBulkRead(tid, tableId, numPages())) {
+                ring = new BufferRing(BufferRing.DEFAULT_PAGES);
+                readAhead = new ReadAhead(tableId, tid, ring);
+            }
+            pageNum = skipPages(pageNum);
             HeapPageId pageId = new HeapPageId(tableId, pageNum);
-            tupleIterator = openPage(pageNum, pageId).iterator();
+            TuplePage page = openPage(pageNum, pageId);
+            tupleIterator = page == null ? Collections.<Tuple>emptyIterator() : page.iterator();
         }
 
-        private HeapPage openPage(int pageNum, HeapPageId pageId) 
+        /** @return the first page from pageNum on that may hold a matching tuple */
+        private int skipPages(int pageNum) {
+            if (!predicates.isEmpty()) {
+                int numPages = numPages();
+                while (pageNum < numPages && !zones.mayMatch(pageNum, predicates)) {
+                    pageNum++;
+                }
+            }
+            return pageNum;
+        }
+
+        private TuplePage openPage(int pageNum, HeapPageId pageId) 
                     throws DbException, TransactionAbortedException {
-            if (pageNum < 0 || pageNum >= numPages()) {
+            int numPages = numPages();
+            if (pageNum < 0 || pageNum >= numPages) {
                 return null;
                 //throw new DbException("No Page");
             }
-            return (HeapPage) Database.getBufferPool().getPage(tid, pageId, this.perm);
+            // do not prefetch the pages the scan is going to skip
+            int limit = numPages;
+            if (!predicates.isEmpty()) {
+                int window = Database.getBufferPool().getReadAheadWindow();
+                limit = pageNum + 1;
+                while (limit < numPages && limit <= pageNum + window && zones.mayMatch(limit, predicates)) {
+                    limit++;
+                }
+            }
+            readAhead.access(pageNum, limit);
+            // leave the last page first, so a small pool has a frame for the next
+            unpinCurrent();
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId, this.perm, ring);
+            current = pageId;
+            return page;
+        }
+
+        private void unpinCurrent() {
+            if (current != null) {
+                Database.getBufferPool().unpinPage(tid, current);
+                current = null;
+            }
         }
 
         public boolean hasNext() throws DbException, TransactionAbortedException {
@@ -198,7 +620,7 @@ public class HeapFile implements DbFile {
                 return false;
             }
             while (!tupleIterator.hasNext() && tupleIterator != null) {
-                pageNum ++;
+                pageNum = skipPages(pageNum + 1);
                 if (pageNum >= numPages()) {
                     return false;
                 }
@@ -217,12 +639,15 @@ public class HeapFile implements DbFile {
 
         public void rewind() throws DbException, TransactionAbortedException{
             this.pageNum = 0;
+            readAhead.reset();
             open();
         }
 
         public void close() {
             this.pageNum = 0;
             tupleIterator = null;
+            readAhead.reset();
+            unpinCurrent();
         }
     }
 
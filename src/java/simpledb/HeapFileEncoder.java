@@ -90,6 +90,18 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+  }
+
+   /** Convert the specified input text file into a binary page file, as
+    * above, optionally storing every page deflated in the format of
+    * {@link CompressedHeapFile}.
+    *
+    * @param compress true to write a compressed heap file
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean compress)
+      throws IOException {
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -104,8 +116,24 @@ public class HeapFileEncoder {
         nheaderbytes++;  //ceiling
     int nheaderbits = nheaderbytes * 8;
 
+    // the zone map of the file: min and max of every int column per page
+    int[] zoneColumn = new int[numFields];
+    int nzonecols = 0;
+    for (int i = 0; i < numFields; i++) {
+        zoneColumn[i] = typeAr[i] == Type.INT_TYPE ? nzonecols++ : -1;
+    }
+    ArrayList<int[]> zones = new ArrayList<int[]>();
+    int[] zone = ZoneMap.emptyZone(nzonecols);
+
     BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
+    FileOutputStream os = null;
+    CompressedPageChannel packed = null;
+    if (compress) {
+        outFile.delete();
+        packed = new CompressedPageChannel(outFile);
+    } else {
+        os = new FileOutputStream(outFile);
+    }
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -140,7 +168,11 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    int zc = zoneColumn[fieldNo];
+                    zone[2 * zc] = Math.min(zone[2 * zc], v);
+                    zone[2 * zc + 1] = Math.max(zone[2 * zc + 1], v);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -206,9 +238,16 @@ public class HeapFileEncoder {
             
             // write header and body to file
             headerStream.flush();
-            headerBAOS.writeTo(os);
             pageStream.flush();
-            pageBAOS.writeTo(os);
+            if (packed != null) {
+                ByteArrayOutputStream page = new ByteArrayOutputStream(npagebytes);
+                headerBAOS.writeTo(page);
+                pageBAOS.writeTo(page);
+                packed.writePage(npages, page.toByteArray());
+            } else {
+                headerBAOS.writeTo(os);
+                pageBAOS.writeTo(os);
+            }
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -216,11 +255,19 @@ public class HeapFileEncoder {
             pageBAOS = new ByteArrayOutputStream(npagebytes);
             pageStream = new DataOutputStream(pageBAOS);
             
+            zones.add(zone);
+            zone = ZoneMap.emptyZone(nzonecols);
+
             recordcount = 0;
             npages++;
         }
     }
     br.close();
-    os.close();
+    if (packed != null) {
+        packed.close();
+    } else {
+        os.close();
+    }
+    ZoneMap.write(outFile, 0, nzonecols, zones);
   }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,16 +12,30 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    final int headerSize;
     final Tuple tuples[];
     final int numSlots;
+    /** Number of bytes each slot takes on the page. */
+    final int tupleSize;
     private boolean dirty;
     private TransactionId transactionId;
 
+    /**
+     * The canonical page image. Inserts and deletes update it in place, so
+     * it always holds exactly what getPageData returns.
+     */
+    private final byte[] data;
+    /** A view of data used to read and write fields. */
+    private final ByteBuffer image;
+    /** Byte offset of each field within a tuple. */
+    private final int[] fieldOffsets;
+    /** Summary of the tuples for the ZoneMap, or null until it is asked for. */
+    private int[] zone;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -36,6 +51,11 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a copy of data as its canonical image and does not
+     * decode any tuple up front: a tuple is created the first time the page
+     * is iterated, and each of its fields is decoded the first time it is
+     * asked for.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -43,25 +63,23 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += fieldLen(j);
+        }
+        this.tupleSize = size;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
         this.dirty = false;
         this.transactionId = null;
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.image = ByteBuffer.wrap(this.data);
+        this.headerSize = getHeaderSize();
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + fieldLen(j - 1);
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
@@ -71,7 +89,26 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize() * 8) / (this.td.getSize() * 8 + 1));
+        return (int) Math.floor((BufferPool.getPageSize() * 8) / (this.tupleSize * 8 + 1));
+    }
+
+    /**
+     * Returns the number of bytes field j of a tuple takes on the page.
+     * Called from the constructor, so an override may only use the
+     * TupleDesc.
+     */
+    protected int fieldLen(int j) {
+        return td.getFieldType(j).getLen();
+    }
+
+    /** Decodes field j of a tuple from the page image at pos. */
+    protected Field readField(int j, ByteBuffer image, int pos) {
+        return td.getFieldType(j).parse(image, pos);
+    }
+
+    /** Encodes f as field j of a tuple into the page image at pos. */
+    protected void writeField(int j, Field f, ByteBuffer image, int pos) {
+        f.serialize(image, pos);
     }
 
     /**
@@ -94,7 +131,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return newPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,11 +139,16 @@ public class HeapPage implements Page {
         }
         return null;
     }
+
+    /** Creates a page of the same format as this one, for the before image. */
+    protected HeapPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
     
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -118,38 +160,73 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    /** @return the byte offset of the given slot within the page image */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the given slot, creating it from the page image
+     * the first time it is asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new PageTuple(this, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * A tuple stored in a slot of a page. Each field is decoded from the
+     * page image the first time it is asked for. Before the slot is freed
+     * the page calls {@link #decodeAll}, so the tuple keeps its values when
+     * the slot is later overwritten.
+     */
+    static class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+        private final HeapPage page;
+        private final int offset;
+        private final Field[] fields;
+
+        PageTuple(HeapPage page, int offset) {
+            super(page.td);
+            this.page = page;
+            this.offset = offset;
+            this.fields = new Field[page.fieldOffsets.length];
+        }
+
+        public Field getField(int i) {
+            if (fields[i] == null) {
+                fields[i] = page.readField(i, page.image, offset + page.fieldOffsets[i]);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return fields[i];
         }
 
-        return t;
+        /** Decodes every field that has not been decoded yet. */
+        void decodeAll() {
+            for (int i = 0; i < fields.length; i++) {
+                getField(i);
+            }
+        }
+
+        public void setField(int i, Field f) {
+            fields[i] = f;
+        }
+
+        public Iterator<Field> fields() {
+            ArrayList<Field> all = new ArrayList<Field>();
+            for (int i = 0; i < fields.length; i++) {
+                all.add(getField(i));
+            }
+            return all.iterator();
+        }
     }
 
     /**
@@ -159,69 +236,15 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page image is kept up to date by insertTuple and deleteTuple, so
+     * this is a single array copy.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -248,11 +271,18 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (int i = 0; i < this.numSlots; i++) {
-            if (isSlotUsed(i) && tuples[i].getRecordId().equals(t.getRecordId())) {
-                markSlotUsed(i, false);
-                return;
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId()) && isSlotUsed(rid.getTupleNumber())) {
+            int slot = rid.getTupleNumber();
+            if (tuples[slot] instanceof PageTuple) {
+                // the tuple may still be in use, so it must not see the slot change
+                ((PageTuple) tuples[slot]).decodeAll();
             }
+            markSlotUsed(slot, false);
+            tuples[slot] = null;
+            Arrays.fill(data, slotOffset(slot), slotOffset(slot) + tupleSize, (byte) 0);
+            zone = null;
+            return;
         }
         throw new DbException("Tuple slot is already empty or it is not on this page");
 
@@ -273,15 +303,42 @@ public class HeapPage implements Page {
         }
         for (int i = 0; i < this.numSlots; i++) {
             if (!isSlotUsed(i)) {
+                int offset = slotOffset(i);
+                for (int j = 0; j < fieldOffsets.length; j++) {
+                    writeField(j, t.getField(j), image, offset + fieldOffsets[j]);
+                }
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(this.pid, i));
                 this.tuples[i] = t;
+                if (zone != null) {
+                    ZoneMap.widen(td, zone, t);
+                }
                 return;
             }
         }
         throw new DbException("The page is full");
     }
 
+    // see TuplePage.java for javadocs
+    public int[] getZone() {
+        if (zone == null) {
+            zone = ZoneMap.zoneOf(td, iterator());
+        }
+        return zone;
+    }
+
+    /**
+     * @return true if the page has an empty slot for t
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    // see TuplePage.java for javadocs
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -312,7 +369,8 @@ public class HeapPage implements Page {
         // some code goes here
         int count = 0;
         int pos = 0;
-        for (byte i : header) {
+        for (int b = 0; b < headerSize; b++) {
+            byte i = data[b];
             if (pos >= this.numSlots) {
                 break;
             }
@@ -334,18 +392,10 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int pos = 0;
-        for (byte by : header) {
-            for (int j = 0; j <= 7; j++) {
-                if (pos == i && ((by >> j) & 1 ) == 1) {
-                    return true;
-                } else if (pos == i && ((by >> j) & 1 ) == 0) {
-                    return false;
-                }
-                pos++;
-            }
+        if (i < 0 || i >= numSlots) {
+            return false;
         }
-        return false;
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
     }
 
     /**
@@ -357,9 +407,9 @@ public class HeapPage implements Page {
         int numBye = i / 8;
         int pos = i % 8;
         if (value) {
-            header[numBye] |= 1 << pos;
+            data[numBye] |= 1 << pos;
         } else {
-            header[numBye] &= ~(1 << pos);
+            data[numBye] &= ~(1 << pos);
         }
     }
 
@@ -372,9 +422,9 @@ public class HeapPage implements Page {
         int size = this.numSlots - this.getNumEmptySlots();
         Tuple[] iteratorTuple = new Tuple[size];
         int j = 0;
-        for (int i = 0; i < tuples.length; i ++) {
+        for (int i = 0; i < numSlots; i ++) {
             if (this.isSlotUsed(i)) {
-                iteratorTuple[j] = this.tuples[i];
+                iteratorTuple[j] = getTuple(i);
                 j++;
             }
         }
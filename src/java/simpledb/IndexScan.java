@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, using a {@link DbIndex} on that
+ * field instead of reading the whole table.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final DbIndex index;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private Field operand;
+    private DbFileIterator iter;
+
+    /**
+     * Creates a scan of the tuples whose indexed field satisfies
+     * <code>field op operand</code>.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read; it must support op
+     * @param tableAlias
+     *            the alias of the indexed table (needed by the parser); the
+     *            returned tupleDesc has fields with name tableAlias.fieldName
+     * @param op
+     *            the comparison to apply to the indexed field
+     * @param operand
+     *            the value to compare the indexed field with
+     */
+    public IndexScan(TransactionId tid, DbIndex index, String tableAlias, Predicate.Op op, Field operand) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.operand = operand;
+        this.iter = index.iterator(tid, op, operand);
+    }
+
+    /**
+     * @return the actual name of the table the operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the index this operator reads
+     */
+    public DbIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate the returned tuples satisfy, on the table's
+     *   field numbers
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getKeyField(), op, operand);
+    }
+
+    /**
+     * Changes the value the indexed field is compared with, e.g. to probe
+     * the index once for every tuple of the outer input of a join. The
+     * scan must be opened again before it returns tuples.
+     */
+    public void setOperand(Field operand) {
+        iter.close();
+        this.operand = operand;
+        this.iter = index.iterator(tid, op, operand);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        iter.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, with each field name
+     * prefixed with the tableAlias string from the constructor (e.g.,
+     * "alias.fieldName").
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] typeArr = new Type[td.numFields()];
+        String[] fieldArr = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            typeArr[i] = td.getFieldType(i);
+            fieldArr[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeArr, fieldArr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return iter.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return iter.next();
+    }
+
+    public void close() {
+        iter.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        iter.rewind();
+    }
+}
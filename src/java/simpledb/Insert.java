@@ -3,6 +3,7 @@ package simpledb;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import simpledb.TupleDesc.TDItem;
 
@@ -75,7 +76,8 @@ public class Insert extends Operator {
 
     /**
      * Inserts tuples read from child into the tableId specified by the
-     * constructor. It returns a one field tuple containing the number of
+     * constructor, and adds them to the table's indexes. It returns a one
+     * field tuple containing the number of
      * inserted records. Inserts should be passed through BufferPool. An
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
@@ -92,9 +94,15 @@ public class Insert extends Operator {
     		return null;
     	} else {
     		try{
+        		List<DbIndex> indexes = Database.getCatalog().getIndexes(tableId);
         		while(this.child.hasNext()) {
             		insertCount++;
-            		Database.getBufferPool().insertTuple(t, tableId, child.next());
+            		Tuple tup = child.next();
+            		Database.getBufferPool().insertTuple(t, tableId, tup);
+            		// the tuple now carries its RecordId; add it to every index
+            		for (DbIndex index : indexes) {
+            			index.insertEntry(t, tup.getField(index.getKeyField()), tup.getRecordId());
+            		}
             	}
         	}catch(IOException e) {
         		e.printStackTrace();
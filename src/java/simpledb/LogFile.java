@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, TUPLE and TRUNCATE
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,19 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> TUPLE records log a single change to a {@link LogicalDbFile}, whose
+tuples do not live in pages: the table id, 1 for an insert or 0 for a
+delete, the slot of the tuple, and the length and bytes of the tuple.
+Recovery redoes them like the after images of UPDATE records and rolls
+back those of uncommitted transactions.
+
+<li> TRUNCATE records log that a {@link HeapFile} was cut to a number of
+pages, as {@link HeapFile#vacuum} does with the empty pages at its end:
+the table id and the new number of pages. Recovery redoes them in log
+order, so that the after images of pages that were cut off do not grow
+the file back. They are never undone: the pages cut off were empty and
+locked by the truncating transaction.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +95,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int TUPLE_RECORD = 6;
+    static final int TRUNCATE_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -93,6 +108,9 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** True while recover() runs; only then does rollback undo TUPLE records. */
+    private boolean recovering = false;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -218,6 +236,97 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a TUPLE record for a change to a LogicalDbFile made by the
+        specified tid. Nothing is written if the transaction did not log
+        a BEGIN record, just as its page updates are not logged.
+        @param tid The transaction making the change
+        @param tableId The id of the LogicalDbFile
+        @param insert true for an insert, false for a delete
+        @param slot The slot of the inserted or deleted tuple
+        @param row The inserted or deleted tuple
+    */
+    public synchronized void logTupleChange(TransactionId tid, int tableId,
+                                            boolean insert, int slot, byte[] row)
+        throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+            return;
+        }
+        preAppend();
+        raf.writeInt(TUPLE_RECORD);
+        raf.writeLong(tid.getId());
+        new TupleChange(tableId, insert, slot, row).write(raf);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
+    /** Write a TRUNCATE record for the specified tid and force it to
+        disk; the caller truncates the file afterwards. Nothing is written
+        if the transaction did not log a BEGIN record.
+        @param tid The transaction truncating the file
+        @param tableId The id of the HeapFile
+        @param numPages The number of pages the file is cut to
+    */
+    public synchronized void logTruncateFile(TransactionId tid, int tableId, int numPages)
+        throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+            return;
+        }
+        preAppend();
+        raf.writeInt(TRUNCATE_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
+    /** The body of a TUPLE record. */
+    private static class TupleChange {
+        final int tableId;
+        final boolean insert;
+        final int slot;
+        final byte[] row;
+
+        TupleChange(int tableId, boolean insert, int slot, byte[] row) {
+            this.tableId = tableId;
+            this.insert = insert;
+            this.slot = slot;
+            this.row = row;
+        }
+
+        static TupleChange read(RandomAccessFile raf) throws IOException {
+            int tableId = raf.readInt();
+            boolean insert = raf.readInt() == 1;
+            int slot = raf.readInt();
+            byte[] row = new byte[raf.readInt()];
+            raf.readFully(row);
+            return new TupleChange(tableId, insert, slot, row);
+        }
+
+        void write(RandomAccessFile raf) throws IOException {
+            raf.writeInt(tableId);
+            raf.writeInt(insert ? 1 : 0);
+            raf.writeInt(slot);
+            raf.writeInt(row.length);
+            raf.write(row);
+        }
+
+        private LogicalDbFile table() {
+            return (LogicalDbFile) Database.getCatalog().getDatabaseFile(tableId);
+        }
+
+        /** Makes the change again. */
+        void redo() throws IOException {
+            table().applyChange(insert, slot, row);
+        }
+
+        /** Takes the change back. */
+        void undo() throws IOException {
+            table().applyChange(!insert, slot, row);
+        }
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -328,6 +437,13 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+                while (tables.hasNext()) {
+                    DbFile table = Database.getCatalog().getDatabaseFile(tables.next());
+                    if (table instanceof LogicalDbFile) {
+                        ((LogicalDbFile) table).checkpoint();
+                    }
+                }
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -416,6 +532,13 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case TUPLE_RECORD:
+                    TupleChange.read(raf).write(logNew);
+                    break;
+                case TRUNCATE_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -472,6 +595,7 @@ public class LogFile {
                 }
                 raf.seek(start);
                 HashMap<PageId, Page> rollbackPages = new HashMap<>();
+                ArrayList<TupleChange> tupleChanges = new ArrayList<>();
                 boolean abortedTrans = false;
                 while(!abortedTrans) {
                 	try {
@@ -498,6 +622,17 @@ public class LogFile {
                     			rollbackPages.put(before.getId(), before);
                     		}
                     		break;
+                    	case TUPLE_RECORD:
+                    		TupleChange change = TupleChange.read(raf);
+                    		if(recordId == tid.getId()) {
+                    			tupleChanges.add(change);
+                    		}
+                    		break;
+                    	case TRUNCATE_RECORD:
+                    		// not undone: the pages cut off were empty
+                    		raf.readInt();
+                    		raf.readInt();
+                    		break;
                     	case CHECKPOINT_RECORD:
                     		int numActions = raf.readInt();
                     		while(numActions-- > 0) {
@@ -522,6 +657,13 @@ public class LogFile {
                 	Database.getBufferPool().discardPage(pid);
                 	Database.getCatalog().getDatabaseFile(tableId).writePage(pageBefore);
                 }
+                // a LogicalDbFile undoes the changes of a live transaction
+                // itself; after a crash they come back from the log
+                if (recovering) {
+                    for (int i = tupleChanges.size() - 1; i >= 0; i--) {
+                        tupleChanges.get(i).undo();
+                    }
+                }
             }
         }
     }
@@ -548,6 +690,8 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                recovering = true;
+                try {
                 // some code goes here
        		raf.seek(0);
         	long ckLog = raf.readLong();
@@ -606,6 +750,19 @@ public class LogFile {
                		    int tableid = after.getId().getTableId();
               		    Database.getCatalog().getDatabaseFile(tableid).writePage(after);
               		    break;
+            		case TUPLE_RECORD:
+              		    if (!tidToFirstLogRecord.containsKey(record_tid)) {
+                		throw new RuntimeException("inconsistent log");
+              		    }
+              		    TupleChange.read(raf).redo();
+              		    break;
+            		case TRUNCATE_RECORD:
+              		    if (!tidToFirstLogRecord.containsKey(record_tid)) {
+                		throw new RuntimeException("inconsistent log");
+              		    }
+              		    HeapFile truncated = (HeapFile) Database.getCatalog().getDatabaseFile(raf.readInt());
+              		    truncated.truncate(raf.readInt());
+              		    break;
             		default:
               		    assert false;
             		}
@@ -625,6 +782,9 @@ public class LogFile {
           	    logAbort(new TransactionId(id));
           	    rollback(new TransactionId(id));
         	}
+                } finally {
+                    recovering = false;
+                }
             }
          }
     }
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * LogicalDbFile is a DbFile whose tuples do not live in BufferPool pages,
+ * such as {@link MemoryDbFile} or {@link LsmDbFile}. Instead of page
+ * images, its changes are logged as TUPLE records (see
+ * {@link LogFile#logTupleChange}), each identifying a tuple by a slot
+ * number the file chooses. The BufferPool and the LogFile call back into
+ * the file to complete transactions, to checkpoint, and to redo and undo
+ * logged changes during recovery.
+ */
+public interface LogicalDbFile extends DbFile {
+
+    /**
+     * Stores the given tuple under slot (insert) or removes the tuple
+     * stored under slot (delete). Used to redo and undo logged changes;
+     * applying a change twice must have no further effect.
+     *
+     * @param insert true to store the tuple, false to remove it
+     * @param slot the slot the change was logged with
+     * @param row the tuple the change was logged with, its fields
+     *   serialized one after another
+     */
+    public void applyChange(boolean insert, int slot, byte[] row) throws IOException;
+
+    /**
+     * Forgets the changes of a committed transaction, or takes back those
+     * of an aborted one. Called by the BufferPool before it releases the
+     * transaction's locks.
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException;
+
+    /**
+     * Makes the current contents of the file durable without the log.
+     * Called when the log is checkpointed; like the pages the BufferPool
+     * flushes then, the file may keep changes of transactions that have
+     * not committed yet, which recovery rolls back.
+     */
+    public void checkpoint() throws IOException;
+}
@@ -2,7 +2,10 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
+import java.util.Collections;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -271,6 +274,140 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Return the columns of the table with the given alias that this plan
+     *  refers to in its select list, filters, joins, aggregate, GROUP BY
+     *  or ORDER BY, in table order.  Used to scan only those columns of
+     *  column-oriented tables.
+     *  @param alias the table alias
+     *  @param td the schema of the table
+     *  @return the column indexes; all columns if the select list contains
+     *    <code>*</code>, and at least the first column
+     */
+    int[] referencedColumns(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                names.add("*");
+            else
+                addReference(names, alias, si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                names.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (lj.t1Alias.equals(alias))
+                names.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                names.add(lj.f2PureName);
+        }
+        addReference(names, alias, aggField);
+        addReference(names, alias, groupByField);
+        addReference(names, alias, oByField);
+
+        ArrayList<Integer> cols = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains("*") || names.contains(td.getFieldName(i)))
+                cols.add(i);
+        }
+        if (cols.isEmpty())
+            cols.add(0);
+        int[] res = new int[cols.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = cols.get(i);
+        return res;
+    }
+
+    private static void addReference(Set<String> names, String alias, String qualifiedName) {
+        if (qualifiedName == null)
+            return;
+        String[] parts = qualifiedName.split("[.]");
+        if (parts.length == 2 && parts[0].equals(alias))
+            names.add(parts[1]);
+    }
+
+    /** Returns a scan that answers one of the filters on the given
+     *  table using an index on the filtered field, preferring an equality
+     *  filter, or null if no filter is on an indexed field. The filter the
+     *  scan answers is added to answered, so it needs no Filter operator.
+     */
+    private OpIterator chooseIndexScan(TransactionId t, LogicalScanNode table, Set<LogicalFilterNode> answered) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        LogicalFilterNode best = null;
+        DbIndex bestIndex = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            DbIndex index = Database.getCatalog().getIndex(table.t, field, lf.p);
+            if (index != null && (best == null || (lf.p == Predicate.Op.EQUALS && best.p != Predicate.Op.EQUALS))) {
+                best = lf;
+                bestIndex = index;
+            }
+        }
+        if (best == null)
+            return null;
+        Field f = constant(td.getFieldType(bestIndex.getKeyField()), best.c);
+        answered.add(best);
+        if (bestIndex instanceof HashIndexFile)
+            return new HashIndexScan(t, (HashIndexFile) bestIndex, table.alias, f);
+        if (bestIndex instanceof BitmapIndexFile)
+            return new BitmapScan(t, table.alias, Collections.singletonList((BitmapIndexFile) bestIndex),
+                    Collections.singletonList(new Predicate(bestIndex.getKeyField(), best.p, f)));
+        return new IndexScan(t, bestIndex, table.alias, best.p, f);
+    }
+
+    /** Returns a BitmapScan that ANDs the bitmaps of every filter on the
+     *  given table that a bitmap index can answer, or null if fewer than
+     *  two filters can be answered that way (a single one is left to
+     *  {@link #chooseIndexScan}). The filters the scan answers are added to
+     *  answered.
+     */
+    private BitmapScan chooseBitmapScan(TransactionId t, LogicalScanNode table, Set<LogicalFilterNode> answered) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<BitmapIndexFile> indexes = new ArrayList<BitmapIndexFile>();
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        ArrayList<LogicalFilterNode> used = new ArrayList<LogicalFilterNode>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            for (DbIndex index : Database.getCatalog().getIndexes(table.t)) {
+                if (!(index instanceof BitmapIndexFile) || index.getKeyField() != field || !index.supports(lf.p))
+                    continue;
+                BitmapIndexFile bitmap = (BitmapIndexFile) index;
+                // bitmaps can only be combined if they number tuples alike
+                if (!indexes.isEmpty() && bitmap.getSlotsPerPage() != indexes.get(0).getSlotsPerPage())
+                    continue;
+                indexes.add(bitmap);
+                predicates.add(new Predicate(field, lf.p, constant(td.getFieldType(field), lf.c)));
+                used.add(lf);
+                break;
+            }
+        }
+        if (indexes.size() < 2)
+            return null;
+        answered.addAll(used);
+        return new BitmapScan(t, table.alias, indexes, predicates);
+    }
+
+    /** @return the constant c of a filter as a Field of the given type */
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(c));
+        return new StringField(c, Type.STRING_LEN);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,12 +426,25 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashSet<LogicalFilterNode> answeredByIndex = new HashSet<LogicalFilterNode>();
+        HashMap<String,SeqScan> seqScans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                if (file instanceof ColumnFile)
+                    ss = new ColumnScan(t, file.getId(), table.alias, referencedColumns(table.alias, file.getTupleDesc()));
+                else {
+                    ss = chooseBitmapScan(t, table, answeredByIndex);
+                    if (ss == null)
+                        ss = chooseIndexScan(t, table, answeredByIndex);
+                }
+                if (ss == null) {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                    seqScans.put(table.alias, (SeqScan) ss);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,7 +484,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!answeredByIndex.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // let the scan skip pages the filter would reject anyway
+            if (seqScans.containsKey(lf.tableAlias))
+                seqScans.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
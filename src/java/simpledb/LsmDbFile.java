@@ -0,0 +1,875 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * LsmDbFile is a write-optimized table organized as a log-structured merge
+ * tree. Changes go to an in-memory, sorted memtable; a change costs a TUPLE
+ * log record and nothing else, with no page to read or write back. When the
+ * memtable fills, it is written out in one sequential pass as a run: an
+ * immutable file of entries sorted by the table's key field. Once a table
+ * has too many runs, a background thread merges them all into one, so that
+ * scans have few files to merge.
+ * <p>
+ * Every entry is identified by its key and a sequence number unique within
+ * the table, which is also the tuple number of the tuple's record id. An
+ * entry either holds a tuple or is a tombstone, written by a delete; when
+ * several runs and the memtable hold entries with the same key and sequence
+ * number, the newest wins. Applying a change is thus always "make this
+ * entry the newest", which makes redo, undo and compaction simple: undoing
+ * an insert writes a tombstone, undoing a delete writes the tuple again.
+ * <p>
+ * A scan merges the memtable and the runs in key order. Given predicates on
+ * the key field (see {@link #iterator(TransactionId, List)}), it skips runs
+ * whose key range, or for equality whose bloom filter, rules them out and
+ * reads only the matching part of the others.
+ * <p>
+ * As for {@link MemoryDbFile}, transactions lock the whole table through
+ * the BufferPool's lock manager, changes are logged as TUPLE records while
+ * holding the LogFile's monitor and then the table's, and the table undoes
+ * the changes of aborted transactions itself. The data
+ * file holds the manifest: the list of runs, oldest first. On checkpoints
+ * and when the table is closed the memtable is written out as a run; after
+ * a crash, {@link LogFile#recover} rebuilds the memtable from the log.
+ * <p>
+ * Select it for a table by adding <code>lsm</code> after the column list in
+ * the catalog file, e.g. <code>clicks (id int pk, url string) lsm</code>;
+ * the primary key, or else the first field, is the key field. LSM tables
+ * cannot be indexed.
+ *
+ * @Threadsafe
+ */
+public class LsmDbFile implements LogicalDbFile {
+
+    /** Default number of entries the memtable holds before it is written out. */
+    public static final int DEFAULT_MEMTABLE_ENTRIES = 4096;
+    /** Default number of runs that triggers a compaction. */
+    public static final int DEFAULT_MAX_RUNS = 4;
+
+    private static int memtableEntries = DEFAULT_MEMTABLE_ENTRIES;
+    private static int maxRuns = DEFAULT_MAX_RUNS;
+
+    /** Background threads that compact the runs of all LSM tables. */
+    private static final ExecutorService compactor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-compaction");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Bytes of an entry in front of its tuple: the sequence number and the tombstone flag. */
+    private static final int ENTRY_HEADER = 5;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int keyField;
+    /** Offset of each field within a serialized tuple. */
+    private final int[] offsets;
+    private final int entrySize;
+    /** The page id whose lock stands for the whole table. */
+    private final HeapPageId lockId;
+
+    private TreeMap<Entry, Entry> memtable = new TreeMap<Entry, Entry>(ORDER);
+    /** The runs, oldest first. */
+    private ArrayList<Run> runs = new ArrayList<Run>();
+    private int nextSeq = 0;
+    private int nextRun = 0;
+    /** The compaction in progress, or null. */
+    private Future<?> compaction = null;
+    /** The changes of each live transaction, oldest first. */
+    private final HashMap<TransactionId, ArrayList<Change>> undo = new HashMap<TransactionId, ArrayList<Change>>();
+
+    /** A tuple, or a tombstone for one, under its key and sequence number. */
+    private static class Entry {
+        final Field key;
+        final int seq;
+        final boolean live;
+        /** The serialized tuple; a tombstone keeps the tuple it deletes. */
+        final byte[] row;
+
+        Entry(Field key, int seq, boolean live, byte[] row) {
+            this.key = key;
+            this.seq = seq;
+            this.live = live;
+            this.row = row;
+        }
+    }
+
+    /** Orders entries by key, then sequence number. */
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int c = compareKeys(a.key, b.key);
+            return c != 0 ? c : Integer.compare(a.seq, b.seq);
+        }
+    };
+
+    private static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /** An immutable file of entries in ORDER, each ENTRY_HEADER + td.getSize() bytes. */
+    private static class Run {
+        final File file;
+        final int count;
+        final Field min;
+        final Field max;
+        final BloomFilter keys;
+
+        Run(File file, int count, Field min, Field max, BloomFilter keys) {
+            this.file = file;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.keys = keys;
+        }
+    }
+
+    /** A change to an entry, as logged and as undone. */
+    private static class Change {
+        final boolean insert;
+        final int seq;
+        final byte[] row;
+
+        Change(boolean insert, int seq, byte[] row) {
+            this.insert = insert;
+            this.seq = seq;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Opens the table whose manifest is f, or an empty table if f does not
+     * exist yet.
+     *
+     * @param f the manifest file; the runs are stored next to it
+     * @param td the schema of the table
+     * @param keyField the field entries are sorted by
+     */
+    public LsmDbFile(File f, TupleDesc td, int keyField) {
+        this.file = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.offsets = new int[td.numFields()];
+        for (int j = 1; j < offsets.length; j++) {
+            offsets[j] = offsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+        this.entrySize = ENTRY_HEADER + td.getSize();
+        this.lockId = new HeapPageId(getId(), 0);
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("can't read LSM table " + f, e);
+        }
+    }
+
+    /**
+     * Sets the number of entries the memtable of every LSM table holds
+     * before it is written out as a run.
+     */
+    public static void setMemtableEntries(int entries) {
+        LsmDbFile.memtableEntries = entries;
+    }
+
+    /** Sets the number of runs at which an LSM table compacts them. */
+    public static void setMaxRuns(int runs) {
+        LsmDbFile.maxRuns = runs;
+    }
+
+    /** Restores the default memtable size and compaction trigger. */
+    public static void resetLimits() {
+        memtableEntries = DEFAULT_MEMTABLE_ENTRIES;
+        maxRuns = DEFAULT_MAX_RUNS;
+    }
+
+    /**
+     * Reads the manifest written by {@link #saveManifest}: the next
+     * sequence and run numbers, the number of runs, and their file names.
+     */
+    private void load() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            nextSeq = in.readInt();
+            nextRun = in.readInt();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                runs.add(openRun(new File(file.getParentFile(), in.readUTF())));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(nextSeq);
+            out.writeInt(nextRun);
+            out.writeInt(runs.size());
+            for (Run r : runs) {
+                out.writeUTF(r.file.getName());
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't replace " + file);
+        }
+    }
+
+    /** Reads a run once to rebuild its bloom filter and key range. */
+    private Run openRun(File f) throws IOException {
+        int count = (int) (f.length() / entrySize);
+        BloomFilter keys = new BloomFilter(count);
+        Field min = null;
+        Field max = null;
+        RunReader in = new RunReader(f, 0, count, null);
+        try {
+            for (Entry e = in.next(); e != null; e = in.next()) {
+                if (min == null) {
+                    min = e.key;
+                }
+                max = e.key;
+                keys.add(e.key);
+                nextSeq = Math.max(nextSeq, e.seq + 1);
+            }
+        } finally {
+            in.close();
+        }
+        return new Run(f, count, min, max, keys);
+    }
+
+    /** @return field j of the serialized tuple row */
+    private Field parseField(byte[] row, int j) {
+        return td.getFieldType(j).parse(ByteBuffer.wrap(row), offsets[j]);
+    }
+
+    private Entry entry(int seq, boolean live, byte[] row) {
+        return new Entry(parseField(row, keyField), seq, live, row);
+    }
+
+    private Tuple toTuple(Entry e) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < offsets.length; j++) {
+            t.setField(j, parseField(e.row, j));
+        }
+        t.setRecordId(new RecordId(lockId, e.seq));
+        return t;
+    }
+
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int j = 0; j < offsets.length; j++) {
+                t.getField(j).serialize(out);
+            }
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Makes the entry with the given sequence number hold the given tuple
+     * (insert) or a tombstone (delete), writing the memtable out if it is
+     * full.
+     */
+    public synchronized void applyChange(boolean insert, int seq, byte[] row) throws IOException {
+        Entry e = entry(seq, insert, row);
+        memtable.put(e, e);
+        nextSeq = Math.max(nextSeq, seq + 1);
+        if (memtable.size() >= memtableEntries) {
+            flush();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the field entries are sorted by */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the number of runs the table is stored in */
+    public synchronized int numRuns() {
+        return runs.size();
+    }
+
+    /** @return the number of entries in the memtable */
+    public synchronized int memtableSize() {
+        return memtable.size();
+    }
+
+    /** LSM tables have no pages. */
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("LSM table " + file + " has no pages");
+    }
+
+    /** LSM tables have no pages. */
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("LSM table " + file + " has no pages");
+    }
+
+    /**
+     * Inserts t under a new sequence number, holding an exclusive lock on
+     * the table.
+     *
+     * @return an empty list, since no page was dirtied
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc does not match the table");
+        }
+        Database.getBufferPool().lock(tid, lockId, Permissions.READ_WRITE);
+        synchronized (Database.getLogFile()) {
+            synchronized (this) {
+                int seq = nextSeq++;
+                record(tid, new Change(true, seq, encode(t)));
+                t.setRecordId(new RecordId(lockId, seq));
+            }
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Writes a tombstone for t, holding an exclusive lock on the table.
+     *
+     * @return an empty list, since no page was dirtied
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !lockId.equals(rid.getPageId())) {
+            throw new DbException("tuple is not stored in " + file);
+        }
+        Database.getBufferPool().lock(tid, lockId, Permissions.READ_WRITE);
+        synchronized (Database.getLogFile()) {
+            synchronized (this) {
+                record(tid, new Change(false, rid.getTupleNumber(), encode(t)));
+            }
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Logs c, makes it, and remembers it for undo. The caller holds the
+     * LogFile's monitor and then the table's, the order in which
+     * {@link LogFile#logCheckpoint} takes them to checkpoint the table.
+     */
+    private void record(TransactionId tid, Change c) throws IOException {
+        Database.getLogFile().logTupleChange(tid, getId(), c.insert, c.seq, c.row);
+        applyChange(c.insert, c.seq, c.row);
+        ArrayList<Change> changes = undo.get(tid);
+        if (changes == null) {
+            changes = new ArrayList<Change>();
+            undo.put(tid, changes);
+        }
+        changes.add(c);
+    }
+
+    /**
+     * Takes back the changes of an aborted transaction newest first, by
+     * writing the entries they replaced again; this works whether or not
+     * the changes have been written out to runs since.
+     */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        ArrayList<Change> changes = undo.remove(tid);
+        if (changes == null || commit) {
+            return;
+        }
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change c = changes.get(i);
+            applyChange(!c.insert, c.seq, c.row);
+        }
+    }
+
+    /** Writes the memtable out as a run. */
+    public synchronized void checkpoint() throws IOException {
+        flush();
+    }
+
+    /**
+     * Writes the memtable out as the newest run, and starts a compaction
+     * if there are now too many runs.
+     */
+    private void flush() throws IOException {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        File f = new File(file.getPath() + ".run" + nextRun++);
+        runs.add(writeRun(f, memtable.values().iterator(), memtable.size()));
+        memtable = new TreeMap<Entry, Entry>(ORDER);
+        saveManifest();
+        maybeCompact();
+    }
+
+    /** Starts a compaction of all runs if there are too many and none is in progress. */
+    private void maybeCompact() {
+        if (runs.size() >= maxRuns && compaction == null) {
+            final List<Run> inputs = new ArrayList<Run>(runs);
+            compaction = compactor.submit(new Runnable() {
+                public void run() {
+                    compact(inputs);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the given entries, which must be in ORDER, to f.
+     *
+     * @param expected an upper bound on the number of entries, to size the
+     *   run's bloom filter
+     */
+    private Run writeRun(File f, Iterator<Entry> entries, int expected) throws IOException {
+        BloomFilter keys = new BloomFilter(expected);
+        Field min = null;
+        Field max = null;
+        int count = 0;
+        FileOutputStream fos = new FileOutputStream(f);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            while (entries.hasNext()) {
+                Entry e = entries.next();
+                out.writeInt(e.seq);
+                out.writeByte(e.live ? 1 : 0);
+                out.write(e.row);
+                if (min == null) {
+                    min = e.key;
+                }
+                max = e.key;
+                keys.add(e.key);
+                count++;
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return new Run(f, count, min, max, keys);
+    }
+
+    /**
+     * Merges the given runs, the oldest runs of the table, into one. Since
+     * no older entries remain, tombstones and the tuples they delete are
+     * dropped. Runs written out meanwhile stay newer than the merged run,
+     * and are compacted next if there are too many of them.
+     */
+    private void compact(List<Run> inputs) {
+        File f;
+        synchronized (this) {
+            f = new File(file.getPath() + ".run" + nextRun++);
+        }
+        boolean done = false;
+        try {
+            int expected = 0;
+            ArrayList<Source> sources = new ArrayList<Source>();
+            for (int i = 0; i < inputs.size(); i++) {
+                expected += inputs.get(i).count;
+                sources.add(new RunReader(inputs.get(i).file, 0, inputs.get(i).count, null).as(i));
+            }
+            final Merge merge = new Merge(sources);
+            Run merged;
+            try {
+                merged = writeRun(f, new Iterator<Entry>() {
+                    private Entry next = advance();
+
+                    private Entry advance() {
+                        try {
+                            for (Entry e = merge.next(); e != null; e = merge.next()) {
+                                if (e.live) {
+                                    return e;
+                                }
+                            }
+                            return null;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    public Entry next() {
+                        Entry e = next;
+                        next = advance();
+                        return e;
+                    }
+                }, expected);
+            } finally {
+                merge.close();
+            }
+            synchronized (this) {
+                ArrayList<Run> now = new ArrayList<Run>();
+                now.add(merged);
+                now.addAll(runs.subList(inputs.size(), runs.size()));
+                runs = now;
+                saveManifest();
+                done = true;
+            }
+            for (Run r : inputs) {
+                // scans that opened the run keep reading it
+                r.file.delete();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        } finally {
+            if (!done) {
+                f.delete();
+            }
+            synchronized (this) {
+                compaction = null;
+                if (done) {
+                    maybeCompact();
+                }
+            }
+        }
+    }
+
+    /** Waits until no compaction is in progress. */
+    void awaitCompaction() throws InterruptedException, ExecutionException {
+        while (true) {
+            Future<?> c;
+            synchronized (this) {
+                c = compaction;
+            }
+            if (c == null) {
+                return;
+            }
+            c.get();
+        }
+    }
+
+    /** A sorted stream of entries taking part in a merge. */
+    private static abstract class Source {
+        /** Higher is newer. */
+        int age;
+        Entry current;
+
+        /** Moves current to the next entry, or to null at the end. */
+        abstract void advance() throws IOException;
+
+        void close() {
+        }
+    }
+
+    /** Reads entries from a range of a run, stopping after the last key not above hi. */
+    private class RunReader extends Source {
+        private final FileChannel channel;
+        private final DataInputStream in;
+        private int remaining;
+        private final Field hi;
+
+        RunReader(File f, int start, int count, Field hi) throws IOException {
+            this.channel = new RandomAccessFile(f, "r").getChannel();
+            channel.position((long) start * entrySize);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            this.remaining = count - start;
+            this.hi = hi;
+        }
+
+        /** Makes this reader a merge source of the given age, positioned on its first entry. */
+        RunReader as(int age) throws IOException {
+            this.age = age;
+            advance();
+            return this;
+        }
+
+        /** @return the next entry, or null at the end of the range */
+        Entry next() throws IOException {
+            if (remaining <= 0) {
+                return null;
+            }
+            remaining--;
+            int seq = in.readInt();
+            boolean live = in.readByte() != 0;
+            byte[] row = new byte[entrySize - ENTRY_HEADER];
+            in.readFully(row);
+            Entry e = entry(seq, live, row);
+            if (hi != null && compareKeys(e.key, hi) > 0) {
+                remaining = 0;
+                return null;
+            }
+            return e;
+        }
+
+        void advance() throws IOException {
+            current = next();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+        }
+    }
+
+    /** Serves a snapshot of entries of the memtable. */
+    private static class ListSource extends Source {
+        private final Iterator<Entry> it;
+
+        ListSource(List<Entry> entries, int age) {
+            this.it = entries.iterator();
+            this.age = age;
+            advance();
+        }
+
+        void advance() {
+            current = it.hasNext() ? it.next() : null;
+        }
+    }
+
+    /**
+     * Merges sources in ORDER; of the entries with the same key and sequence
+     * number it returns only the newest.
+     */
+    private static class Merge {
+        private final List<Source> sources;
+        private final PriorityQueue<Source> heads = new PriorityQueue<Source>(4, new Comparator<Source>() {
+            public int compare(Source a, Source b) {
+                int c = ORDER.compare(a.current, b.current);
+                return c != 0 ? c : Integer.compare(b.age, a.age);
+            }
+        });
+
+        Merge(List<Source> sources) {
+            this.sources = sources;
+            for (Source s : sources) {
+                if (s.current != null) {
+                    heads.add(s);
+                }
+            }
+        }
+
+        /** @return the next entry, or null when all sources are exhausted */
+        Entry next() throws IOException {
+            Source s = heads.poll();
+            if (s == null) {
+                return null;
+            }
+            Entry e = s.current;
+            step(s);
+            while (!heads.isEmpty() && ORDER.compare(heads.peek().current, e) == 0) {
+                step(heads.poll());
+            }
+            return e;
+        }
+
+        private void step(Source s) throws IOException {
+            s.advance();
+            if (s.current != null) {
+                heads.add(s);
+            }
+        }
+
+        void close() {
+            for (Source s : sources) {
+                s.close();
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator that merges the memtable and the runs. Predicates
+     * on the key field bound the keys read: runs whose keys all lie outside
+     * the bounds, or that cannot hold the key an equality predicate asks
+     * for according to their bloom filter, are skipped, and the others are
+     * read only from the first key within the bounds to the last. Tuples
+     * that are read are returned whether they satisfy the predicates or
+     * not.
+     *
+     * @param tid the transaction reading the table
+     * @param predicates predicates over the fields of this table's tuples
+     */
+    public DbFileIterator iterator(final TransactionId tid, List<Predicate> predicates) {
+        Field lo = null;
+        Field hi = null;
+        Field eq = null;
+        for (Predicate p : predicates) {
+            Field v = p.getOperand();
+            if (p.getField() != keyField || v.getType() != td.getFieldType(keyField)) {
+                continue;
+            }
+            switch (p.getOp()) {
+            case EQUALS:
+                eq = v;
+                lo = max(lo, v);
+                hi = min(hi, v);
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                lo = max(lo, v);
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                hi = min(hi, v);
+                break;
+            default:
+                break;
+            }
+        }
+        final Field low = lo;
+        final Field high = hi;
+        final Field equal = eq;
+        return new AbstractDbFileIterator() {
+            private Merge merge = null;
+
+            public void open() throws DbException, TransactionAbortedException {
+                Database.getBufferPool().lock(tid, lockId, Permissions.READ_ONLY);
+                close();
+                try {
+                    merge = new Merge(sources(low, high, equal));
+                } catch (IOException e) {
+                    throw new DbException("can't read LSM table " + file + ": " + e.getMessage());
+                }
+            }
+
+            protected Tuple readNext() throws DbException {
+                if (merge == null) {
+                    return null;
+                }
+                try {
+                    for (Entry e = merge.next(); e != null; e = merge.next()) {
+                        if (e.live) {
+                            return toTuple(e);
+                        }
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new DbException("can't read LSM table " + file + ": " + e.getMessage());
+                }
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            public void close() {
+                super.close();
+                if (merge != null) {
+                    merge.close();
+                    merge = null;
+                }
+            }
+        };
+    }
+
+    private static Field max(Field a, Field b) {
+        return a == null || compareKeys(b, a) > 0 ? b : a;
+    }
+
+    private static Field min(Field a, Field b) {
+        return a == null || compareKeys(b, a) < 0 ? b : a;
+    }
+
+    /**
+     * Opens the sources a scan with the given key bounds merges: the runs
+     * that may hold such keys, positioned on the first of them, and a copy
+     * of the matching part of the memtable, so that the scanning
+     * transaction may change the table while it scans.
+     */
+    private synchronized List<Source> sources(Field lo, Field hi, Field eq) throws IOException {
+        ArrayList<Source> sources = new ArrayList<Source>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run r = runs.get(i);
+                if (r.count == 0 || (lo != null && compareKeys(r.max, lo) < 0)
+                        || (hi != null && compareKeys(r.min, hi) > 0)
+                        || (eq != null && !r.keys.mightContain(eq))) {
+                    continue;
+                }
+                int start = lo == null ? 0 : firstAtLeast(r, lo);
+                sources.add(new RunReader(r.file, start, r.count, hi).as(i));
+            }
+        } catch (IOException e) {
+            for (Source s : sources) {
+                s.close();
+            }
+            throw e;
+        }
+        SortedMap<Entry, Entry> part = memtable;
+        if (lo != null && hi != null) {
+            part = memtable.subMap(new Entry(lo, Integer.MIN_VALUE, false, null),
+                    new Entry(hi, Integer.MAX_VALUE, false, null));
+        } else if (lo != null) {
+            part = memtable.tailMap(new Entry(lo, Integer.MIN_VALUE, false, null));
+        } else if (hi != null) {
+            part = memtable.headMap(new Entry(hi, Integer.MAX_VALUE, false, null));
+        }
+        sources.add(new ListSource(new ArrayList<Entry>(part.values()), runs.size()));
+        return sources;
+    }
+
+    /** @return the position of the first entry of r whose key is at least key, by binary search */
+    private int firstAtLeast(Run r, Field key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(r.file, "r");
+        try {
+            byte[] row = new byte[entrySize - ENTRY_HEADER];
+            int lo = 0;
+            int hi = r.count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                raf.seek((long) mid * entrySize + ENTRY_HEADER);
+                raf.readFully(row);
+                if (compareKeys(parseField(row, keyField), key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Waits for a compaction in progress and writes the memtable out. */
+    public void close() throws IOException {
+        try {
+            awaitCompaction();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("compaction of " + file + " failed", e);
+        }
+        checkpoint();
+    }
+}
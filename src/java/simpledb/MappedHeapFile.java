@@ -0,0 +1,20 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read through a memory
+ * mapping of the backing file (see {@link MappedPageChannel}). It is meant
+ * for read-mostly tables that are loaded once (e.g. with HeapFileEncoder) and
+ * then only queried; inserts and deletes still work and the mapping follows
+ * the file as it grows.
+ * <p>
+ * Select it for a table by adding <code>mmap</code> after the column list in
+ * the catalog file, e.g. <code>papers (id int, title string) mmap</code>.
+ */
+public class MappedHeapFile extends HeapFile {
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td, new MappedPageChannel(f));
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * MappedPageChannel is a PageChannel that serves reads from memory-mapped
+ * segments of the backing file instead of issuing a read system call per
+ * page. Each segment covers {@link #SEGMENT_PAGES} pages and is mapped the
+ * first time one of its pages is read; a page read is then a copy out of the
+ * mapping (and no I/O at all once the OS has the file cached).
+ * <p>
+ * Writes still go through the positional FileChannel write path. The
+ * mapping is shared with the OS page cache, so overwritten pages are visible
+ * through it immediately; when the file grows past the end of a mapped
+ * segment the segment is remapped on the next read that needs the new
+ * pages.
+ * <p>
+ * Touching a mapping past the end of a file that was truncated under it
+ * crashes the JVM rather than throwing, so page copies hold a read lock
+ * that truncate (and close) take exclusively before dropping the mappings.
+ *
+ * @Threadsafe
+ */
+public class MappedPageChannel extends PageChannel {
+
+    /** Number of pages covered by one mapped segment. */
+    public static final int SEGMENT_PAGES = 16384;
+
+    private final HashMap<Integer, MappedByteBuffer> segments = new HashMap<Integer, MappedByteBuffer>();
+    /** Held shared while copying out of a mapping, exclusively while dropping them. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public MappedPageChannel(File f) {
+        super(f);
+    }
+
+    /**
+     * Returns a mapping of segment segNo that covers at least the byte at
+     * offset end - 1 within the segment, or null if the file does not
+     * extend that far.
+     */
+    private synchronized MappedByteBuffer segment(int segNo, long segBytes, int end) throws IOException {
+        MappedByteBuffer seg = segments.get(segNo);
+        if (seg != null && seg.capacity() >= end) {
+            return seg;
+        }
+        long start = segNo * segBytes;
+        // size() first, so reading a missing file does not create it
+        long len = Math.min(segBytes, size() - start);
+        if (len < end) {
+            return null;
+        }
+        seg = channel().map(FileChannel.MapMode.READ_ONLY, start, len);
+        segments.put(segNo, seg);
+        return seg;
+    }
+
+    @Override
+    public void readPage(int pgNo, byte[] buf) throws IOException {
+        long segBytes = (long) SEGMENT_PAGES * buf.length;
+        int segNo = pgNo / SEGMENT_PAGES;
+        int offset = (pgNo % SEGMENT_PAGES) * buf.length;
+        lock.readLock().lock();
+        try {
+            MappedByteBuffer seg = segment(segNo, segBytes, offset + buf.length);
+            if (seg == null) {
+                // page (partly) past the end of the file -- zero fill as usual
+                super.readPage(pgNo, buf);
+                return;
+            }
+            ByteBuffer view = seg.duplicate();
+            view.position(offset);
+            view.get(buf, 0, buf.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the mapped segments before truncating, once no read is copying
+     * out of them, so no read goes through a mapping of bytes the file no
+     * longer has.
+     */
+    @Override
+    public void truncate(long size) throws IOException {
+        lock.writeLock().lock();
+        try {
+            dropSegments();
+            super.truncate(size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            dropSegments();
+            super.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private synchronized void dropSegments() {
+        segments.clear();
+    }
+}
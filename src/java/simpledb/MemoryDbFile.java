@@ -0,0 +1,348 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * MemoryDbFile keeps a small, frequently read table entirely in memory.
+ * Its tuples live in one array per column (an int[] for int columns, a
+ * String[] for string columns) indexed by slot, so a scan builds tuples
+ * straight from the arrays: there are no pages to decode, nothing goes
+ * through the BufferPool's cache, and a commit writes nothing but its log
+ * records.
+ * <p>
+ * Transactions lock the whole table through the BufferPool's lock manager
+ * (see {@link BufferPool#lock}), shared to read and exclusive to write, so
+ * the usual two-phase locking and deadlock detection apply. Each change is
+ * logged as a TUPLE record in the {@link LogFile} before it is made, and
+ * the table remembers how to undo the changes of every live transaction,
+ * which it does when the BufferPool completes the transaction with an
+ * abort. For durability the whole table is written to its file when the
+ * log is checkpointed and when the table is closed; after a crash, the
+ * file is loaded and {@link LogFile#recover} redoes the changes logged
+ * since the checkpoint and rolls back those of uncommitted transactions.
+ * A change holds the LogFile's monitor and then the table's, the order
+ * in which {@link LogFile#logCheckpoint} takes them to checkpoint the
+ * table.
+ * <p>
+ * Select it for a table by adding <code>memory</code> after the column list
+ * in the catalog file, e.g. <code>venues (id int, name string) memory</code>.
+ * Tables kept in memory cannot be indexed.
+ *
+ * @Threadsafe
+ */
+public class MemoryDbFile implements LogicalDbFile {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final File file;
+    private final TupleDesc td;
+    /** The page id whose lock stands for the whole table. */
+    private final HeapPageId lockId;
+    /** One int[] or String[] per column, indexed by slot. */
+    private final Object[] columns;
+    /** Set bit i means slot i holds a tuple. */
+    private final BitSet used = new BitSet();
+    private int capacity = 0;
+    /** The changes of each live transaction, oldest first. */
+    private final HashMap<TransactionId, ArrayList<Change>> undo = new HashMap<TransactionId, ArrayList<Change>>();
+    /** True if the table changed since it was last written to its file. */
+    private boolean changed = false;
+
+    /** A change to a slot, as logged and as undone. */
+    private static class Change {
+        final boolean insert;
+        final int slot;
+        final byte[] row;
+
+        Change(boolean insert, int slot, byte[] row) {
+            this.insert = insert;
+            this.slot = slot;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Opens the table stored in f, or an empty table if f does not exist
+     * yet.
+     *
+     * @param f the file the table is written to on checkpoints
+     * @param td the schema of the table
+     */
+    public MemoryDbFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.lockId = new HeapPageId(getId(), 0);
+        this.columns = new Object[td.numFields()];
+        grow(INITIAL_CAPACITY);
+        try {
+            load();
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException("can't read memory table " + f, e);
+        }
+    }
+
+    /** Reads the tuples written by {@link #save}: a count, then each slot and tuple. */
+    private void load() throws IOException, ParseException {
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int slot = in.readInt();
+                setRow(slot, in);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void grow(int min) {
+        int n = Math.max(min, 2 * capacity);
+        for (int j = 0; j < columns.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                columns[j] = columns[j] == null ? new int[n] : Arrays.copyOf((int[]) columns[j], n);
+            } else {
+                columns[j] = columns[j] == null ? new String[n] : Arrays.copyOf((String[]) columns[j], n);
+            }
+        }
+        capacity = n;
+    }
+
+    /** Stores the tuple read from in at slot. */
+    private void setRow(int slot, DataInputStream in) throws ParseException {
+        if (slot >= capacity) {
+            grow(slot + 1);
+        }
+        for (int j = 0; j < columns.length; j++) {
+            Field f = td.getFieldType(j).parse(in);
+            if (f instanceof IntField) {
+                ((int[]) columns[j])[slot] = ((IntField) f).getValue();
+            } else {
+                ((String[]) columns[j])[slot] = ((StringField) f).getValue();
+            }
+        }
+        used.set(slot);
+    }
+
+    private Tuple getRow(int slot) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < columns.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(((int[]) columns[j])[slot]));
+            } else {
+                t.setField(j, new StringField(((String[]) columns[j])[slot], Type.STRING_LEN));
+            }
+        }
+        t.setRecordId(new RecordId(lockId, slot));
+        return t;
+    }
+
+    /**
+     * @return the tuple in slot in the format of TUPLE log records and of
+     *   the table's file: its fields serialized one after another
+     */
+    synchronized byte[] encodeRow(int slot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Iterator<Field> it = getRow(slot).fields(); it.hasNext(); ) {
+                it.next().serialize(out);
+            }
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Puts the given tuple into slot (insert) or empties slot (delete). */
+    public synchronized void applyChange(boolean insert, int slot, byte[] row) throws IOException {
+        if (insert) {
+            try {
+                setRow(slot, new DataInputStream(new ByteArrayInputStream(row)));
+            } catch (ParseException e) {
+                throw new IOException("corrupt tuple for slot " + slot + " of " + file, e);
+            }
+        } else {
+            used.clear(slot);
+        }
+        changed = true;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of tuples in the table */
+    public synchronized int numTuples() {
+        return used.cardinality();
+    }
+
+    /** Memory tables have no pages. */
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("memory table " + file + " has no pages");
+    }
+
+    /** Memory tables have no pages. */
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("memory table " + file + " has no pages");
+    }
+
+    /**
+     * Inserts t into a free slot, holding an exclusive lock on the table.
+     *
+     * @return an empty list, since no page was dirtied
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc does not match the table");
+        }
+        Database.getBufferPool().lock(tid, lockId, Permissions.READ_WRITE);
+        synchronized (Database.getLogFile()) {
+            synchronized (this) {
+                int slot = used.nextClearBit(0);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(td.getSize());
+                DataOutputStream out = new DataOutputStream(bytes);
+                for (int j = 0; j < columns.length; j++) {
+                    t.getField(j).serialize(out);
+                }
+                record(tid, new Change(true, slot, bytes.toByteArray()));
+                t.setRecordId(new RecordId(lockId, slot));
+            }
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Deletes t from its slot, holding an exclusive lock on the table.
+     *
+     * @return an empty list, since no page was dirtied
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !lockId.equals(rid.getPageId())) {
+            throw new DbException("tuple is not stored in " + file);
+        }
+        Database.getBufferPool().lock(tid, lockId, Permissions.READ_WRITE);
+        synchronized (Database.getLogFile()) {
+            synchronized (this) {
+                int slot = rid.getTupleNumber();
+                if (!used.get(slot)) {
+                    throw new DbException("slot " + slot + " of " + file + " is already empty");
+                }
+                record(tid, new Change(false, slot, encodeRow(slot)));
+            }
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Logs c, makes it, and remembers it for undo. The caller holds the
+     * LogFile's monitor and then the table's.
+     */
+    private void record(TransactionId tid, Change c) throws IOException {
+        Database.getLogFile().logTupleChange(tid, getId(), c.insert, c.slot, c.row);
+        applyChange(c.insert, c.slot, c.row);
+        ArrayList<Change> changes = undo.get(tid);
+        if (changes == null) {
+            changes = new ArrayList<Change>();
+            undo.put(tid, changes);
+        }
+        changes.add(c);
+    }
+
+    /** Takes back the changes of an aborted transaction newest first. */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        ArrayList<Change> changes = undo.remove(tid);
+        if (changes == null || commit) {
+            return;
+        }
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change c = changes.get(i);
+            applyChange(!c.insert, c.slot, c.row);
+        }
+    }
+
+    /** Writes the table to its file if it changed since it was last written. */
+    public synchronized void checkpoint() throws IOException {
+        if (changed) {
+            save();
+            changed = false;
+        }
+    }
+
+    /** Writes every tuple with its slot to a new file that then replaces the table's file. */
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(used.cardinality());
+            for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+                out.writeInt(slot);
+                out.write(encodeRow(slot));
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't replace " + file);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            private int slot = -1;
+
+            public void open() throws DbException, TransactionAbortedException {
+                Database.getBufferPool().lock(tid, lockId, Permissions.READ_ONLY);
+                slot = 0;
+            }
+
+            protected Tuple readNext() {
+                if (slot < 0) {
+                    return null;
+                }
+                synchronized (MemoryDbFile.this) {
+                    slot = used.nextSetBit(slot);
+                    if (slot < 0) {
+                        return null;
+                    }
+                    return getRow(slot++);
+                }
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                slot = -1;
+            }
+        };
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Writes the table to its file. */
+    public void close() throws IOException {
+        checkpoint();
+    }
+}
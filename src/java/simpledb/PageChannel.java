@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * PageChannel is the page I/O layer underneath HeapFile. It keeps a single
+ * long-lived FileChannel open on the backing file and reads and writes whole
+ * pages with positional I/O, so concurrent readers never share (or fight
+ * over) a file pointer and a page miss costs one pread instead of an
+ * open/seek/read/close sequence.
+ * <p>
+ * The channel is opened lazily and may be closed at any time (e.g. by
+ * {@link Catalog#clear}). A read or write that is cut off by a concurrent
+ * close reopens the file and starts over, so closing never fails an I/O in
+ * flight. Reading a file that does not exist yields empty pages and does
+ * not create it; only writing does.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    protected final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * @param f the file backing this channel; it is created on first write
+     *     if it does not exist yet.
+     */
+    public PageChannel(File f) {
+        this.file = f;
+    }
+
+    /** @return the file this channel reads and writes. */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the open channel, (re)opening the file if needed. Creates
+     * the file if it does not exist yet.
+     */
+    protected FileChannel channel() throws IOException {
+        return channel(true);
+    }
+
+    /**
+     * Returns the open channel, (re)opening the file if needed, or null if
+     * the file does not exist and create is false.
+     */
+    private synchronized FileChannel channel(boolean create) throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            if (!create && !file.exists()) {
+                return null;
+            }
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Lets an I/O cut off by a concurrent {@link #close} be retried, but
+     * passes on a close caused by interrupting this thread.
+     */
+    private static void retryAfter(ClosedChannelException e) throws IOException {
+        if (e instanceof ClosedByInterruptException) {
+            throw e;
+        }
+    }
+
+    /**
+     * Reads page pgNo into buf. Bytes past the end of the file are left as
+     * zeroes, so reading a page that was never written yields an empty page.
+     *
+     * @param pgNo the page number to read
+     * @param buf a buffer of exactly one page
+     */
+    public void readPage(int pgNo, byte[] buf) throws IOException {
+        long pos = (long) pgNo * buf.length;
+        while (true) {
+            FileChannel ch = channel(false);
+            if (ch == null) {
+                Arrays.fill(buf, (byte) 0);
+                return;
+            }
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            try {
+                while (bb.hasRemaining()) {
+                    int n = ch.read(bb, pos + bb.position());
+                    if (n < 0) {
+                        Arrays.fill(buf, bb.position(), buf.length, (byte) 0);
+                        break;
+                    }
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    /**
+     * Writes buf as page pgNo, extending the file if necessary.
+     *
+     * @param pgNo the page number to write
+     * @param buf the serialized page
+     */
+    public void writePage(int pgNo, byte[] buf) throws IOException {
+        long pos = (long) pgNo * buf.length;
+        while (true) {
+            FileChannel ch = channel();
+            // rewriting the whole page after a close is harmless
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            try {
+                while (bb.hasRemaining()) {
+                    ch.write(bb, pos + bb.position());
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    /**
+     * Grows the backing file to at least the given size without writing
+     * the new bytes, which read as zeroes until pages are written there.
+     *
+     * @param size the length of the file in bytes
+     */
+    public synchronized void preallocate(long size) throws IOException {
+        channel();
+        if (raf.length() < size) {
+            raf.setLength(size);
+        }
+    }
+
+    /**
+     * Cuts the backing file down to the given size. Pages past the new end
+     * read as empty pages again.
+     *
+     * @param size the new length of the file in bytes
+     */
+    public void truncate(long size) throws IOException {
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                if (ch.size() > size) {
+                    ch.truncate(size);
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages of the given size the backing file
+     *   holds, counting a partial last page as a page.
+     */
+    public int pageCount(int pageSize) throws IOException {
+        return (int) ((size() + pageSize - 1) / pageSize);
+    }
+
+    /** @return the current size of the backing file in bytes. */
+    public long size() throws IOException {
+        while (true) {
+            FileChannel ch = channel(false);
+            if (ch == null) {
+                return 0;
+            }
+            try {
+                return ch.size();
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    /**
+     * Forces any written pages to the storage device. A close in between
+     * has already flushed them to the operating system, so forcing the
+     * reopened channel still covers them.
+     */
+    public void force() throws IOException {
+        while (true) {
+            FileChannel ch = channel(false);
+            if (ch == null) {
+                return;
+            }
+            try {
+                ch.force(false);
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying channel. Safe to call more than once and while
+     * other threads read or write; they reopen the file and retry.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+        }
+        raf = null;
+        channel = null;
+    }
+}
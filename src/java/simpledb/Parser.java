@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -463,6 +465,32 @@ public class Parser {
         }
     }
 
+    /**
+     * Handles "VACUUM tablename;", which compacts a heap file with
+     * {@link HeapFile#vacuum}. The compaction runs in transactions of its
+     * own, so it is refused inside a user transaction.
+     */
+    public void handleVacuumStatement(String tableName)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "Can't vacuum until current transaction has been committed or rolledback.");
+        DbFile f;
+        try {
+            f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(tableName));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + tableName);
+        }
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("Table " + tableName
+                    + " is not stored in a heap file");
+        int freed = ((HeapFile) f).vacuum();
+        System.out.println("Vacuumed " + tableName + ": released " + freed
+                + " pages, " + ((HeapFile) f).numPages() + " pages left.");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -501,9 +529,22 @@ public class Parser {
         }
     }
 
+    /** A VACUUM command, which is not SQL the ZQL parser knows. */
+    private static final Pattern VACUUM = Pattern.compile("(?is)vacuum\\s+(\\S+?)\\s*;?");
+
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; ) {
+                statement.write(buf, 0, n);
+            }
+            Matcher vacuum = VACUUM.matcher(statement.toString("UTF-8").trim());
+            if (vacuum.matches()) {
+                handleVacuum(vacuum.group(1));
+                return;
+            }
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(statement.toByteArray()));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -578,10 +619,29 @@ public class Parser {
         }
     }
 
+    /**
+     * Runs a VACUUM command, reporting errors the way
+     * processNextStatement does for SQL statements.
+     */
+    private void handleVacuum(String tableName) {
+        try {
+            handleVacuumStatement(tableName);
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid VACUUM command: \n \t" + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            System.out.println("Vacuum of " + tableName
+                    + " aborted by a concurrent transaction; try again.");
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -595,7 +655,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-policy clock|2q]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -605,6 +665,19 @@ public class Parser {
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
+        // the replacement policy must be chosen before any page is read
+        for (int i = 1; i < argv.length - 1; i++) {
+            if (argv[i].equals("-policy")) {
+                try {
+                    BufferPool.setReplacementPolicy(argv[i + 1]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage() + "\n" + usage);
+                    System.exit(0);
+                }
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            }
+        }
+
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
@@ -625,6 +698,9 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-policy")) {
+                    // applied above
+                    i++;
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * PartitionedDbFile stores a table as a number of HeapFiles, its
+ * partitions, and routes every tuple to the partition its partitioning
+ * field selects. With range partitioning partition i holds the values from
+ * bound i-1 (inclusive) to bound i (exclusive), the first and last
+ * partitions being open-ended; with hash partitioning a tuple goes to the
+ * partition its field's hash code selects. Inserts into different
+ * partitions touch different files, and a scan with predicates on the
+ * partitioning field (see {@link #iterator(TransactionId, List)}) reads
+ * only the partitions that can hold matching tuples.
+ * <p>
+ * The partitions' pages carry the partitions' own ids, so the catalog
+ * resolves them to the partition files (see {@link Catalog#addTable}); the
+ * PartitionedDbFile itself has no pages. Indexes store page numbers within
+ * a single file and are therefore not supported on partitioned tables.
+ * <p>
+ * Declare a partitioned table in the catalog file by adding a partitioning
+ * clause after the column list (and storage keyword, if any), e.g.
+ * <code>papers (id int, venueid int) partition by range(venueid) (10, 20)</code>
+ * or <code>papers (id int, venueid int) partition by hash(venueid) 4</code>.
+ *
+ * @see Catalog#loadSchema
+ */
+public class PartitionedDbFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int field;
+    /** Lower bounds of partitions 1..n-1 in ascending order, or null for hash partitioning. */
+    private final int[] bounds;
+    private final HeapFile[] partitions;
+
+    private PartitionedDbFile(File f, TupleDesc td, int field, int[] bounds, HeapFile[] partitions) {
+        this.file = f;
+        this.td = td;
+        this.field = field;
+        this.bounds = bounds;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Creates a range-partitioned table.
+     *
+     * @param f the file whose name identifies the table; it holds no data
+     * @param td the schema of the table
+     * @param field the partitioning field, which must be an int field
+     * @param bounds the lower bounds of the second to last partitions, in
+     *   ascending order
+     * @param partitions bounds.length + 1 files holding the partitions
+     */
+    public static PartitionedDbFile byRange(File f, TupleDesc td, int field, int[] bounds,
+            HeapFile[] partitions) {
+        if (td.getFieldType(field) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("range partitioning needs an int field");
+        }
+        if (partitions.length != bounds.length + 1) {
+            throw new IllegalArgumentException(bounds.length + " bounds need "
+                    + (bounds.length + 1) + " partitions, not " + partitions.length);
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("partition bounds must be ascending");
+            }
+        }
+        return new PartitionedDbFile(f, td, field, bounds.clone(), partitions.clone());
+    }
+
+    /**
+     * Creates a hash-partitioned table.
+     *
+     * @param f the file whose name identifies the table; it holds no data
+     * @param td the schema of the table
+     * @param field the partitioning field
+     * @param partitions the files holding the partitions
+     */
+    public static PartitionedDbFile byHash(File f, TupleDesc td, int field, HeapFile[] partitions) {
+        if (partitions.length == 0) {
+            throw new IllegalArgumentException("a table needs at least one partition");
+        }
+        return new PartitionedDbFile(f, td, field, null, partitions.clone());
+    }
+
+    /** @return the partition files, in partition order */
+    public List<HeapFile> getPartitions() {
+        return Collections.unmodifiableList(Arrays.asList(partitions));
+    }
+
+    /** @return the index of the partitioning field */
+    public int getPartitionField() {
+        return field;
+    }
+
+    /** @return the number of the partition a tuple with the given value of the partitioning field belongs to */
+    public int partitionOf(Field value) {
+        if (bounds == null) {
+            return Math.floorMod(value.hashCode(), partitions.length);
+        }
+        int v = ((IntField) value).getValue();
+        int i = Arrays.binarySearch(bounds, v);
+        // a value equal to bound i opens partition i + 1
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * Returns the partitions that may hold a tuple satisfying all of the
+     * given predicates. Predicates on other fields, and on the partitioning
+     * field of a hash-partitioned table with operators other than equality,
+     * rule out no partition.
+     */
+    public BitSet partitionsFor(List<Predicate> predicates) {
+        BitSet live = new BitSet();
+        live.set(0, partitions.length);
+        for (Predicate p : predicates) {
+            if (p.getField() != field || p.getOperand().getType() != td.getFieldType(field)) {
+                continue;
+            }
+            if (bounds == null) {
+                if (p.getOp() == Predicate.Op.EQUALS) {
+                    live.and(single(partitionOf(p.getOperand())));
+                }
+                continue;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+                if (!mayMatch(i, p.getOp(), v)) {
+                    live.clear(i);
+                }
+            }
+        }
+        return live;
+    }
+
+    private static BitSet single(int i) {
+        BitSet b = new BitSet();
+        b.set(i);
+        return b;
+    }
+
+    /** @return true if partition i of a range-partitioned table may hold a value v' with v' op v */
+    private boolean mayMatch(int i, Predicate.Op op, int v) {
+        // the values of partition i lie in [min, max]
+        int min = i == 0 ? Integer.MIN_VALUE : bounds[i - 1];
+        int max = i == bounds.length ? Integer.MAX_VALUE : bounds[i] - 1;
+        switch (op) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /** @return the partition with the given id, or null if none has it */
+    private HeapFile partitionWithId(int id) {
+        for (HeapFile p : partitions) {
+            if (p.getId() == id) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** @return the total number of pages of all partitions */
+    public int numPages() {
+        int n = 0;
+        for (HeapFile p : partitions) {
+            n += p.numPages();
+        }
+        return n;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapFile p = partitionWithId(pid.getTableId());
+        if (p == null) {
+            throw new IllegalArgumentException("page " + pid + " is not in a partition of " + file);
+        }
+        return p.readPage(pid);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        HeapFile p = partitionWithId(page.getId().getTableId());
+        if (p == null) {
+            throw new IllegalArgumentException("page " + page.getId() + " is not in a partition of " + file);
+        }
+        p.writePage(page);
+    }
+
+    /** Inserts t into the partition its partitioning field selects. */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc does not match the table");
+        }
+        return partitions[partitionOf(t.getField(field))].insertTuple(tid, t);
+    }
+
+    /** Deletes t from the partition its record id points to. */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        HeapFile p = rid == null ? null : partitionWithId(rid.getPageId().getTableId());
+        if (p == null) {
+            throw new DbException("tuple is not stored in " + file);
+        }
+        return p.deleteTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the partitions that may hold tuples
+     * satisfying all of the given predicates (see {@link #partitionsFor});
+     * within each, the pages that cannot hold such tuples are skipped as
+     * well (see {@link HeapFile#iterator(TransactionId, List)}). Tuples
+     * that are read are returned whether they satisfy the predicates or
+     * not.
+     *
+     * @param tid the transaction reading the table
+     * @param predicates predicates over the fields of this table's tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        ArrayList<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        BitSet live = partitionsFor(predicates);
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            its.add(predicates.isEmpty() ? partitions[i].iterator(tid)
+                    : partitions[i].iterator(tid, new ArrayList<Predicate>(predicates)));
+        }
+        return new ConcatIterator(its);
+    }
+
+    /** Iterates over the tuples of a number of iterators, one after another. */
+    private static class ConcatIterator extends AbstractDbFileIterator {
+
+        private final List<DbFileIterator> its;
+        private int current = -1;
+
+        ConcatIterator(List<DbFileIterator> its) {
+            this.its = its;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            current = 0;
+            if (!its.isEmpty()) {
+                its.get(0).open();
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (current < 0) {
+                return null;
+            }
+            while (current < its.size()) {
+                if (its.get(current).hasNext()) {
+                    return its.get(current).next();
+                }
+                its.get(current).close();
+                current++;
+                if (current < its.size()) {
+                    its.get(current).open();
+                }
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (current >= 0 && current < its.size()) {
+                its.get(current).close();
+            }
+            current = -1;
+        }
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Closes the partition files. */
+    public void close() throws IOException {
+        for (HeapFile p : partitions) {
+            p.close();
+        }
+    }
+}
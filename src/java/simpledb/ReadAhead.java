@@ -0,0 +1,76 @@
+package simpledb;
+
+/**
+ * ReadAhead detects sequential page access by a single scan and asks the
+ * buffer pool to prefetch the pages the scan is about to need. The window
+ * starts at one page and doubles with every further sequential access up to
+ * {@link BufferPool#getReadAheadWindow}; any non-sequential access resets
+ * it. Pages that have already been requested are not requested again.
+ * A scan that reads through a {@link BufferRing} prefetches into the ring,
+ * with the window limited to half the ring so that pages read ahead are
+ * not pushed out before the scan reaches them.
+ * <p>
+ * One ReadAhead belongs to one iterator and is not thread safe.
+ */
+class ReadAhead {
+
+    private final int tableId;
+    private final TransactionId tid;
+    private final BufferRing ring;
+    private int lastPage = -1;
+    private int window = 0;
+    private int requestedUpTo = -1;
+
+    /**
+     * @param tableId the table whose pages are being scanned
+     */
+    ReadAhead(int tableId) {
+        this(tableId, null, null);
+    }
+
+    /**
+     * @param tableId the table whose pages are being scanned
+     * @param tid the transaction scanning
+     * @param ring the scan's ring, or null to prefetch into the pool
+     */
+    ReadAhead(int tableId, TransactionId tid, BufferRing ring) {
+        this.tableId = tableId;
+        this.tid = tid;
+        this.ring = ring;
+    }
+
+    /**
+     * Records that the scan is about to read pageNo and prefetches ahead of
+     * it if the access pattern is sequential.
+     *
+     * @param pageNo the page the scan is reading now
+     * @param numPages the number of pages in the file
+     */
+    void access(int pageNo, int numPages) {
+        BufferPool pool = Database.getBufferPool();
+        int maxWindow = pool.getReadAheadWindow();
+        if (ring != null) {
+            maxWindow = Math.min(maxWindow, ring.size() / 2);
+        }
+        if (pageNo == lastPage + 1) {
+            window = Math.min(window == 0 ? 1 : window * 2, maxWindow);
+        } else {
+            window = 0;
+            requestedUpTo = pageNo;
+        }
+        lastPage = pageNo;
+
+        int target = Math.min(pageNo + window, numPages - 1);
+        for (int p = Math.max(requestedUpTo, pageNo) + 1; p <= target; p++) {
+            pool.prefetchPage(tid, new HeapPageId(tableId, p), ring);
+        }
+        requestedUpTo = Math.max(requestedUpTo, target);
+    }
+
+    /** Forgets the access history, e.g. when the scan is rewound. */
+    void reset() {
+        lastPage = -1;
+        window = 0;
+        requestedUpTo = -1;
+    }
+}
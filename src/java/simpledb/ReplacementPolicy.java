@@ -0,0 +1,37 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page a BufferPool evicts when it needs
+ * room. The pool tells the policy about every page it reads in, every hit,
+ * and every page it drops for other reasons, and asks it for victims.
+ * <p>
+ * {@link #touch} is called on every hit without the pool's lock, so it
+ * must be safe to call concurrently with any method; the pool calls the
+ * other methods while holding its lock.
+ *
+ * @see BufferPool#setReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /** Records a hit on pid; does nothing if pid is not resident. */
+    public void touch(PageId pid);
+
+    /**
+     * Starts tracking a page that was just read into the pool.
+     *
+     * @return false if the policy has no room for the page, in which case
+     *   it is not tracked and never chosen as a victim
+     */
+    public boolean admit(PageId pid);
+
+    /** Stops tracking pid, if it is tracked. */
+    public void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict among those the given test accepts and stops
+     * tracking it.
+     *
+     * @return the evicted page, or null if the test accepts no page
+     */
+    public PageId evict(java.util.function.Predicate<PageId> evictable);
+}
@@ -2,8 +2,6 @@ package simpledb;
 
 import java.util.*;
 
-import simpledb.HeapFile.HeapFileIterator;
-
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
@@ -17,6 +15,7 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator iter;
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -74,10 +73,34 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        HeapFile file = (HeapFile) Database.getCatalog().idToFile.get(this.tableId);
+        this.predicates.clear();
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
         this.iter = file.iterator(this.tid);
     }
 
+    /**
+     * Pushes a predicate down into this scan, which must not be open yet.
+     * The scan may then skip pages of the table that cannot hold a tuple
+     * satisfying all pushed-down predicates (see {@link ZoneMap}), the
+     * partitions of a partitioned table that cannot hold one, and the runs
+     * of an {@link LsmDbFile} outside the key range asked for. Tuples on
+     * the pages it does read are returned whether they satisfy them or not,
+     * so the predicate must still be applied by a Filter above the scan.
+     *
+     * @param p a predicate over the fields of the scanned table
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (file instanceof HeapFile) {
+            this.iter = ((HeapFile) file).iterator(this.tid, predicates);
+        } else if (file instanceof PartitionedDbFile) {
+            this.iter = ((PartitionedDbFile) file).iterator(this.tid, predicates);
+        } else if (file instanceof LsmDbFile) {
+            this.iter = ((LsmDbFile) file).iterator(this.tid, predicates);
+        }
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
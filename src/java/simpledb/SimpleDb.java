@@ -7,6 +7,11 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // a trailing -compress writes a compressed heap file
+            boolean compress = args[args.length - 1].equals("-compress");
+            if (compress) {
+                args = java.util.Arrays.copyOf(args, args.length - 1);
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -44,7 +49,7 @@ public class SimpleDb {
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,compress);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +72,18 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("load")) {
+            if (args.length < 4 || args.length > 5) {
+                System.err.println("Usage: load <catalog file> <table name> <input file> [field separator]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            char fieldSeparator = args.length == 5 ? args[4].charAt(0) : ',';
+            long start = System.currentTimeMillis();
+            HeapFile table = BulkLoader.load(args[2], new File(args[3]), fieldSeparator);
+            System.out.println("Loaded " + table.numPages() + " pages into " + args[2] + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,33 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages use the variable-length
+ * {@link SlottedHeapPage} format instead of fixed-size slots. Tables with
+ * short strings fit many more tuples per page this way, so scans read fewer
+ * pages. The file is otherwise managed exactly like a HeapFile.
+ * <p>
+ * Select it for a table by adding <code>slotted</code> after the column list
+ * in the catalog file, e.g. <code>authors (id int, name string) slotted</code>.
+ * Note that HeapFileEncoder writes the fixed-slot format, so a slotted table
+ * has to be filled through insertTuple.
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    /** Tuples take as many bytes as their record. */
+    @Override
+    protected int spaceNeeded(Tuple t) {
+        return SlottedHeapPage.recordSize(getTupleDesc(), t);
+    }
+}
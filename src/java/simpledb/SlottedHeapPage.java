@@ -0,0 +1,400 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage stores variable-length tuples for SlottedHeapFile. Unlike
+ * HeapPage, which gives every tuple a fixed slot of TupleDesc.getSize()
+ * bytes, a slotted page stores each string field with only as many bytes as
+ * it actually has, so short strings do not pay for Type.STRING_LEN bytes of
+ * padding.
+ * <p>
+ * The page format is:
+ * <pre>
+ *   [slot count: u16] [record area start: u16]
+ *   [slot 0: offset u16, length u16] [slot 1] ...      (grows forwards)
+ *   ... free space ...
+ *   [record] [record] ...                              (grows backwards)
+ * </pre>
+ * A slot with length 0 is empty. A record area start of 0 means the end of
+ * the page, so an all-zero page is a valid empty page. Within a record, an
+ * int field takes 4 bytes and a string field takes a u16 length followed by
+ * its bytes.
+ * <p>
+ * Slot numbers are stable: deleting a tuple only clears its slot, and when
+ * the free space is fragmented an insert first compacts the record area
+ * without renumbering slots, so RecordIds stay valid. Offsets are 16 bits,
+ * which limits this format to pages of at most 64KB.
+ * <p>
+ * The page keeps its on-disk image as the authoritative copy: inserts and
+ * deletes modify the image directly and tuples are decoded from it when the
+ * page is iterated.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes used by the slot count and record area start. */
+    static final int HEADER_SIZE = 4;
+    /** Bytes used by one slot directory entry. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] data;
+    private boolean dirty;
+    private TransactionId transactionId;
+    /** Summary of the tuples for the ZoneMap, or null until it is asked for. */
+    private int[] zone;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a page image read from disk.
+     *
+     * @param id the id of this page
+     * @param data the page image; it is copied
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length > (1 << 16)) {
+            throw new IOException("slotted pages are limited to 64KB");
+        }
+        this.data = data.clone();
+        this.dirty = false;
+        this.transactionId = null;
+        setBeforeImage();
+    }
+
+    private int readShort(int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private void writeShort(int pos, int v) {
+        data[pos] = (byte) (v >>> 8);
+        data[pos + 1] = (byte) v;
+    }
+
+    private int readInt(int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private void writeInt(int pos, int v) {
+        data[pos] = (byte) (v >>> 24);
+        data[pos + 1] = (byte) (v >>> 16);
+        data[pos + 2] = (byte) (v >>> 8);
+        data[pos + 3] = (byte) v;
+    }
+
+    /** @return the number of slot directory entries, used or not. */
+    int getNumSlots() {
+        return readShort(0);
+    }
+
+    private int areaStart() {
+        int start = readShort(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private int slotOffset(int slot) {
+        return readShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return readShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        writeShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        writeShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /** @return the number of bytes taken by live records. */
+    private int liveBytes() {
+        int n = getNumSlots();
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += slotLength(i);
+        }
+        return total;
+    }
+
+    /** @return the first empty slot, or -1 if every slot is in use. */
+    private int freeSlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotLength(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return free bytes, counting the holes left by deleted records. */
+    private int totalFreeBytes() {
+        return data.length - HEADER_SIZE - getNumSlots() * SLOT_SIZE - liveBytes();
+    }
+
+    /** @return the number of bytes t takes in the record area. */
+    static int recordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += Type.INT_TYPE.getLen();
+            } else {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /** @return the size of the smallest possible record of this table. */
+    private int minRecordSize() {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 2;
+        }
+        return Math.max(size, 1);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page image
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Moves all live records to the end of the page so that the free space
+     * between the slot directory and the record area is contiguous. Slot
+     * numbers do not change.
+     */
+    void compact() {
+        int n = getNumSlots();
+        byte[] area = new byte[data.length];
+        int end = data.length;
+        for (int i = 0; i < n; i++) {
+            int len = slotLength(i);
+            if (len == 0) {
+                continue;
+            }
+            end -= len;
+            System.arraycopy(data, slotOffset(i), area, end, len);
+            setSlot(i, end, len);
+        }
+        int dirStart = HEADER_SIZE + n * SLOT_SIZE;
+        Arrays.fill(data, dirStart, end, (byte) 0);
+        System.arraycopy(area, end, data, end, data.length - end);
+        writeShort(2, end == data.length ? 0 : end);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return recordSize(td, t) <= getFreeSpace();
+    }
+
+    /**
+     * @return the size of the largest record that still fits, after the
+     *   slot a new record would need
+     */
+    public int getFreeSpace() {
+        return totalFreeBytes() - (freeSlot() < 0 ? SLOT_SIZE : 0);
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one and compacting the record area if its free space is too
+     * fragmented.
+     *
+     * @throws DbException if the page has no room or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("Tupledesc is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("The page is full");
+        }
+        int size = recordSize(td, t);
+        int slot = freeSlot();
+        int n = getNumSlots();
+        int dirEnd = HEADER_SIZE + (slot < 0 ? n + 1 : n) * SLOT_SIZE;
+        if (areaStart() - size < dirEnd) {
+            compact();
+        }
+        if (slot < 0) {
+            slot = n;
+            writeShort(0, n + 1);
+        }
+        int offset = areaStart() - size;
+        int pos = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                writeInt(pos, ((IntField) f).getValue());
+                pos += 4;
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                writeShort(pos, len);
+                pos += 2;
+                for (int j = 0; j < len; j++) {
+                    data[pos++] = (byte) s.charAt(j);
+                }
+            }
+        }
+        setSlot(slot, offset, size);
+        writeShort(2, offset);
+        t.setRecordId(new RecordId(pid, slot));
+        if (zone != null) {
+            ZoneMap.widen(td, zone, t);
+        }
+    }
+
+    // see TuplePage.java for javadocs
+    public int[] getZone() {
+        if (zone == null) {
+            zone = ZoneMap.zoneOf(td, iterator());
+        }
+        return zone;
+    }
+
+    /**
+     * Delete the specified tuple from the page. Trailing empty slots are
+     * dropped from the slot directory.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("Tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= getNumSlots() || slotLength(slot) == 0) {
+            throw new DbException("Tuple slot is already empty");
+        }
+        int offset = slotOffset(slot);
+        Arrays.fill(data, offset, offset + slotLength(slot), (byte) 0);
+        setSlot(slot, 0, 0);
+        int n = getNumSlots();
+        while (n > 0 && slotLength(n - 1) == 0) {
+            n--;
+        }
+        writeShort(0, n);
+        if (n == 0) {
+            writeShort(2, 0);
+        }
+        zone = null;
+    }
+
+    /**
+     * @return true if the given slot holds a tuple
+     */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && slotLength(slot) != 0;
+    }
+
+    /**
+     * @return the number of smallest possible tuples that still fit on the
+     *   page; zero means the page is full.
+     */
+    public int getNumEmptySlots() {
+        int free = totalFreeBytes();
+        if (freeSlot() >= 0 && free >= minRecordSize()) {
+            return 1 + (free - minRecordSize()) / (minRecordSize() + SLOT_SIZE);
+        }
+        return free / (minRecordSize() + SLOT_SIZE);
+    }
+
+    public Tuple getTuple(int slot) {
+        return isSlotUsed(slot) ? readTuple(slot) : null;
+    }
+
+    /** Decodes the tuple stored in the given (used) slot. */
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int pos = slotOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(readInt(pos)));
+                pos += 4;
+            } else {
+                int len = readShort(pos);
+                pos += 2;
+                char[] chars = new char[len];
+                for (int j = 0; j < len; j++) {
+                    chars[j] = (char) (data[pos + j] & 0xFF);
+                }
+                pos += len;
+                t.setField(i, new StringField(new String(chars), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.transactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? transactionId : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> live = new ArrayList<Tuple>();
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotLength(i) != 0) {
+                live.add(readTuple(i));
+            }
+        }
+        return Collections.unmodifiableList(live).iterator();
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * StringDictionary maps the distinct strings of a table to small integer
+ * codes, so a {@link DictionaryHeapPage} stores a 4-byte code in place of
+ * every string. Codes are handed out in order starting at 0 and never
+ * change, so a code on a page stays valid for the life of the table.
+ * <p>
+ * The dictionary is kept in memory and persisted in a side file (see
+ * {@link #sideFile}) that new strings are appended to. Each entry is the
+ * string's length followed by its bytes, in the format StringField uses.
+ * Appended entries are forced to disk by {@link #force} before any page
+ * image that might hold their codes leaves memory, i.e. before the page is
+ * written or logged.
+ *
+ * @Threadsafe
+ */
+public class StringDictionary {
+
+    private final File file;
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    /** Entries added since the last force, not yet on disk. */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+
+    /**
+     * Opens the dictionary stored in file, or an empty one if the file does
+     * not exist yet. A partial entry at the end of the file, left by a
+     * crash while it was appended, is cut off.
+     */
+    public StringDictionary(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                byte[] all = new byte[(int) raf.length()];
+                raf.readFully(all);
+                ByteBuffer bb = ByteBuffer.wrap(all);
+                while (bb.remaining() >= 4) {
+                    int len = bb.getInt(bb.position());
+                    if (len < 0 || len > Type.STRING_LEN || bb.remaining() < 4 + len) {
+                        break;
+                    }
+                    bb.getInt();
+                    byte[] bs = new byte[len];
+                    bb.get(bs);
+                    add(new String(bs));
+                }
+                if (bb.position() < all.length) {
+                    raf.setLength(bb.position());
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("can't read dictionary " + file, e);
+        }
+    }
+
+    /** @return the file the dictionary of the given data file is stored in */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".dict");
+    }
+
+    private int add(String s) {
+        int code = strings.size();
+        strings.add(s);
+        codes.put(s, code);
+        return code;
+    }
+
+    /**
+     * Returns the code of s, adding s to the dictionary if it is not in it
+     * yet. Strings longer than {@link Type#STRING_LEN} are cut, as in
+     * StringField.
+     */
+    public synchronized int encode(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        Integer code = codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        DataOutputStream dos = new DataOutputStream(pending);
+        try {
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return add(s);
+    }
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the string with the given code
+     * @throws IllegalArgumentException if no string has that code
+     */
+    public synchronized String decode(int code) {
+        if (code < 0 || code >= strings.size()) {
+            throw new IllegalArgumentException("no string with code " + code + " in " + file);
+        }
+        return strings.get(code);
+    }
+
+    /** @return the number of strings in the dictionary */
+    public synchronized int size() {
+        return strings.size();
+    }
+
+    /**
+     * Appends the strings added since the last call to the side file and
+     * forces them to disk. Does nothing if no string was added.
+     */
+    public synchronized void force() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        ByteBuffer bb = ByteBuffer.wrap(pending.toByteArray());
+        long pos = channel.size();
+        while (bb.hasRemaining()) {
+            channel.write(bb, pos + bb.position());
+        }
+        channel.force(false);
+        pending.reset();
+    }
+
+    /** Forces the dictionary to disk and closes the side file. */
+    public synchronized void close() throws IOException {
+        force();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
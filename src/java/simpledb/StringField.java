@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,18 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at pos, in the same format as
+	 * serialize(DataOutputStream): always maxSize + 4 bytes.
+	 */
+	public void serialize(ByteBuffer buf, int pos) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(pos, len);
+		pos += 4;
+		for (int i = 0; i < maxSize; i++)
+			buf.put(pos + i, i < len ? (byte) value.charAt(i) : 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
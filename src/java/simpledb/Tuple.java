@@ -99,7 +99,7 @@ public class Tuple implements Serializable {
         // some code goes here
         StringBuilder str = new StringBuilder();
         for (int i = 0; i < tupleDesc.numFields(); i++) {
-            str.append(arrField.get(i).toString());
+            str.append(getField(i).toString());
             str.append(" ");
         }
         return str.toString();
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a Page that stores tuples of a single table, such as the
+ * fixed-slot HeapPage or the variable-length SlottedHeapPage. HeapFile and
+ * its iterator work with pages through this interface, so a heap file can
+ * use either page format.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple's RecordId is updated
+     * to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full or the TupleDesc does not match.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page or its slot is
+     *   already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if t could be inserted into this page right now.
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns the number of empty slots on this page. For pages with
+     * variable-length records this is the number of smallest possible
+     * tuples that still fit, so a page reporting zero is completely full.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns the room left on this page, in the unit its HeapFile measures
+     * tuples in (see {@link HeapFile#spaceNeeded}): empty slots for
+     * fixed-slot pages, record bytes for variable-length ones. A tuple fits
+     * exactly when its size is at most this value.
+     */
+    public int getFreeSpace();
+
+    /**
+     * @return the tuple stored in the given slot, or null if the slot is
+     *   empty
+     */
+    public Tuple getTuple(int slot);
+
+    /**
+     * Returns the smallest and the largest value of each integer column of
+     * the tuples on this page, laid out as {@link ZoneMap} keeps them. The
+     * page widens the summary as tuples are inserted and computes it again
+     * only when it is asked for after the page was read or a tuple deleted.
+     * The caller must not modify the array.
+     */
+    public int[] getZone();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
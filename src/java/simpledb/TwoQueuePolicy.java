@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * TwoQueuePolicy is the scan-resistant 2Q replacement policy of Johnson and
+ * Shasha. A page read for the first time enters a FIFO queue, A1in, and
+ * hits while it is there do not promote it: a scan touches each page a few
+ * times in quick succession and then never again. When a page leaves A1in
+ * its id is remembered in a second FIFO, A1out, which holds no data. Only
+ * a page read again while its id is in A1out has proven to be reused, and
+ * enters Am, an LRU list of hot pages. Victims come from A1in as long as
+ * it holds more than its share of the pool, so a scan, however long, only
+ * cycles through A1in and leaves the hot pages in Am alone.
+ * <p>
+ * A1in gets a quarter of the pool. A1out remembers as many ids as the pool
+ * has frames, so that a page reused about once per pool's worth of scanned
+ * pages is still recognized.
+ * <p>
+ * All methods are synchronized, as hits reorder Am; each takes constant
+ * time, apart from skipping pages the eviction test rejects.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int inShare;
+    private final int outSize;
+    /** Pages read once, oldest first. */
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    /** Ids of pages recently evicted from A1in, oldest first. */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    /** Hot pages, least recently used first. */
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    /**
+     * @param numFrames the number of pages the pool holds
+     */
+    public TwoQueuePolicy(int numFrames) {
+        this.inShare = Math.max(1, numFrames / 4);
+        this.outSize = Math.max(1, numFrames);
+    }
+
+    public synchronized void touch(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    /** Puts pid in Am if A1out remembers it, else at the tail of A1in. */
+    public synchronized boolean admit(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            touch(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+        return true;
+    }
+
+    public synchronized void remove(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    /**
+     * Evicts the oldest acceptable page of A1in if A1in holds more than its
+     * share or Am has none, and the least recently used acceptable page of
+     * Am otherwise, falling back to the other queue if the first has no
+     * acceptable page.
+     */
+    public synchronized PageId evict(java.util.function.Predicate<PageId> evictable) {
+        boolean fromIn = a1in.size() > inShare || am.isEmpty();
+        PageId pid = first(fromIn ? a1in : am, evictable);
+        if (pid == null) {
+            fromIn = !fromIn;
+            pid = first(fromIn ? a1in : am, evictable);
+        }
+        if (pid != null && fromIn) {
+            a1out.add(pid);
+            if (a1out.size() > outSize) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return pid;
+    }
+
+    /** Removes and returns the first page of queue the test accepts, or null. */
+    private static PageId first(LinkedHashSet<PageId> queue, java.util.function.Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = queue.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
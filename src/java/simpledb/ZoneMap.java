@@ -0,0 +1,396 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and the largest
+ * value of each integer column on that page, so a scan with a predicate such
+ * as <tt>year &gt; 2015</tt> can skip the pages that cannot hold a matching
+ * tuple without reading them.
+ * <p>
+ * A page whose summary is unknown is always read. The summary of a page is
+ * taken from the page when it is read from disk or first allocated, and is
+ * widened afterwards by every tuple inserted into the page and by every
+ * image of the page written to disk. Each page keeps its own summary up to
+ * date as tuples are inserted (see {@link TuplePage#getZone}), so widening
+ * by a written image does not go over its tuples again. A delete forgets
+ * the summary of its page until the page is next written, which then takes
+ * the tighter summary of the remaining tuples; the image an abort writes
+ * back widens it again to cover the tuples it restores. A stale summary
+ * costs a page read, never a lost tuple.
+ * <p>
+ * The summaries are saved in a side file next to the heap file (see
+ * {@link #sideFile}) when the HeapFile is closed, and HeapFileEncoder
+ * writes one for every file it creates. The side file carries a generation
+ * number, which {@link #beforeWrite} negates on disk before the first page
+ * is written after the side file was loaded or saved, and a checksum of its
+ * contents; a side file with a negative generation or a wrong checksum is
+ * ignored. It also records the length and modification time of the heap
+ * file and is ignored if they no longer match, e.g. because the file was
+ * replaced by other means.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+    /** Byte offset of the generation number in the side file. */
+    private static final int GENERATION = 4;
+
+    private final File dataFile;
+    /** Field number of every integer column of the table. */
+    private final int[] columns;
+    /** Position in columns of every field of the table, or -1. */
+    private final int[] columnOf;
+    /**
+     * For every page, the minimum and maximum of every integer column
+     * (min0, max0, min1, max1, ...), or null if the page is not summarized.
+     */
+    private final ArrayList<int[]> zones = new ArrayList<int[]>();
+    /** True if zones differs from the side file. */
+    private boolean changed = false;
+    /** The generation of the side file last loaded or saved. */
+    private long generation = 0;
+    /** True if the side file still describes the heap file. */
+    private boolean current = false;
+
+    /**
+     * Creates the zone map of a heap file, loading its side file if there
+     * is a valid one.
+     *
+     * @param dataFile the heap file described by this map
+     * @param td the schema of the tuples in dataFile
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        int n = td == null ? 0 : td.numFields();
+        int count = 0;
+        this.columnOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            columnOf[i] = td.getFieldType(i) == Type.INT_TYPE ? count++ : -1;
+        }
+        this.columns = new int[count];
+        for (int i = 0; i < n; i++) {
+            if (columnOf[i] >= 0) {
+                columns[columnOf[i]] = i;
+            }
+        }
+        load();
+    }
+
+    /** @return the side file holding the zone map of dataFile */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /** @return a summary that no value falls into, for an empty page */
+    static int[] emptyZone(int numColumns) {
+        int[] zone = new int[2 * numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            zone[2 * c] = Integer.MAX_VALUE;
+            zone[2 * c + 1] = Integer.MIN_VALUE;
+        }
+        return zone;
+    }
+
+    /**
+     * Returns the summary of the given tuples of a table with schema td.
+     */
+    static int[] zoneOf(TupleDesc td, Iterator<Tuple> tuples) {
+        int count = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                count++;
+            }
+        }
+        int[] zone = emptyZone(count);
+        while (tuples.hasNext()) {
+            widen(td, zone, tuples.next());
+        }
+        return zone;
+    }
+
+    /**
+     * Widens the summary of a page of a table with schema td to cover t.
+     */
+    static void widen(TupleDesc td, int[] zone, Tuple t) {
+        int c = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(i)).getValue();
+                zone[2 * c] = Math.min(zone[2 * c], v);
+                zone[2 * c + 1] = Math.max(zone[2 * c + 1], v);
+                c++;
+            }
+        }
+    }
+
+    /**
+     * Returns false if no tuple on page pgNo can satisfy all of the given
+     * predicates, and true if some tuple may, or if the page is not
+     * summarized.
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        int[] zone = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (zone == null || predicates.isEmpty()) {
+            return true;
+        }
+        if (columns.length > 0 && zone[0] > zone[1]) {
+            // the page holds no tuples
+            return false;
+        }
+        for (Predicate p : predicates) {
+            int c = p.getField() < columnOf.length ? columnOf[p.getField()] : -1;
+            if (c < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = zone[2 * c];
+            int max = zone[2 * c + 1];
+            boolean match;
+            switch (p.getOp()) {
+            case EQUALS:
+                match = min <= v && v <= max;
+                break;
+            case GREATER_THAN:
+                match = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                match = max >= v;
+                break;
+            case LESS_THAN:
+                match = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                match = min <= v;
+                break;
+            case NOT_EQUALS:
+                match = min != v || max != v;
+                break;
+            default:
+                match = true;
+            }
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if page pgNo has a summary */
+    public synchronized boolean isSummarized(int pgNo) {
+        return pgNo < zones.size() && zones.get(pgNo) != null;
+    }
+
+    /**
+     * Records the tuples of a page that was read from disk, written to disk
+     * or newly allocated. An unknown summary is taken from the page; a known
+     * one is widened to cover it.
+     */
+    public synchronized void summarize(int pgNo, TuplePage page) {
+        ensurePages(pgNo + 1);
+        int[] from = page.getZone();
+        int[] zone = zones.get(pgNo);
+        if (zone == null) {
+            zones.set(pgNo, Arrays.copyOf(from, 2 * columns.length));
+            changed = true;
+            return;
+        }
+        for (int c = 0; c < columns.length; c++) {
+            if (from[2 * c] < zone[2 * c]) {
+                zone[2 * c] = from[2 * c];
+                changed = true;
+            }
+            if (from[2 * c + 1] > zone[2 * c + 1]) {
+                zone[2 * c + 1] = from[2 * c + 1];
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Forgets the summary of page pgNo after a tuple was deleted from it.
+     * The next image of the page written to disk summarizes it again.
+     */
+    public synchronized void forget(int pgNo) {
+        if (pgNo < zones.size() && zones.get(pgNo) != null) {
+            zones.set(pgNo, null);
+            changed = true;
+        }
+    }
+
+    /**
+     * Marks the side file stale before the heap file is written, unless it
+     * already is. The mark is forced to disk first, so a crash right after
+     * the write cannot leave a side file that seems to match.
+     */
+    public synchronized void beforeWrite() throws IOException {
+        if (!current) {
+            return;
+        }
+        current = false;
+        changed = true;
+        RandomAccessFile raf = new RandomAccessFile(sideFile(dataFile), "rw");
+        try {
+            raf.seek(GENERATION);
+            raf.writeLong(-generation - 1);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Records a tuple inserted into page pgNo. Nothing is recorded if the
+     * page is not summarized.
+     */
+    public synchronized void include(int pgNo, Tuple t) {
+        int[] zone = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (zone != null) {
+            widen(zone, t);
+        }
+    }
+
+    private void widen(int[] zone, Tuple t) {
+        for (int c = 0; c < columns.length; c++) {
+            int v = ((IntField) t.getField(columns[c])).getValue();
+            if (v < zone[2 * c]) {
+                zone[2 * c] = v;
+                changed = true;
+            }
+            if (v > zone[2 * c + 1]) {
+                zone[2 * c + 1] = v;
+                changed = true;
+            }
+        }
+    }
+
+    private void ensurePages(int numPages) {
+        while (zones.size() < numPages) {
+            zones.add(null);
+        }
+    }
+
+    /**
+     * Forgets the summaries of the pages from numPages on, after the heap
+     * file was truncated to numPages pages.
+     */
+    public synchronized void truncate(int numPages) {
+        while (zones.size() > numPages) {
+            zones.remove(zones.size() - 1);
+        }
+        changed = true;
+    }
+
+    /**
+     * Forgets every summary and deletes the side file, e.g. after the heap
+     * file was replaced.
+     */
+    public synchronized void clear() {
+        zones.clear();
+        changed = false;
+        current = false;
+        sideFile(dataFile).delete();
+    }
+
+    /**
+     * Writes the summaries to the side file if they changed since it was
+     * loaded or last saved.
+     */
+    public synchronized void save() throws IOException {
+        if (changed && dataFile.exists()) {
+            write(dataFile, generation + 1, columns.length, zones);
+            generation++;
+            changed = false;
+            current = true;
+        }
+    }
+
+    /**
+     * Writes the side file of dataFile.
+     *
+     * @param dataFile the heap file the summaries describe
+     * @param generation the generation of the side file, at least zero
+     * @param numColumns the number of integer columns of the table
+     * @param zones the summary of every page, as kept by a ZoneMap
+     */
+    static void write(File dataFile, long generation, int numColumns, List<int[]> zones) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(generation);
+        out.writeLong(dataFile.length());
+        out.writeLong(lastModified(dataFile));
+        out.writeInt(numColumns);
+        out.writeInt(zones.size());
+        for (int[] zone : zones) {
+            out.writeBoolean(zone != null);
+            if (zone != null) {
+                for (int v : zone) {
+                    out.writeInt(v);
+                }
+            }
+        }
+        out.writeLong(checksum(bytes.toByteArray(), bytes.size()));
+        FileOutputStream file = new FileOutputStream(sideFile(dataFile));
+        try {
+            bytes.writeTo(file);
+        } finally {
+            file.close();
+        }
+    }
+
+    /** @return the checksum of the first length bytes of a side file, past its generation */
+    private static long checksum(byte[] b, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(b, GENERATION + 8, length - GENERATION - 8);
+        return crc.getValue();
+    }
+
+    private void load() {
+        File f = sideFile(dataFile);
+        if (!f.exists() || !dataFile.exists()) {
+            return;
+        }
+        try {
+            byte[] b = Files.readAllBytes(f.toPath());
+            if (b.length < GENERATION + 16
+                    || ByteBuffer.wrap(b).getLong(b.length - 8) != checksum(b, b.length - 8)) {
+                // a damaged side file is ignored like a stale one
+                return;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            long gen;
+            if (in.readInt() != MAGIC || (gen = in.readLong()) < 0 || in.readLong() != dataFile.length()
+                    || in.readLong() != lastModified(dataFile) || in.readInt() != columns.length) {
+                return;
+            }
+            int n = in.readInt();
+            ArrayList<int[]> loaded = new ArrayList<int[]>(n);
+            for (int i = 0; i < n; i++) {
+                int[] zone = null;
+                if (in.readBoolean()) {
+                    zone = new int[2 * columns.length];
+                    for (int j = 0; j < zone.length; j++) {
+                        zone[j] = in.readInt();
+                    }
+                }
+                loaded.add(zone);
+            }
+            zones.addAll(loaded);
+            generation = gen;
+            current = true;
+        } catch (IOException e) {
+            zones.clear();
+        }
+    }
+
+    private static long lastModified(File f) throws IOException {
+        return Files.getLastModifiedTime(f.toPath()).to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private static final Comparator<ArrayList<Integer>> LIST_ORDER = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private BTreeFile createIndex(HeapFile table, int field) throws Exception {
+        File f = File.createTempFile("index", ".btree");
+        f.delete();
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table.getId(), field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private static ArrayList<ArrayList<Integer>> collect(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            res.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return res;
+    }
+
+    /**
+     * Every predicate returns exactly the tuples whose key satisfies it.
+     */
+    private static void checkLookups(BTreeFile index, ArrayList<ArrayList<Integer>> tuples, int[] values)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int v : values) {
+            for (Predicate.Op op : OPS) {
+                ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+                for (ArrayList<Integer> t : tuples) {
+                    if (new IntField(t.get(index.getKeyField())).compare(op, new IntField(v))) {
+                        expected.add(t);
+                    }
+                }
+                ArrayList<ArrayList<Integer>> actual = collect(index.iterator(tid, op, new IntField(v)));
+                // range scans return tuples in key order
+                for (int i = 1; i < actual.size(); i++) {
+                    assertTrue(actual.get(i - 1).get(index.getKeyField()) <= actual.get(i).get(index.getKeyField()));
+                }
+                Collections.sort(expected, LIST_ORDER);
+                Collections.sort(actual, LIST_ORDER);
+                assertEquals(op + " " + v, expected, actual);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index built on a table that already holds data answers equality
+     * and range predicates, including keys with many duplicates.
+     */
+    @Test public void buildAndLookup() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 300, null, tuples);
+        BTreeFile index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        // sorted bulk build writes full leaves and one level of internal pages
+        assertEquals(1 + (5000 + 339) / 340 + 1, index.numPages());
+        checkLookups(index, tuples, new int[] {-1, 0, 17, 150, 299, 300});
+    }
+
+    /**
+     * Insert and Delete keep the index up to date through leaf and
+     * internal page splits.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        // small pages make the tree three levels deep
+        BufferPool.setPageSize(512);
+        Database.resetBufferPool(2000);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BTreeFile index = createIndex(table, 0);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 4000; i++) {
+            int key = (i * 7919) % 2000;
+            rows.add(Utility.getHeapTuple(new int[] {key, i}));
+            tuples.add(new ArrayList<Integer>(java.util.Arrays.asList(key, i)));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), rows), table.getId());
+        insert.open();
+        assertEquals(4000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > 4000 / BTreePage.getMaxLeafEntries(Type.INT_TYPE));
+
+        // a full scan of the index returns every tuple in key order
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> all = collect(index.iterator(tid));
+        assertEquals(4000, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).get(0) <= all.get(i).get(0));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(index, tuples, new int[] {0, 1, 999, 1999, 2000});
+
+        // delete every tuple with a key below 500
+        tid = new TransactionId();
+        Filter small = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId()));
+        Delete delete = new Delete(tid, small);
+        delete.open();
+        assertEquals(1000, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 500) {
+                remaining.add(t);
+            }
+        }
+        checkLookups(index, remaining, new int[] {0, 499, 500, 1200});
+    }
+
+    /**
+     * The planner answers a filter on an indexed field with an IndexScan.
+     */
+    @Test public void planUsesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples, "c");
+        String name = Database.getCatalog().getTableName(table.getId());
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "100");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "42");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, IndexScan.class));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 42 && t.get(1) > 100) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "42");
+        assertFalse(contains(lp.physicalPlan(new TransactionId(), stats, false), IndexScan.class));
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> type) {
+        if (type.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A btree annotation in a schema file creates and builds the index.
+     */
+    @Test public void loadSchema() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 100, null, tuples);
+        File dir = data.getParentFile();
+        String name = data.getName().substring(0, data.getName().length() - ".dat".length());
+        File schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        new File(dir, name + ".a.btree").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int btree, b int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        DbIndex index = Database.getCatalog().getIndex(tableId, 0, Predicate.Op.EQUALS);
+        assertTrue(index instanceof BTreeFile);
+        assertTrue(new File(dir, name + ".a.btree").length() > 0);
+        checkLookups((BTreeFile) index, tuples, new int[] {5, 50});
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
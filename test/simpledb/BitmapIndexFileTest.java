@@ -0,0 +1,233 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    /** Counts the number of readPage operations. */
+    static class CountingHeapFile extends HeapFile {
+        public volatile int readCount = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private BitmapIndexFile createIndex(HeapFile table, int field) throws Exception {
+        File f = File.createTempFile("index", ".bitmap");
+        f.delete();
+        f.deleteOnExit();
+        BitmapIndexFile index = new BitmapIndexFile(f, table.getId(), field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private static ArrayList<ArrayList<Integer>> select(ArrayList<ArrayList<Integer>> tuples, Predicate... ps) {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            Tuple tup = Utility.getHeapTuple(new int[] {t.get(0), t.get(1)});
+            boolean match = true;
+            for (Predicate p : ps) {
+                match &= p.filter(tup);
+            }
+            if (match) {
+                res.add(t);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Every supported predicate on the key returns exactly the matching
+     * tuples.
+     */
+    private static void checkLookups(BitmapIndexFile index, ArrayList<ArrayList<Integer>> tuples, int[] values)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int v : values) {
+            for (Predicate.Op op : OPS) {
+                Predicate p = new Predicate(index.getKeyField(), op, new IntField(v));
+                SystemTestUtil.matchTuples(new BitmapScan(tid, "t", Arrays.asList(index), Arrays.asList(p)),
+                        select(tuples, p));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Insert and Delete keep the index up to date while containers switch
+     * between arrays and bitmaps.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        // small pages make every value's chunk overflow its array
+        BufferPool.setPageSize(512);
+        Database.resetBufferPool(2000);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BitmapIndexFile index = createIndex(table, 0);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            rows.add(Utility.getHeapTuple(new int[] {i % 4, i}));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i % 4, i)));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), rows), table.getId());
+        insert.open();
+        assertEquals(3000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // some container must have been turned into a bitmap
+        tid = new TransactionId();
+        boolean sawBitmap = false;
+        for (int pg = 1; pg < index.numPages(); pg++) {
+            BitmapIndexPage p = (BitmapIndexPage) Database.getBufferPool().getPage(tid,
+                    new BitmapIndexPageId(index.getId(), pg), Permissions.READ_ONLY);
+            sawBitmap |= p.getKind() == BitmapIndexPage.BITMAP;
+        }
+        assertTrue(sawBitmap);
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(index, tuples, new int[] {0, 1, 3, 7});
+
+        // delete every tuple with an odd key
+        tid = new TransactionId();
+        ArrayList<Tuple> odd = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 1) {
+                odd.add(t);
+            }
+        }
+        scan.close();
+        Delete delete = new Delete(tid, new TupleIterator(Utility.getTupleDesc(2), odd));
+        delete.open();
+        assertEquals(1500, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) % 2 == 0) {
+                remaining.add(t);
+            }
+        }
+        checkLookups(index, remaining, new int[] {0, 1, 2});
+    }
+
+    /**
+     * A BitmapScan ANDs the bitmaps of its predicates and reads only the
+     * table pages holding a qualifying tuple.
+     */
+    @Test public void scanReadsQualifyingPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i / 2000, i % 5)));
+        }
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        ZoneMap.sideFile(data).deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+        CountingHeapFile table = new CountingHeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BitmapIndexFile a = createIndex(table, 0);
+        BitmapIndexFile b = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        a.build(tid);
+        b.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Predicate pa = new Predicate(0, Predicate.Op.EQUALS, new IntField(2));
+        Predicate pb = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, "t", Arrays.asList(a, b), Arrays.asList(pa, pb));
+        HashSet<PageId> pages = new HashSet<PageId>();
+        ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            pages.add(t.getRecordId().getPageId());
+            found.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(select(tuples, pa, pb), found);
+        assertEquals(pages.size(), table.readCount);
+        assertTrue(pages.size() < table.numPages());
+    }
+
+    /**
+     * A bitmap annotation in a schema file creates the index, and the
+     * planner answers two filters on bitmap-indexed fields with a single
+     * BitmapScan.
+     */
+    @Test public void loadSchemaAndPlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 10, null, tuples);
+        File dir = data.getParentFile();
+        String name = data.getName().substring(0, data.getName().length() - ".dat".length());
+        File schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        new File(dir, name + ".a.bitmap").deleteOnExit();
+        new File(dir, name + ".b.bitmap").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int bitmap, b int bitmap)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(2, Database.getCatalog().getIndexes(tableId).size());
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addProjectField("*", null);
+        lp.addFilter("t.a", Predicate.Op.EQUALS, "7");
+        lp.addFilter("t.b", Predicate.Op.GREATER_THAN, "4");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof Operator && ((Operator) plan).getChildren()[0] instanceof BitmapScan);
+        SystemTestUtil.matchTuples(plan, select(tuples,
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(4))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexFileTest.class);
+    }
+}
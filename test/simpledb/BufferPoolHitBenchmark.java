@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import simpledb.TestUtil.SkeletonFile;
+
+/**
+ * Measures the cost of a BufferPool hit as the pool grows, against the
+ * LRU bookkeeping the pool used before it switched to CLOCK: moving the
+ * page's id to the tail of an ArrayDeque, which first searches the deque
+ * for it.
+ * <p>
+ * Run with <code>ant runbench -Dbench=BufferPoolHitBenchmark</code>.
+ */
+public class BufferPoolHitBenchmark {
+
+    private static final int[] POOL_PAGES = {50, 500, 5000, 50000, 100000};
+    private static final int ROUNDS = 3;
+    private static final int HITS_PER_ROUND = 200000;
+
+    /** A table of empty pages, so that misses cost no I/O. */
+    private static class EmptyPagesFile extends SkeletonFile {
+        EmptyPagesFile(int tableId, TupleDesc td) {
+            super(tableId, td);
+        }
+
+        public Page readPage(PageId pid) {
+            try {
+                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void run(int numPages) throws Exception {
+        BufferPool pool = Database.resetBufferPool(numPages);
+        int tableId = numPages;
+        Database.getCatalog().addTable(new EmptyPagesFile(tableId, Utility.getTupleDesc(2)), "t" + numPages);
+        TransactionId tid = new TransactionId();
+        HeapPageId[] pids = new HeapPageId[numPages];
+        ArrayDeque<PageId> lru = new ArrayDeque<PageId>();
+        for (int i = 0; i < numPages; i++) {
+            pids[i] = new HeapPageId(tableId, i);
+            pool.getPage(tid, pids[i], Permissions.READ_ONLY);
+            lru.addLast(pids[i]);
+        }
+        Random rand = new Random(numPages);
+        int[] order = new int[HITS_PER_ROUND];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = rand.nextInt(numPages);
+        }
+
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // the deque search is linear, so time fewer hits on large pools
+            int lruHits = Math.max(1000, HITS_PER_ROUND / Math.max(1, numPages / 500));
+            long start = System.nanoTime();
+            for (int i = 0; i < lruHits; i++) {
+                PageId pid = pids[order[i]];
+                lru.remove(pid);
+                lru.addLast(pid);
+            }
+            long lruNs = (System.nanoTime() - start) / lruHits;
+
+            start = System.nanoTime();
+            for (int i = 0; i < HITS_PER_ROUND; i++) {
+                sink += pool.getPage(tid, pids[order[i]], Permissions.READ_ONLY).getId().getPageNumber();
+            }
+            long hitNs = (System.nanoTime() - start) / HITS_PER_ROUND;
+
+            System.out.println(numPages + " pages round " + round + ": hit " + lruNs + " -> " + hitNs + " ns");
+        }
+        pool.transactionComplete(tid);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // small pages keep a 100k-page pool in memory
+        BufferPool.setPageSize(256);
+        System.out.println(HITS_PER_ROUND + " hits per round, LRU deque -> CLOCK (the latter includes locking)");
+        for (int n : POOL_PAGES) {
+            run(n);
+        }
+    }
+}
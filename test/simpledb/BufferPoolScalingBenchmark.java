@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.TestUtil.SkeletonFile;
+
+/**
+ * Measures the throughput of concurrent read-only transactions on a pool
+ * with a single shard against one split into a shard per processor. The
+ * table is twice the size of the pool, so that about half of the reads
+ * miss and have to latch a shard to evict and admit pages.
+ * <p>
+ * Run with <code>ant runbench -Dbench=BufferPoolScalingBenchmark</code>.
+ */
+public class BufferPoolScalingBenchmark {
+
+    private static final int POOL_PAGES = 4096;
+    private static final int READS_PER_THREAD = 200000;
+
+    /** A table of empty pages, so that misses cost no I/O. */
+    private static class EmptyPagesFile extends SkeletonFile {
+        EmptyPagesFile(int tableId, TupleDesc td) {
+            super(tableId, td);
+        }
+
+        public Page readPage(PageId pid) {
+            try {
+                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** @return reads per millisecond */
+    private static long run(final BufferPool pool, final int tableId, int threads) throws Exception {
+        ArrayList<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            readers.add(new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < READS_PER_THREAD; i++) {
+                            pool.getPage(tid, new HeapPageId(tableId, rand.nextInt(2 * POOL_PAGES)), Permissions.READ_ONLY);
+                        }
+                        pool.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread t : readers) {
+            t.start();
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        return (long) threads * READS_PER_THREAD * 1000000L / (System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // small pages keep the pools in memory
+        BufferPool.setPageSize(256);
+        int tableId = 1;
+        Database.getCatalog().addTable(new EmptyPagesFile(tableId, Utility.getTupleDesc(2)), "t");
+        int cpus = Runtime.getRuntime().availableProcessors();
+        System.out.println("reads per ms, 1 shard -> " + cpus + " shards");
+        for (int threads = 1; threads <= 2 * cpus; threads *= 2) {
+            long single = run(new BufferPool(POOL_PAGES, 1), tableId, threads);
+            long sharded = run(new BufferPool(POOL_PAGES, cpus), tableId, threads);
+            System.out.println(threads + " threads: " + single + " -> " + sharded);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private static final int ROWS_PER_PAGE = 992;
+    private static final int TABLE_PAGES = 40;
+
+    /** Small pools get one shard; a pool can be split explicitly. */
+    @Test public void shardCount() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).numShards());
+        assertEquals(4, new BufferPool(10, 4).numShards());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moreShardsThanPages() {
+        new BufferPool(4, 8);
+    }
+
+    /** Each shard evicts its own pages, so the pool never exceeds its capacity. */
+    @Test public void shardsEvictWithinCapacity() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, TABLE_PAGES * ROWS_PER_PAGE, null, null);
+        BufferPool pool = new BufferPool(8, 4);
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < TABLE_PAGES; i++) {
+                HeapPageId pid = new HeapPageId(f.getId(), i);
+                assertEquals(pid, pool.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                assertTrue(pool.setofPages.containsKey(pid));
+                pool.unpinPage(tid, pid);
+                assertTrue(pool.setofPages.size() <= 8);
+            }
+        }
+        pool.transactionComplete(tid);
+    }
+
+    /** Concurrent read-only transactions share a sharded pool. */
+    @Test public void concurrentReaders() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(1, TABLE_PAGES * ROWS_PER_PAGE, null, null);
+        final BufferPool pool = new BufferPool(16, 4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ArrayList<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            readers.add(new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES));
+                            if (!pid.equals(pool.getPage(tid, pid, Permissions.READ_ONLY).getId())) {
+                                throw new AssertionError("got the wrong page for " + pid);
+                            }
+                            pool.unpinPage(tid, pid);
+                        }
+                        pool.transactionComplete(tid);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread t : readers) {
+            t.start();
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(pool.setofPages.size() <= 16);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
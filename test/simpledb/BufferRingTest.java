@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 50;
+    private static final int ROWS_PER_PAGE = 992;
+
+    private BufferPool pool;
+
+    @Before public void createPool() {
+        pool = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private static int residentPagesOf(BufferPool pool, HeapFile f) {
+        int n = 0;
+        for (PageId pid : pool.setofPages.keySet()) {
+            if (pid.getTableId() == f.getId()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * A scan of a table much larger than the pool reads through a ring and
+     * leaves the pages already in the pool there, while a table that fits
+     * the pool is still cached.
+     */
+    @Test public void bulkScanKeepsPool() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(1, 5 * ROWS_PER_PAGE, null, null);
+        SystemTestUtil.matchTuples(hot, readAll(hot));
+        assertEquals(5, residentPagesOf(pool, hot));
+        assertFalse(pool.isBulkRead(hot.numPages()));
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 4 * POOL_PAGES * ROWS_PER_PAGE, null, tuples);
+        assertTrue(pool.isBulkRead(big.numPages()));
+        SystemTestUtil.matchTuples(big, tuples);
+        assertEquals(5, residentPagesOf(pool, hot));
+        assertEquals(0, residentPagesOf(pool, big));
+    }
+
+    /** @return the tuples of f, read through the pool */
+    private static ArrayList<ArrayList<Integer>> readAll(HeapFile f) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * Resident pages are served from the pool; other pages are read without
+     * entering it, and read-ahead into the ring locks the pages it reads.
+     */
+    @Test public void ringReads() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 10 * ROWS_PER_PAGE, null, null);
+        TransactionId tid = new TransactionId();
+        BufferRing ring = new BufferRing(4);
+        HeapPageId resident = new HeapPageId(f.getId(), 0);
+        Page p = pool.getPage(tid, resident, Permissions.READ_ONLY);
+        assertSame(p, pool.getPage(tid, resident, Permissions.READ_ONLY, ring));
+
+        HeapPageId other = new HeapPageId(f.getId(), 1);
+        assertEquals(other, pool.getPage(tid, other, Permissions.READ_ONLY, ring).getId());
+        assertFalse(pool.setofPages.containsKey(other));
+
+        HeapPageId ahead = new HeapPageId(f.getId(), 5);
+        pool.prefetchPage(tid, ahead, ring);
+        assertTrue(ring.contains(ahead));
+        assertTrue(pool.holdsLock(tid, ahead));
+        assertEquals(ahead, pool.getPage(tid, ahead, Permissions.READ_ONLY, ring).getId());
+        assertFalse(ring.contains(ahead));
+        assertFalse(pool.setofPages.containsKey(ahead));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final TupleDesc AUTHORS = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+
+    private File writeInput(int rows) throws Exception {
+        File in = File.createTempFile("authors", ".txt");
+        in.deleteOnExit();
+        FileWriter w = new FileWriter(in);
+        for (int i = 0; i < rows; i++) {
+            w.write(i + ", author " + i + "\r\n");
+            if (i == rows / 2) {
+                w.write("not a number,bad\n");
+            }
+        }
+        w.close();
+        return in;
+    }
+
+    private int[] scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("author " + id, Type.STRING_LEN), t.getField(1));
+            ids.add(id);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        int[] res = new int[ids.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = ids.get(i);
+        }
+        return res;
+    }
+
+    /**
+     * Rows split over many small chunks parsed in parallel come out in
+     * input order; malformed lines are skipped.
+     */
+    @Test public void parallelChunks() throws Exception {
+        int rows = 5000;
+        File in = writeInput(rows);
+        File out = File.createTempFile("authors", ".dat");
+        out.deleteOnExit();
+        ZoneMap.sideFile(out).deleteOnExit();
+        int pages = BulkLoader.writeHeapFile(in, out, AUTHORS, ',', 4, 4096);
+        assertEquals(pages * BufferPool.getPageSize(), out.length());
+        assertFalse(new File(out.getPath() + ".load").exists());
+
+        HeapFile hf = new HeapFile(out, AUTHORS);
+        Database.getCatalog().addTable(hf, "authors");
+        int[] ids = scan(hf);
+        assertEquals(rows, ids.length);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(i, ids[i]);
+        }
+    }
+
+    /**
+     * Loading a table produces the same pages as HeapFileEncoder and
+     * registers the table in the catalog.
+     */
+    @Test public void matchesEncoder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File encoded = SystemTestUtil.createRandomHeapFileUnopened(3, 2000, 1000, null, tuples);
+        File in = File.createTempFile("ints", ".txt");
+        in.deleteOnExit();
+        FileWriter w = new FileWriter(in);
+        for (ArrayList<Integer> t : tuples) {
+            w.write(t.get(0) + "," + t.get(1) + "," + t.get(2) + "\n");
+        }
+        w.close();
+
+        File out = File.createTempFile("ints", ".dat");
+        out.deleteOnExit();
+        HeapFile hf = BulkLoader.load(in, out, Utility.getTupleDesc(3), "ints", ',');
+        assertEquals(hf.getId(), Database.getCatalog().getTableId("ints"));
+        assertArrayEquals(TestUtil.readFileBytes(encoded.getAbsolutePath()),
+                TestUtil.readFileBytes(out.getAbsolutePath()));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Reloading a table replaces its contents, including pages that were
+     * cached in the buffer pool.
+     */
+    @Test public void reload() throws Exception {
+        File out = File.createTempFile("authors", ".dat");
+        out.deleteOnExit();
+        ZoneMap.sideFile(out).deleteOnExit();
+        HeapFile hf = BulkLoader.load(writeInput(3000), out, AUTHORS, "authors", ',');
+        assertEquals(3000, scan(hf).length);
+
+        HeapFile again = BulkLoader.load("authors", writeInput(100), ',');
+        assertSame(hf, again);
+        assertEquals(4, hf.numPages());
+        assertEquals(100, scan(hf).length);
+
+        // inserts still work after the reload
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(AUTHORS);
+        t.setField(0, new IntField(100));
+        t.setField(1, new StringField("author 100", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(101, scan(hf).length);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
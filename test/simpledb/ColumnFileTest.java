@@ -0,0 +1,237 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    /** Counts the pages read from each column. */
+    static class CountingColumnFile extends ColumnFile {
+        public final int[] reads;
+
+        public CountingColumnFile(File f, TupleDesc td) {
+            super(f, td);
+            reads = new int[td.numFields()];
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            reads[((ColumnPageId) pid).getColumn()]++;
+            return super.readPage(pid);
+        }
+    }
+
+    private TupleDesc td;
+    private CountingColumnFile cf;
+
+    @Before public void createTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"id", "name", "year"});
+        File f = File.createTempFile("venues", ".dat");
+        f.deleteOnExit();
+        cf = new CountingColumnFile(f, td);
+        Database.getCatalog().addTable(cf, "venues");
+        for (int c = 0; c < td.numFields(); c++) {
+            cf.getColumnFile(c).deleteOnExit();
+        }
+
+        // large enough that no page of the load is evicted
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("venue " + i, Type.STRING_LEN));
+            t.setField(2, new IntField(1990 + i % 30));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int c = 0; c < td.numFields(); c++) {
+            cf.reads[c] = 0;
+        }
+    }
+
+    /**
+     * A full scan returns every row with all of its columns.
+     */
+    @Test public void fullScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[ROWS];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[id]);
+            seen[id] = true;
+            assertEquals(new StringField("venue " + id, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(1990 + id % 30), t.getField(2));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(seen[i]);
+        }
+    }
+
+    /**
+     * Scanning one column reads only that column's pages.
+     */
+    @Test public void pruning() throws Exception {
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "v", new int[] {2});
+        assertEquals("v.year", scan.getTupleDesc().getFieldName(0));
+        assertEquals(1, scan.getTupleDesc().numFields());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            int year = ((IntField) scan.next().getField(0)).getValue();
+            assertTrue(year >= 1990 && year < 2020);
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, count);
+        assertEquals(0, cf.reads[0]);
+        assertEquals(0, cf.reads[1]);
+        assertEquals(cf.numPages(2), cf.reads[2]);
+        assertTrue(cf.numPages(2) < cf.numPages(1));
+    }
+
+    /**
+     * Deleted rows disappear from every column, and new rows fill the free
+     * slots of existing pages.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid, new int[] {0});
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == 1234) {
+                victim = t;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "v", new int[] {1});
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertFalse(scan.next().getField(0).equals(new StringField("venue 1234", Type.STRING_LEN)));
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS - 1, count);
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(2021));
+        int pages = cf.numPages(0);
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        assertEquals(pages, cf.numPages(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A tuple handed out by a scan keeps its values when its row is
+     * deleted and the slots are filled with a new row.
+     */
+    @Test public void tupleOutlivesSlotReuse() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext() && victim == null) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == 1234) {
+                victim = t;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        for (int c = 0; c < td.numFields(); c++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, cf.rowPageId(1234, c),
+                    Permissions.READ_WRITE);
+            page.setField(cf.rowSlot(1234, c), c == 1 ? new StringField("new", Type.STRING_LEN) : new IntField(-1));
+        }
+        assertEquals(new IntField(1234), victim.getField(0));
+        assertEquals(new StringField("venue 1234", Type.STRING_LEN), victim.getField(1));
+        assertEquals(new IntField(1990 + 1234 % 30), victim.getField(2));
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * The planner scans only the columns a query refers to.
+     */
+    @Test public void planPrunesColumns() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "v");
+        lp.addProjectField("v.id", null);
+        lp.addFilter("year", Predicate.Op.GREATER_THAN, "2015");
+        assertArrayEquals(new int[] {0, 2}, lp.referencedColumns("v", td));
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("venues", new TableStats(cf.getId(), 1000));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf.reads[0] = cf.reads[1] = cf.reads[2] = 0;
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            int id = ((IntField) plan.next().getField(0)).getValue();
+            assertTrue(1990 + id % 30 > 2015);
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS / 30 * 4, count);
+        assertEquals(0, cf.reads[1]);
+
+        lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "v");
+        lp.addProjectField("*", null);
+        assertArrayEquals(new int[] {0, 1, 2}, lp.referencedColumns("v", td));
+    }
+
+    /**
+     * The column keyword in a schema file selects ColumnFile.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("column_t (a int, b string) column\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("column_t")) instanceof ColumnFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File text;
+
+    @Before public void writeText() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+            w.write(i + "," + (i % 10) + "\n");
+        }
+        w.close();
+    }
+
+    private File encode(boolean compress) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sideFile(f).deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 2,
+                new Type[] {Type.INT_TYPE, Type.INT_TYPE}, ',', compress);
+        return f;
+    }
+
+    private static CompressedHeapFile open(File f) {
+        CompressedHeapFile hf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * HeapFileEncoder writes a much smaller file whose pages read back
+     * exactly like the pages of a plain heap file, in any order.
+     */
+    @Test public void encodeAndRead() throws Exception {
+        File plain = encode(false);
+        File packed = encode(true);
+        assertTrue(packed.length() < plain.length() / 2);
+
+        HeapFile heap = new HeapFile(plain, Utility.getTupleDesc(2));
+        CompressedHeapFile hf = open(packed);
+        assertEquals(heap.numPages(), hf.numPages());
+        for (int pg = hf.numPages() - 1; pg >= 0; pg -= 3) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pg);
+            assertArrayEquals(heap.readPage(pid).getPageData(), hf.readPage(pid).getPageData());
+        }
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Updated pages survive reopening the file, both through the page-offset
+     * table written on close and by scanning the records after a crash.
+     */
+    @Test public void updateAndReopen() throws Exception {
+        File f = encode(true);
+        CompressedHeapFile hf = open(f);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 7 == 0) {
+                doomed.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        for (int i = 0; i < 600; i++) {
+            // random values do not compress, so some pages must move
+            int v = (int) (Math.random() * Integer.MAX_VALUE);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {v, -1}));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(v, -1)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == -1 || t.get(0) % 7 != 0) {
+                remaining.add(t);
+            }
+        }
+
+        // no table on disk yet: the records are scanned
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(open(f), remaining);
+
+        hf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = open(f);
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, remaining);
+    }
+
+    private static byte[] page(int fill) {
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        Arrays.fill(buf, (byte) fill);
+        return buf;
+    }
+
+    /**
+     * A rewrite never overwrites the page's current record, so a write torn
+     * by a crash leaves the previous image readable, and a page rewritten
+     * over and over takes no more than two records.
+     */
+    @Test public void tornWriteKeepsPreviousImage() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        CompressedPageChannel ch = new CompressedPageChannel(f);
+        ch.writePage(0, page(1));
+        ch.writePage(0, page(2));
+        long size = f.length();
+        // reuses the record of the first image
+        ch.writePage(0, page(3));
+        assertEquals(size, f.length());
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        new CompressedPageChannel(f).readPage(0, buf);
+        assertArrayEquals(page(3), buf);
+
+        // tear the latest image, which went to the start of the file
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(30);
+        raf.write(raf.read() ^ 0xff);
+        raf.close();
+        new CompressedPageChannel(f).readPage(0, buf);
+        assertArrayEquals(page(2), buf);
+
+        for (int i = 0; i < 100; i++) {
+            ch.writePage(0, page(i));
+        }
+        assertEquals(size, f.length());
+        ch.close();
+        new CompressedPageChannel(f).readPage(0, buf);
+        assertArrayEquals(page(99), buf);
+    }
+
+    /**
+     * A compressed annotation in a schema file stores the table compressed.
+     */
+    @Test public void loadSchema() throws Exception {
+        File f = encode(true);
+        String name = f.getName().substring(0, f.getName().length() - ".dat".length());
+        File schema = new File(f.getParentFile(), name + ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int, b int) compressed\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile table = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(table instanceof CompressedHeapFile);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
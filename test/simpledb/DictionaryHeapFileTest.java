@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final String[] STATUS = {"open", "shipped", "returned", "lost in transit"};
+
+    private TupleDesc td;
+    private File file;
+    private DictionaryHeapFile hf;
+
+    @Before public void addTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        file = File.createTempFile("dict", ".dat");
+        file.deleteOnExit();
+        StringDictionary.sideFile(file).deleteOnExit();
+        ZoneMap.sideFile(file).deleteOnExit();
+        hf = open(file);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, STATUS[i % STATUS.length]));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DictionaryHeapFile open(File f) {
+        DictionaryHeapFile file = new DictionaryHeapFile(f, td);
+        Database.getCatalog().addTable(file, "orders");
+        return file;
+    }
+
+    private Tuple tuple(int id, String status) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(status, Type.STRING_LEN));
+        return t;
+    }
+
+    private void checkScan(DictionaryHeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertTrue(t.getField(1) instanceof DictionaryField);
+            assertEquals(STATUS[id % STATUS.length], ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Strings are stored as codes, so pages hold many more tuples than the
+     * pages of a plain heap file, and read back with their values.
+     */
+    @Test public void storesCodes() throws Exception {
+        checkScan(hf);
+        assertEquals(STATUS.length, hf.getDictionary().size());
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        assertEquals((ROWS + perPage - 1) / perPage, hf.numPages());
+        assertTrue(hf.numPages() * 10 < ROWS * td.getSize() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Equality filters, group-by and joins on the encoded column give the
+     * same answers as on plain strings.
+     */
+    @Test public void filterGroupJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("shipped", Type.STRING_LEN)), new SeqScan(tid, hf.getId(), "t"));
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            assertEquals(1, ((IntField) filter.next().getField(0)).getValue() % STATUS.length);
+            count++;
+        }
+        filter.close();
+        assertEquals(ROWS / STATUS.length, count);
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 0, 1, Aggregator.Op.COUNT);
+        agg.open();
+        HashMap<String, Integer> groups = new HashMap<String, Integer>();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            groups.put(t.getField(0).toString(), ((IntField) t.getField(1)).getValue());
+        }
+        agg.close();
+        assertEquals(STATUS.length, groups.size());
+        for (String s : STATUS) {
+            assertEquals(Integer.valueOf(ROWS / STATUS.length), groups.get(s));
+        }
+
+        // a self join on the status pairs up the orders of each status
+        Filter few = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)),
+                new SeqScan(tid, hf.getId(), "a"));
+        Join join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 1), few,
+                new SeqScan(tid, hf.getId(), "b"));
+        join.open();
+        count = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(((IntField) t.getField(0)).getValue() % STATUS.length,
+                    ((IntField) t.getField(2)).getValue() % STATUS.length);
+            count++;
+        }
+        join.close();
+        assertEquals(40 * ROWS / STATUS.length, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The dictionary is kept in a side file, so the table reads back after
+     * it is opened again, and new strings get new codes.
+     */
+    @Test public void reopen() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        hf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DictionaryHeapFile reopened = open(file);
+        assertEquals(STATUS.length, reopened.getDictionary().size());
+        checkScan(reopened);
+        assertEquals(-1, reopened.getDictionary().lookup("pending"));
+        assertEquals(STATUS.length, reopened.getDictionary().encode("pending"));
+
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("dict_t (a int, b string) dict\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("dict_t")) instanceof DictionaryHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryHeapFileTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for FreeSpaceMap.findPage()
+     */
+    @Test public void findPage() {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        assertEquals(-1, fsm.findPage(0, 0, 1));
+        // unseen pages are assumed to have room
+        assertEquals(2, fsm.findPage(2, 5, 100));
+        fsm.update(2, 0);
+        fsm.update(3, 0);
+        assertEquals(4, fsm.findPage(2, 5, 1));
+        fsm.update(4, 0);
+        // wraps around to the start of the file
+        assertEquals(0, fsm.findPage(2, 5, 1));
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        assertEquals(-1, fsm.findPage(2, 5, 1));
+        fsm.update(3, 1);
+        assertEquals(3, fsm.findPage(7, 5, 1));
+        // pages past the last known one start out free
+        assertEquals(5, fsm.findPage(5, 6, 1));
+        // a page is offered only to tuples that fit its free space
+        fsm.update(1, 30);
+        assertEquals(1, fsm.findPage(0, 6, 30));
+        assertEquals(5, fsm.findPage(0, 6, 31));
+        fsm.update(5, 10);
+        assertEquals(-1, fsm.findPage(0, 6, 31));
+        assertEquals(1, fsm.findPage(2, 6, 20));
+    }
+
+    /**
+     * An insert into a file of full pages goes straight to the page that
+     * had a tuple deleted, without locking the full pages.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int perPage = 504;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, perPage * 10, null, tuples);
+        assertEquals(10, hf.numPages());
+
+        // scanning the file records every page as full
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 7) {
+                victim = t;
+                break;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        ArrayList<Page> pages = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(1, pages.size());
+        assertEquals(7, pages.get(0).getId().getPageNumber());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i == 7, Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+
+        // the next insert needs a new page
+        pages = hf.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(10, pages.get(0).getId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    static class CountingHashIndexFile extends HashIndexFile {
+        public volatile int readCount = 0;
+
+        public CountingHashIndexFile(File f, int tableId, int keyField) {
+            super(f, tableId, keyField);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private CountingHashIndexFile createIndex(HeapFile table, int field) throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.delete();
+        f.deleteOnExit();
+        CountingHashIndexFile index = new CountingHashIndexFile(f, table.getId(), field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * An equality lookup returns exactly the tuples with the given key.
+     */
+    private static void checkLookups(HashIndexFile index, ArrayList<ArrayList<Integer>> tuples, int[] values)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int v : values) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(index.getKeyField()) == v) {
+                    expected.add(t);
+                }
+            }
+            SystemTestUtil.matchTuples(new HashIndexScan(tid, index, "t", new IntField(v)), expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Insert and Delete keep the index up to date while buckets split.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        // small pages make the index split many times
+        BufferPool.setPageSize(512);
+        Database.resetBufferPool(2000);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        HashIndexFile index = createIndex(table, 0);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            rows.add(Utility.getHeapTuple(new int[] {i % 1000, i}));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i % 1000, i)));
+        }
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), rows), table.getId());
+        insert.open();
+        assertEquals(3000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        HashIndexPage header = (HashIndexPage) Database.getBufferPool().getPage(tid,
+                new HashIndexPageId(index.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(3000, header.getCount());
+        int buckets = (HashIndexFile.INITIAL_BUCKETS << header.getLevel()) + header.getNext();
+        assertTrue(3000 <= HashIndexFile.MAX_LOAD * buckets * HashIndexPage.getMaxBucketEntries(Type.INT_TYPE));
+        // a full scan of the index returns every tuple
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId()), tuples);
+        int count = 0;
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(3000, count);
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(index, tuples, new int[] {0, 1, 500, 999, 1000});
+
+        // delete every tuple with an odd key
+        tid = new TransactionId();
+        ArrayList<Tuple> odd = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 1) {
+                odd.add(t);
+            }
+        }
+        scan.close();
+        Delete delete = new Delete(tid, new TupleIterator(Utility.getTupleDesc(2), odd));
+        delete.open();
+        assertEquals(1500, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) % 2 == 0) {
+                remaining.add(t);
+            }
+        }
+        checkLookups(index, remaining, new int[] {0, 1, 500, 999});
+    }
+
+    /**
+     * An index built on a large table answers a point lookup by reading
+     * the header, one directory page and one bucket page.
+     */
+    @Test public void lookupReadsOneBucket() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 100000, null, tuples);
+        CountingHashIndexFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(index, tuples, new int[] {tuples.get(0).get(0), tuples.get(19999).get(0), -5});
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        index.readCount = 0;
+        checkLookups(index, tuples, new int[] {tuples.get(100).get(0)});
+        assertEquals(3, index.readCount);
+    }
+
+    /**
+     * A hash annotation in a schema file creates the index, and the
+     * planner answers an equality filter on the field with a HashIndexScan.
+     */
+    @Test public void loadSchemaAndPlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 100, null, tuples);
+        File dir = data.getParentFile();
+        String name = data.getName().substring(0, data.getName().length() - ".dat".length());
+        File schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        new File(dir, name + ".a.btree").deleteOnExit();
+        new File(dir, name + ".a.hash").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int btree hash, b int)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(2, Database.getCatalog().getIndexes(tableId).size());
+        assertTrue(Database.getCatalog().getIndex(tableId, 0, Predicate.Op.EQUALS) instanceof HashIndexFile);
+        assertTrue(Database.getCatalog().getIndex(tableId, 0, Predicate.Op.LESS_THAN) instanceof BTreeFile);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addProjectField("*", null);
+        lp.addFilter("t.a", Predicate.Op.EQUALS, "7");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof Operator && ((Operator) plan).getChildren()[0] instanceof HashIndexScan);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 7) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
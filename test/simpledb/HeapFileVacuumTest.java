@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileVacuumTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private HashIndexFile index;
+
+    /**
+     * Creates a table of ROWS random tuples with a hash index on its first
+     * field, and deletes two thirds of the tuples, spread over all pages.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+        File f = File.createTempFile("index", ".hash");
+        f.delete();
+        f.deleteOnExit();
+        index = new HashIndexFile(f, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        Transaction t = new Transaction();
+        t.start();
+        index.build(t.getId());
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(t.getId(), table.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            if (((IntField) tup.getField(1)).getValue() % 3 != 0) {
+                doomed.add(tup);
+            }
+        }
+        scan.close();
+        Delete delete = new Delete(t.getId(), new TupleIterator(Utility.getTupleDesc(2), doomed));
+        delete.open();
+        delete.next();
+        delete.close();
+        t.commit();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(1) % 3 == 0) {
+                remaining.add(tup);
+            }
+        }
+        tuples = remaining;
+    }
+
+    private int densePages() {
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        return (tuples.size() + perPage - 1) / perPage;
+    }
+
+    /**
+     * Vacuum packs the remaining tuples into a prefix of the pages, cuts the
+     * rest off the file, and moves the index entries along with the tuples.
+     */
+    @Test public void compactsFile() throws Exception {
+        int before = table.numPages();
+        assertTrue(densePages() < before);
+        assertEquals(before - densePages(), table.vacuum());
+        assertEquals(densePages(), table.numPages());
+        assertEquals((long) densePages() * BufferPool.getPageSize(), table.getFile().length());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int v = 0; v < 1000; v += 37) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) == v) {
+                    expected.add(t);
+                }
+            }
+            SystemTestUtil.matchTuples(new HashIndexScan(tid, index, "t", new IntField(v)), expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the file keeps working after it shrank
+        assertEquals(0, table.vacuum());
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2});
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(t.getRecordId().getPageId().getPageNumber() < table.numPages());
+        tuples.add(SystemTestUtil.tupleToList(t));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * The moves and the truncation are logged like any other transaction,
+     * so recovery after a crash finds every remaining tuple exactly once
+     * and leaves the file at its compacted size.
+     */
+    @Test public void recoversAfterVacuum() throws Exception {
+        table.vacuum();
+        File f = table.getFile();
+        Database.reset();
+        table = Utility.openHeapFile(2, f);
+        Database.getCatalog().addIndex(new HashIndexFile(index.getFile(), table.getId(), 0));
+        Database.getLogFile().recover();
+        assertEquals(densePages(), table.numPages());
+        assertEquals((long) densePages() * BufferPool.getPageSize(), f.length());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileVacuumTest.class);
+    }
+}
@@ -44,6 +44,23 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * The file grows by whole extents, and only the pages in use are
+     * counted, also once the file is opened again.
+     */
+    @Test public void growsByExtents() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals((long) HeapFile.DEFAULT_EXTENT_PAGES * BufferPool.getPageSize(),
+                empty.getFile().length());
+
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -57,6 +57,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         try {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
+            ZoneMap.sideFile(temp).deleteOnExit();
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
@@ -120,6 +121,19 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * A page that was only read returns the image it was read from, and
+     * tuples decoded from it keep their values.
+     */
+    @Test public void getPageDataUnmodified() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        assertEquals(new IntField(EXAMPLE_VALUES[0][1]), first.getField(1));
+        assertEquals(new IntField(EXAMPLE_VALUES[0][0]), first.getField(0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,40 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * After deletes and inserts, the page image zeroes the freed slots,
+     * holds the new tuples, and reads back as the same page.
+     */
+    @Test public void pageDataAfterUpdates() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        page.deleteTuple(first);
+        page.deleteTuple(second);
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+
+        // deleted tuples keep their values, even once their slot is reused
+        assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[0][0]), first.getField(0));
+        assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[1][1]), second.getField(1));
+
+        byte[] data = page.getPageData();
+        HeapPage reread = new HeapPage(pid, data);
+        assertTrue(Arrays.equals(data, reread.getPageData()));
+        assertTrue(reread.isSlotUsed(0));
+        assertTrue(!reread.isSlotUsed(1));
+        Tuple t = reread.iterator().next();
+        assertEquals(new IntField(7), t.getField(0));
+        assertEquals(new IntField(8), t.getField(1));
+
+        // a freed slot is written as zeroes
+        int slotSize = Utility.getTupleDesc(2).getSize();
+        int headerSize = (int) Math.ceil(reread.numSlots / 8.0);
+        for (int i = 0; i < slotSize; i++) {
+            assertEquals(0, data[headerSize + slotSize + i]);
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,276 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LsmDbFileTest extends SimpleDbTestBase {
+
+    private File dir;
+    private File file;
+    private LsmDbFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        dir = File.createTempFile("lsm", "");
+        dir.delete();
+        dir.mkdir();
+        file = new File(dir, "clicks.dat");
+        LsmDbFile.setMemtableEntries(100);
+        LsmDbFile.setMaxRuns(4);
+        table = open();
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    @After public void removeTable() throws Exception {
+        table.awaitCompaction();
+        LsmDbFile.resetLimits();
+        Database.reset();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private LsmDbFile open() {
+        LsmDbFile f = new LsmDbFile(file, Utility.getTupleDesc(2), 0);
+        Database.getCatalog().addTable(f, "clicks");
+        return f;
+    }
+
+    private void insert(TransactionId tid, int a, int b) throws Exception {
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] {a, b}));
+    }
+
+    /** Deletes the tuples whose first field is a. */
+    private void delete(TransactionId tid, int a) throws Exception {
+        Filter f = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(a)),
+                new SeqScan(tid, table.getId()));
+        Delete d = new Delete(tid, f);
+        d.open();
+        d.next();
+        d.close();
+    }
+
+    /** @return the number of tuples a scan with the given predicates pushed down reads */
+    private int scanned(Predicate... predicates) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        for (Predicate p : predicates) {
+            scan.addPredicate(p);
+        }
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Inserts fill the memtable, which is written out as runs that are
+     * compacted in the background; scans merge the runs and the memtable
+     * and do not return deleted tuples.
+     */
+    @Test public void insertDeleteScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            int key = (i * 7919) % 1000;
+            insert(tid, key, i);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(Database.getBufferPool().setofPages.isEmpty());
+        table.awaitCompaction();
+        assertTrue(table.numRuns() < 4);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) % 3 == 0) {
+                delete(tid, t.get(0));
+            } else {
+                remaining.add(t);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(table, remaining);
+        table.awaitCompaction();
+        SystemTestUtil.matchTuples(table, remaining);
+    }
+
+    /**
+     * Predicates on the key field restrict the keys a scan reads; an
+     * equality predicate skips the runs whose bloom filters rule the key out.
+     */
+    @Test public void keyPredicates() throws Exception {
+        LsmDbFile.setMaxRuns(100);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            insert(tid, i, i);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(5, table.numRuns());
+        assertEquals(500, scanned());
+        assertEquals(1, scanned(new Predicate(0, Predicate.Op.EQUALS, new IntField(250))));
+        assertEquals(0, scanned(new Predicate(0, Predicate.Op.EQUALS, new IntField(5000))));
+        assertEquals(100, scanned(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(400))));
+        assertEquals(51, scanned(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(150))));
+        // predicates on other fields restrict nothing
+        assertEquals(500, scanned(new Predicate(1, Predicate.Op.EQUALS, new IntField(3))));
+    }
+
+    /** An aborted transaction's changes are taken back, even those written out to runs. */
+    @Test public void abortUndoes() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            insert(tid, i, 0);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 0)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        delete(tid, 3);
+        for (int i = 0; i < 250; i++) {
+            insert(tid, 1000 + i, 1);
+        }
+        delete(tid, 5);
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * Committed changes survive a restart through the runs and the log;
+     * those of a transaction that never committed do not.
+     */
+    @Test public void recovers() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 150; i++) {
+            insert(t1.getId(), i, 1);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 1)));
+        }
+        t1.commit();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        delete(t2.getId(), 4);
+        insert(t2.getId(), 1000, 2);
+        t2.commit();
+        tuples.remove(4);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(1000, 2)));
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insert(t3.getId(), 2000, 3);
+        delete(t3.getId(), 5);
+        // crash before t3 commits
+        table.awaitCompaction();
+        Database.reset();
+        table = open();
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** Checkpoints running alongside logged inserts neither deadlock nor lose tuples. */
+    @Test public void checkpointDuringInserts() throws Exception {
+        final Throwable[] failure = new Throwable[2];
+        Thread checkpointer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        Database.getLogFile().logCheckpoint();
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        for (int j = 0; j < 10; j++) {
+                            insert(t.getId(), i * 10 + j, j);
+                            tuples.add(new ArrayList<Integer>(Arrays.asList(i * 10 + j, j)));
+                        }
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    failure[1] = e;
+                }
+            }
+        };
+        for (Thread t : new Thread[] {checkpointer, inserter}) {
+            t.setDaemon(true);
+            t.start();
+        }
+        for (Thread t : new Thread[] {checkpointer, inserter}) {
+            t.join(30000);
+            assertFalse("checkpoint deadlocked with inserts", t.isAlive());
+        }
+        assertNull(failure[0]);
+        assertNull(failure[1]);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * An lsm annotation in a schema file creates an LsmDbFile keyed on the
+     * primary key.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("events (name string, id int pk) lsm\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        DbFile f = c.getDatabaseFile(c.getTableId("events"));
+        assertTrue(f instanceof LsmDbFile);
+        assertEquals(1, ((LsmDbFile) f).getKeyField());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new StringField("SIGMOD", Type.STRING_LEN));
+        t.setField(1, new IntField(1));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        f.close();
+        LsmDbFile reopened = new LsmDbFile(((LsmDbFile) f).getFile(), f.getTupleDesc(), 1);
+        assertEquals(1, reopened.numRuns());
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        assertEquals(new StringField("SIGMOD", Type.STRING_LEN), it.next().getField(0));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LsmDbFileTest.class);
+    }
+}
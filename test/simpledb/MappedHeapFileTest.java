@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    /**
+     * A mapped file returns the same tuples as the heap file it maps.
+     */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 1000, null, tuples);
+        MappedHeapFile mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * Pages appended after the file was first mapped are read back correctly.
+     */
+    @Test public void readAfterGrowth() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, tuples);
+        MappedHeapFile mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(mf, tuples);
+
+        int tableid = mf.getId();
+        HeapPage page = new HeapPage(new HeapPageId(tableid, 3), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {42, 43}));
+        mf.writePage(page);
+        assertEquals(4, mf.numPages());
+
+        HeapPage read = (HeapPage) mf.readPage(new HeapPageId(tableid, 3));
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        mf.close();
+    }
+
+    /**
+     * The mmap keyword in a schema file selects MappedHeapFile.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("mapped_t (a int, b int) mmap\n");
+        w.write("plain_t (a int, b int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("mapped_t")) instanceof MappedHeapFile);
+        assertFalse(c.getDatabaseFile(c.getTableId("plain_t")) instanceof MappedHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MemoryDbFileTest extends SimpleDbTestBase {
+
+    private File file;
+    private MemoryDbFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("memory", ".dat");
+        file.deleteOnExit();
+        table = open();
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    private MemoryDbFile open() {
+        MemoryDbFile f = new MemoryDbFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, "venues");
+        return f;
+    }
+
+    private void insert(TransactionId tid, int a, int b) throws Exception {
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] {a, b}));
+    }
+
+    /** Deletes the tuples whose first field is a. */
+    private void delete(TransactionId tid, int a) throws Exception {
+        Filter f = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(a)),
+                new SeqScan(tid, table.getId()));
+        Delete d = new Delete(tid, f);
+        d.open();
+        d.next();
+        d.close();
+    }
+
+    /**
+     * Inserts and deletes go through the usual operators, leave nothing in
+     * the BufferPool, and reuse freed slots.
+     */
+    @Test public void insertDeleteScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            insert(tid, i, i * i);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * i)));
+        }
+        delete(tid, 7);
+        delete(tid, 8);
+        tuples.remove(8);
+        tuples.remove(7);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(Database.getBufferPool().setofPages.isEmpty());
+        assertEquals(98, table.numTuples());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {1000, 1});
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(7, t.getRecordId().getTupleNumber());
+    }
+
+    /** An aborted transaction's changes are taken back. */
+    @Test public void abortUndoes() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            insert(tid, i, 0);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 0)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        delete(tid, 3);
+        insert(tid, 42, 42);
+        delete(tid, 5);
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * The table is locked through the lock manager: a reader waits for the
+     * transaction that is writing to finish.
+     */
+    @Test public void readerWaitsForWriter() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, 1, 1);
+        final int[] seen = {-1};
+        Thread reader = new Thread() {
+            public void run() {
+                TransactionId tid = new TransactionId();
+                try {
+                    SeqScan scan = new SeqScan(tid, table.getId());
+                    scan.open();
+                    int n = 0;
+                    while (scan.hasNext()) {
+                        scan.next();
+                        n++;
+                    }
+                    scan.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    seen[0] = n;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(100);
+        assertTrue(reader.isAlive());
+        insert(writer, 2, 2);
+        Database.getBufferPool().transactionComplete(writer);
+        reader.join(5000);
+        assertEquals(2, seen[0]);
+    }
+
+    /**
+     * Committed changes survive a restart through the table's file and
+     * the log; those of a transaction that never committed do not.
+     */
+    @Test public void recovers() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 20; i++) {
+            insert(t1.getId(), i, 1);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 1)));
+        }
+        t1.commit();
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        delete(t2.getId(), 4);
+        insert(t2.getId(), 100, 2);
+        t2.commit();
+        tuples.remove(4);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(100, 2)));
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insert(t3.getId(), 200, 3);
+        delete(t3.getId(), 5);
+        // crash before t3 commits
+        Database.reset();
+        table = open();
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** Checkpoints running alongside logged inserts neither deadlock nor lose tuples. */
+    @Test public void checkpointDuringInserts() throws Exception {
+        final Throwable[] failure = new Throwable[2];
+        Thread checkpointer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        Database.getLogFile().logCheckpoint();
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        for (int j = 0; j < 10; j++) {
+                            insert(t.getId(), i, j);
+                            tuples.add(new ArrayList<Integer>(Arrays.asList(i, j)));
+                        }
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    failure[1] = e;
+                }
+            }
+        };
+        for (Thread t : new Thread[] {checkpointer, inserter}) {
+            t.setDaemon(true);
+            t.start();
+        }
+        for (Thread t : new Thread[] {checkpointer, inserter}) {
+            t.join(30000);
+            assertFalse("checkpoint deadlocked with inserts", t.isAlive());
+        }
+        assertNull(failure[0]);
+        assertNull(failure[1]);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * A memory annotation in a schema file keeps the table in memory.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String name = "mem_" + schema.getName().replaceAll("\\W", "");
+        new File(schema.getParentFile(), name + ".dat").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (id int, name string) memory\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        DbFile f = c.getDatabaseFile(c.getTableId(name));
+        assertTrue(f instanceof MemoryDbFile);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("SIGMOD", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        f.close();
+        MemoryDbFile reopened = new MemoryDbFile(((MemoryDbFile) f).getFile(), f.getTupleDesc());
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        assertEquals(new StringField("SIGMOD", Type.STRING_LEN), it.next().getField(1));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryDbFileTest.class);
+    }
+}
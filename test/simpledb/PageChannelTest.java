@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+    private static final int PAGE = 512;
+    private static final int PAGES = 32;
+
+    private static byte[] page(int pgNo) {
+        byte[] buf = new byte[PAGE];
+        Arrays.fill(buf, (byte) (pgNo + 1));
+        return buf;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static PageChannel[] channels(File f) {
+        return new PageChannel[] { new PageChannel(f), new MappedPageChannel(f) };
+    }
+
+    /** Reading a file that does not exist yields empty pages and leaves no file behind. */
+    @Test public void missingFileReadsEmpty() throws Exception {
+        File f = tempFile();
+        assertTrue(f.delete());
+        for (PageChannel ch : channels(f)) {
+            byte[] buf = page(7);
+            ch.readPage(3, buf);
+            assertArrayEquals(new byte[PAGE], buf);
+            assertEquals(0, ch.size());
+            ch.force();
+            ch.close();
+            assertFalse(f.exists());
+        }
+    }
+
+    /** A closed channel reopens on the next read or write. */
+    @Test public void reopenAfterClose() throws Exception {
+        for (PageChannel ch : channels(tempFile())) {
+            ch.writePage(0, page(0));
+            ch.close();
+            byte[] buf = new byte[PAGE];
+            ch.readPage(0, buf);
+            assertArrayEquals(page(0), buf);
+            ch.close();
+            ch.close();
+            ch.writePage(1, page(1));
+            ch.readPage(1, buf);
+            assertArrayEquals(page(1), buf);
+            assertEquals(2, ch.pageCount(PAGE));
+            ch.close();
+        }
+    }
+
+    /** Closing the channel while others read never fails or garbles a read. */
+    @Test public void closeDuringReads() throws Exception {
+        for (final PageChannel ch : channels(tempFile())) {
+            for (int i = 0; i < PAGES; i++) {
+                ch.writePage(i, page(i));
+            }
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final AtomicBoolean done = new AtomicBoolean();
+            ArrayList<Thread> readers = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                final long seed = t;
+                readers.add(new Thread() {
+                    public void run() {
+                        Random rand = new Random(seed);
+                        byte[] buf = new byte[PAGE];
+                        try {
+                            for (int i = 0; i < 5000; i++) {
+                                int pgNo = rand.nextInt(PAGES);
+                                ch.readPage(pgNo, buf);
+                                if (!Arrays.equals(page(pgNo), buf)) {
+                                    throw new AssertionError("page " + pgNo + " read wrong bytes");
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+            }
+            Thread closer = new Thread() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            ch.close();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            closer.start();
+            for (Thread t : readers) {
+                t.start();
+            }
+            for (Thread t : readers) {
+                t.join();
+            }
+            done.set(true);
+            closer.join();
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            ch.close();
+        }
+    }
+
+    /**
+     * Truncating the file while others read never fails a read; a page
+     * reads either as written or, once cut off, as zeroes.
+     */
+    @Test public void truncateDuringReads() throws Exception {
+        for (final PageChannel ch : channels(tempFile())) {
+            for (int i = 0; i < PAGES; i++) {
+                ch.writePage(i, page(i));
+            }
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final AtomicBoolean done = new AtomicBoolean();
+            ArrayList<Thread> readers = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                final long seed = t;
+                readers.add(new Thread() {
+                    public void run() {
+                        Random rand = new Random(seed);
+                        byte[] buf = new byte[PAGE];
+                        try {
+                            for (int i = 0; i < 5000; i++) {
+                                int pgNo = rand.nextInt(PAGES);
+                                ch.readPage(pgNo, buf);
+                                if (!Arrays.equals(page(pgNo), buf) && !Arrays.equals(new byte[PAGE], buf)) {
+                                    throw new AssertionError("page " + pgNo + " read wrong bytes");
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+            }
+            Thread truncater = new Thread() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            ch.truncate((long) PAGES / 2 * PAGE);
+                            for (int i = PAGES / 2; i < PAGES; i++) {
+                                ch.writePage(i, page(i));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            truncater.start();
+            for (Thread t : readers) {
+                t.start();
+            }
+            for (Thread t : readers) {
+                t.join();
+            }
+            done.set(true);
+            truncater.join();
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            ch.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+import simpledb.TestUtil.SkeletonFile;
+
+/**
+ * Measures the per-page cost of loading a HeapPage and of getPageData,
+ * against the stream-based code HeapPage used before it kept a canonical
+ * page image: parsing every slot through a DataInputStream on load, and
+ * writing every slot through a DataOutputStream on serialization.
+ * <p>
+ * Run with <code>ant runbench -Dbench=PageSerializationBenchmark</code>.
+ */
+public class PageSerializationBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int PAGES_PER_ROUND = 20000;
+
+    /** The old HeapPage constructor: parse every used slot of the page. */
+    static Tuple[] streamLoad(TupleDesc td, byte[] data, int numSlots, int headerSize)
+            throws IOException, ParseException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] header = new byte[headerSize];
+        dis.readFully(header);
+        Tuple[] tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] >> (i % 8) & 1) == 0) {
+                dis.skipBytes(td.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    /** The old HeapPage.getPageData: write the page a byte at a time. */
+    static byte[] streamSerialize(TupleDesc td, Tuple[] tuples, byte[] header) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (byte b : header) {
+            dos.writeByte(b);
+        }
+        for (Tuple t : tuples) {
+            if (t == null) {
+                for (int j = 0; j < td.getSize(); j++) {
+                    dos.writeByte(0);
+                }
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+        }
+        dos.write(new byte[BufferPool.getPageSize() - header.length - td.getSize() * tuples.length]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static void run(String name, TupleDesc td) throws Exception {
+        int tableId = name.hashCode();
+        Database.getCatalog().addTable(new SkeletonFile(tableId, td), name);
+        HeapPageId pid = new HeapPageId(tableId, 0);
+
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int row = 0;
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j) == Type.INT_TYPE
+                        ? new IntField(row * 31 + j)
+                        : new StringField("author name " + row, Type.STRING_LEN));
+            }
+            page.insertTuple(t);
+            row++;
+        }
+        byte[] data = page.getPageData();
+        int headerSize = page.headerSize;
+        byte[] header = java.util.Arrays.copyOf(data, headerSize);
+        Tuple[] tuples = streamLoad(td, data, page.numSlots, headerSize);
+
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < PAGES_PER_ROUND; i++) {
+                sink += streamLoad(td, data, page.numSlots, headerSize).length;
+            }
+            long streamLoadNs = (System.nanoTime() - start) / PAGES_PER_ROUND;
+
+            start = System.nanoTime();
+            for (int i = 0; i < PAGES_PER_ROUND; i++) {
+                sink += new HeapPage(pid, data).getNumEmptySlots();
+            }
+            long loadNs = (System.nanoTime() - start) / PAGES_PER_ROUND;
+
+            start = System.nanoTime();
+            for (int i = 0; i < PAGES_PER_ROUND; i++) {
+                sink += streamSerialize(td, tuples, header).length;
+            }
+            long streamSerializeNs = (System.nanoTime() - start) / PAGES_PER_ROUND;
+
+            start = System.nanoTime();
+            for (int i = 0; i < PAGES_PER_ROUND; i++) {
+                sink += page.getPageData().length;
+            }
+            long serializeNs = (System.nanoTime() - start) / PAGES_PER_ROUND;
+
+            System.out.println(name + " round " + round + ": load " + streamLoadNs + " -> " + loadNs
+                    + " ns/page, getPageData " + streamSerializeNs + " -> " + serializeNs + " ns/page");
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(PAGES_PER_ROUND + " pages per round, before -> after");
+        run("ints", new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE}));
+        run("authors", new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}));
+    }
+}
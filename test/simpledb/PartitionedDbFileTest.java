@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PartitionedDbFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 600;
+
+    private static HeapFile[] partitions(int n) throws Exception {
+        HeapFile[] files = new HeapFile[n];
+        for (int i = 0; i < n; i++) {
+            File f = File.createTempFile("part", ".dat");
+            f.deleteOnExit();
+            ZoneMap.sideFile(f).deleteOnExit();
+            files[i] = new HeapFile(f, Utility.getTupleDesc(2));
+        }
+        return files;
+    }
+
+    /** Inserts ROWS tuples (i, i % 300) and returns them. */
+    private static ArrayList<ArrayList<Integer>> fill(PartitionedDbFile table) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] {i, i % 300}));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 300)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /** @return the number of tuples a scan with the given predicates pushed down reads */
+    private static int scanned(PartitionedDbFile table, Predicate... predicates) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        for (Predicate p : predicates) {
+            scan.addPredicate(p);
+        }
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Tuples go to the partition their range selects, scans with predicates
+     * on the partitioning field read only the partitions that can match,
+     * and deletes find the partition a tuple is stored in.
+     */
+    @Test public void rangePartitioning() throws Exception {
+        HeapFile[] parts = partitions(3);
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        PartitionedDbFile table = PartitionedDbFile.byRange(f, Utility.getTupleDesc(2), 1,
+                new int[] {100, 200}, parts);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = fill(table);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            DbFileIterator it = parts[i].iterator(reader);
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                assertEquals(i, ((IntField) it.next().getField(1)).getValue() / 100);
+                n++;
+            }
+            it.close();
+            assertEquals(ROWS / 3, n);
+        }
+        Database.getBufferPool().transactionComplete(reader);
+
+        assertEquals(ROWS / 3, scanned(table, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100))));
+        assertEquals(ROWS / 3, scanned(table, new Predicate(1, Predicate.Op.EQUALS, new IntField(150))));
+        assertEquals(2 * ROWS / 3, scanned(table, new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(199))));
+        assertEquals(0, scanned(table, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(250))));
+        // predicates on other fields prune nothing
+        assertEquals(ROWS, scanned(table, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0))));
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                doomed.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) % 2 != 0) {
+                remaining.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(table, remaining);
+    }
+
+    /**
+     * With hash partitioning an equality predicate on the partitioning
+     * field selects a single partition.
+     */
+    @Test public void hashPartitioning() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        PartitionedDbFile table = PartitionedDbFile.byHash(f, Utility.getTupleDesc(2), 1, partitions(4));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = fill(table);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new IntField(7));
+        assertEquals(1, table.partitionsFor(Arrays.asList(p)).cardinality());
+        HeapFile part = table.getPartitions().get(table.partitionOf(new IntField(7)));
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = part.iterator(reader);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        assertEquals(n, scanned(table, p));
+        assertTrue(n < ROWS);
+        assertEquals(ROWS, scanned(table, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(7))));
+    }
+
+    /**
+     * A partitioning clause in a schema file creates a partitioned table
+     * with its partitions next to the schema file.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String name = "parted_" + schema.getName().replaceAll("\\W", "");
+        for (int i = 0; i < 3; i++) {
+            File part = new File(schema.getParentFile(), name + ".p" + i + ".dat");
+            part.deleteOnExit();
+            ZoneMap.sideFile(part).deleteOnExit();
+        }
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int, b int) partition by range(b) (100, 200)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        DbFile file = c.getDatabaseFile(c.getTableId(name));
+        assertTrue(file instanceof PartitionedDbFile);
+        PartitionedDbFile table = (PartitionedDbFile) file;
+        assertEquals(3, table.getPartitions().size());
+        assertEquals(1, table.getPartitionField());
+        ArrayList<ArrayList<Integer>> tuples = fill(table);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(ROWS / 3, scanned(table, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(250))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedDbFileTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PinCountTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    private static final int ROWS_PER_PAGE = 992;
+
+    private BufferPool pool;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(1, 10 * ROWS_PER_PAGE, null, null);
+        pool = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /** Every getPage pins; unpinPage and transactionComplete release the pins. */
+    @Test public void pinsAreCounted() throws Exception {
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        pool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, pool.pinCount(pid(0)));
+        pool.unpinPage(tid, pid(0));
+        assertEquals(1, pool.pinCount(pid(0)));
+        // another transaction holds no pin to release
+        pool.unpinPage(new TransactionId(), pid(0));
+        assertEquals(1, pool.pinCount(pid(0)));
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.pinCount(pid(0)));
+    }
+
+    /**
+     * Two iterators of one transaction on the same page pin it twice, so
+     * closing one leaves the page in place for the other.
+     */
+    @Test public void sharedPageStaysPinned() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, ROWS_PER_PAGE, null, null);
+        HeapPageId shared = new HeapPageId(small.getId(), 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator outer = small.iterator(tid);
+        DbFileIterator inner = small.iterator(tid);
+        outer.open();
+        inner.open();
+        outer.next();
+        inner.next();
+        assertEquals(2, pool.pinCount(shared));
+        inner.close();
+        assertEquals(1, pool.pinCount(shared));
+        // cycle the rest of the pool through other pages
+        for (int i = 0; i < 10; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid(i));
+        }
+        assertTrue(pool.setofPages.containsKey(shared));
+        outer.close();
+        assertEquals(0, pool.pinCount(shared));
+        pool.transactionComplete(tid);
+    }
+
+    /** A pool whose pages are all pinned reports that it is exhausted. */
+    @Test public void pinnedPagesStay() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        try {
+            pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected the pool to be exhausted");
+        } catch (DbException e) {
+            assertTrue(e.getMessage().contains("exhausted"));
+        }
+        pool.unpinPage(tid, pid(0));
+        pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+        assertFalse(pool.setofPages.containsKey(pid(0)));
+        for (int i = 1; i <= POOL_PAGES; i++) {
+            assertTrue(pool.setofPages.containsKey(pid(i)));
+        }
+        pool.transactionComplete(tid);
+    }
+
+    /** Unpinned dirty pages are not evicted either (NO STEAL). */
+    @Test public void dirtyPagesStay() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = ((TuplePage) pool.getPage(tid, pid(0), Permissions.READ_WRITE)).iterator().next();
+        pool.deleteTuple(tid, t);
+        pool.unpinPage(tid, pid(0));
+        assertEquals(0, pool.pinCount(pid(0)));
+        for (int i = 1; i < 10; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid(i));
+            assertNotNull(pool.setofPages.get(pid(0)).isDirty());
+        }
+        pool.transactionComplete(tid, false);
+    }
+
+    /** Committed pages are written before they become clean, so evicting them loses nothing. */
+    @Test public void committedPagesSurviveEviction() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = ((TuplePage) pool.getPage(tid, pid(0), Permissions.READ_WRITE)).iterator().next();
+        pool.deleteTuple(tid, t);
+        pool.transactionComplete(tid, true);
+        assertNull(pool.setofPages.get(pid(0)).isDirty());
+
+        TransactionId reader = new TransactionId();
+        for (int i = 1; i < 10; i++) {
+            pool.getPage(reader, pid(i), Permissions.READ_ONLY);
+            pool.unpinPage(reader, pid(i));
+        }
+        assertFalse(pool.setofPages.containsKey(pid(0)));
+        TuplePage reread = (TuplePage) pool.getPage(reader, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, reread.getNumEmptySlots());
+        pool.transactionComplete(reader);
+    }
+
+    /** A scan pins only the page it is on. */
+    @Test public void scanUnpins() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, POOL_PAGES * ROWS_PER_PAGE, null, null);
+        // large enough that the scan reads through the pool, not a ring
+        pool = Database.resetBufferPool(4 * POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = small.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (++n % ROWS_PER_PAGE == 0) {
+                int pinned = 0;
+                for (PageId p : pool.setofPages.keySet()) {
+                    pinned += pool.pinCount(p);
+                }
+                assertEquals(1, pinned);
+            }
+        }
+        it.close();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            assertEquals(0, pool.pinCount(new HeapPageId(small.getId(), i)));
+        }
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinCountTest.class);
+    }
+}
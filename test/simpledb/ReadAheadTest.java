@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    static class CountingHeapFile extends HeapFile {
+        public volatile int readCount = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private static final int PAGES = 40;
+
+    private CountingHeapFile createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        CountingHeapFile table = new CountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    @After public void tearDown() {
+        BufferPool.setReadAheadPages(BufferPool.DEFAULT_READ_AHEAD_PAGES);
+    }
+
+    /**
+     * A sequential scan causes pages beyond the current one to be read in
+     * the background.
+     */
+    @Test public void prefetchesAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        CountingHeapFile table = createTable(tuples);
+        // large enough that the scan reads through the pool, not a ring
+        BufferPool pool = Database.resetBufferPool(4 * PAGES);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        // consume the first two pages; the window is now 2 pages wide
+        for (int i = 0; i < 992 * 2; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        PageId ahead = new HeapPageId(table.getId(), 3);
+        for (int i = 0; i < 100 && !pool.setofPages.containsKey(ahead); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.setofPages.containsKey(ahead));
+        it.close();
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Demand reads and read-ahead of the same page share one read, so a full
+     * scan still reads every page exactly once and returns every tuple.
+     */
+    @Test public void readsEachPageOnce() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        CountingHeapFile table = createTable(tuples);
+        Database.resetBufferPool(50);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+    }
+
+    /**
+     * Read-ahead never grows beyond a quarter of the pool and can be
+     * disabled.
+     */
+    @Test public void window() throws Exception {
+        assertEquals(4, new BufferPool(16).getReadAheadWindow());
+        assertEquals(BufferPool.DEFAULT_READ_AHEAD_PAGES, new BufferPool(1000).getReadAheadWindow());
+        BufferPool.setReadAheadPages(0);
+        assertEquals(0, new BufferPool(1000).getReadAheadWindow());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int FRAMES = 50;
+    private static final int HOT_PAGES = 10;
+
+    @After public void resetPolicy() {
+        BufferPool.resetReplacementPolicy();
+    }
+
+    /** A pool of FRAMES pages that only tracks which pages are resident. */
+    private static class Pool {
+        final ReplacementPolicy policy;
+        final HashSet<PageId> resident = new HashSet<PageId>();
+        int misses = 0;
+
+        Pool(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+
+        /** @return true if pid was resident */
+        boolean access(PageId pid) {
+            if (resident.contains(pid)) {
+                policy.touch(pid);
+                return true;
+            }
+            misses++;
+            if (resident.size() >= FRAMES) {
+                PageId victim = policy.evict(p -> true);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+            }
+            resident.add(pid);
+            assertTrue(policy.admit(pid));
+            return false;
+        }
+    }
+
+    /**
+     * Runs rounds that read the hot pages and then scan slightly more new
+     * pages than the pool leaves room for.
+     *
+     * @return the misses on hot pages after the first two rounds
+     */
+    private static int hotMisses(ReplacementPolicy policy) {
+        Pool pool = new Pool(policy);
+        int hotMisses = 0;
+        int next = HOT_PAGES;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < HOT_PAGES; i++) {
+                if (!pool.access(new HeapPageId(1, i)) && round >= 2) {
+                    hotMisses++;
+                }
+            }
+            for (int i = 0; i < FRAMES - HOT_PAGES + 5; i++) {
+                pool.access(new HeapPageId(1, next++));
+            }
+        }
+        return hotMisses;
+    }
+
+    /**
+     * Scans push recently used pages out of a CLOCK pool, but 2Q keeps the
+     * pages that are read again and again.
+     */
+    @Test public void scanResistance() {
+        assertEquals(0, hotMisses(new TwoQueuePolicy(FRAMES)));
+        assertTrue(hotMisses(new ClockPolicy(FRAMES)) > 0);
+    }
+
+    /** Both policies only evict pages the test accepts. */
+    @Test public void evictRespectsTest() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {new ClockPolicy(4), new TwoQueuePolicy(4)}) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(policy.admit(new HeapPageId(1, i)));
+            }
+            final PageId pinned = new HeapPageId(1, 0);
+            for (int i = 1; i < 4; i++) {
+                PageId victim = policy.evict(p -> !p.equals(pinned));
+                assertNotNull(victim);
+                assertFalse(victim.equals(pinned));
+            }
+            assertNull(policy.evict(p -> !p.equals(pinned)));
+            assertEquals(pinned, policy.evict(p -> true));
+        }
+    }
+
+    /** The policy is chosen when a pool is created, which counts its hits. */
+    @Test public void poolPolicyAndHitRatio() throws Exception {
+        BufferPool.setReplacementPolicy("2q");
+        BufferPool pool = Database.resetBufferPool(FRAMES);
+        assertTrue(pool.getReplacementPolicy() instanceof TwoQueuePolicy);
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < f.numPages(); i++) {
+                pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            }
+        }
+        pool.transactionComplete(tid);
+        assertEquals(0.75, pool.getHitRatio(), 0.001);
+        pool.resetHitRatio();
+        assertEquals(0, pool.getHitRatio(), 0.001);
+
+        BufferPool.resetReplacementPolicy();
+        assertTrue(Database.resetBufferPool(FRAMES).getReplacementPolicy() instanceof ClockPolicy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        BufferPool.setReplacementPolicy("fifo");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
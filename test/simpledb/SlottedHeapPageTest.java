@@ -0,0 +1,250 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapPageId pid;
+    private SlottedHeapFile hf;
+
+    @Before public void addTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        hf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, "authors");
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(pid, new byte[BufferPool.getPageSize()]);
+    }
+
+    /**
+     * Short strings take only as much room as they need, so a page holds
+     * many more of them than a fixed-slot HeapPage.
+     */
+    @Test public void fitsMoreThanHeapPage() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "Ada Lovelace..."))) {
+            page.insertTuple(tuple(n, "Ada Lovelace..."));
+            n++;
+        }
+        // 4 + 2 + 15 bytes of record and 4 bytes of slot entry per tuple
+        assertEquals((BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / 25, n);
+        assertTrue(n > 5 * (BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1)));
+        // the 17 bytes left over still fit a tuple with an empty string
+        assertEquals(1, page.getNumEmptySlots());
+        page.insertTuple(tuple(n, ""));
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * A tuple too large for the room left on a page goes to a new page, but
+     * the page stays free for smaller tuples.
+     */
+    @Test public void largeTupleLeavesPageFree() throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = (BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / 25;
+        for (int i = 0; i < n; i++) {
+            assertEquals(0, hf.insertTuple(tid, tuple(i, "Ada Lovelace...")).get(0).getId().getPageNumber());
+        }
+        String large = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        assertEquals(1, hf.insertTuple(tid, tuple(n, large)).get(0).getId().getPageNumber());
+        // page 0 is still offered to small tuples, and takes one
+        int small = SlottedHeapPage.recordSize(td, tuple(n + 1, ""));
+        assertEquals(0, hf.freeSpace.findPage(0, hf.numPages(), small));
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(page.hasRoomFor(tuple(n + 1, "")));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // but not to another large one, which goes to page 1 without
+        // locking page 0
+        tid = new TransactionId();
+        assertEquals(1, hf.insertTuple(tid, tuple(n + 1, large)).get(0).getId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A page an insert finds too full for its tuple is not visited again by
+     * inserts of tuples that size.
+     */
+    @Test public void rejectedPageIsSkipped() throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = (BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / 25;
+        for (int i = 0; i < n; i++) {
+            hf.insertTuple(tid, tuple(i, "Ada Lovelace..."));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        String large = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        int size = SlottedHeapPage.recordSize(td, tuple(n, large));
+        // forget what is known about page 0, as if it was never read
+        hf.freeSpace.clear();
+        assertEquals(0, hf.freeSpace.findPage(0, hf.numPages(), size));
+
+        tid = new TransactionId();
+        assertEquals(1, hf.insertTuple(tid, tuple(n, large)).get(0).getId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, hf.freeSpace.findPage(0, hf.numPages(), size));
+        tid = new TransactionId();
+        assertEquals(1, hf.insertTuple(tid, tuple(n + 1, large)).get(0).getId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples come back with the values and record ids they were inserted
+     * with, and deleted slots are reused.
+     */
+    @Test public void insertDelete() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        Tuple a = tuple(1, "a");
+        Tuple b = tuple(2, "bb");
+        Tuple c = tuple(3, "");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        assertEquals(1, b.getRecordId().getTupleNumber());
+
+        page.deleteTuple(b);
+        assertFalse(page.isSlotUsed(1));
+        try {
+            page.deleteTuple(b);
+            fail("deleted the same tuple twice");
+        } catch (DbException expected) {
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(a.getField(1), it.next().getField(1));
+        Tuple t = it.next();
+        assertEquals(new IntField(3), t.getField(0));
+        assertEquals(new StringField("", Type.STRING_LEN), t.getField(1));
+        assertEquals(2, t.getRecordId().getTupleNumber());
+        assertFalse(it.hasNext());
+
+        Tuple d = tuple(4, "dddd");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * When the free space is fragmented, an insert compacts the page without
+     * changing the slot numbers of the tuples already on it.
+     */
+    @Test public void compaction() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++) {
+            sb.append('x');
+        }
+        String big = sb.toString();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(0, big))) {
+            Tuple t = tuple(tuples.size(), big);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        // free every other record, leaving holes too small for a big tuple
+        for (int i = 0; i < tuples.size(); i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        for (int i = 0; i < tuples.size(); i += 2) {
+            Tuple t = tuple(1000 + i, big + i);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            assertEquals(new IntField(i % 2 == 0 ? 1000 + i : i), t.getField(0));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * The page can be rebuilt from its image the way LogFile does it, and
+     * the before image reflects the page as it was read.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        page.insertTuple(tuple(7, "seven"));
+        page.insertTuple(tuple(8, "eight"));
+
+        Constructor<?>[] cons = SlottedHeapPage.class.getDeclaredConstructors();
+        assertEquals(1, cons.length);
+        SlottedHeapPage copy = (SlottedHeapPage) cons[0].newInstance(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        copy.insertTuple(tuple(9, "nine"));
+        assertFalse(copy.iterator().next() == null);
+        assertFalse(copy.getBeforeImage().isSlotUsed(2));
+        assertTrue(copy.isSlotUsed(2));
+    }
+
+    /**
+     * Tuples inserted through the buffer pool are read back by a scan, and
+     * the slotted keyword in a schema file selects SlottedHeapFile.
+     */
+    @Test public void fileScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "author " + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() < 2000 * td.getSize() / BufferPool.getPageSize());
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("author " + id, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, count);
+
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("slotted_t (a int, b string) slotted\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("slotted_t")) instanceof SlottedHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
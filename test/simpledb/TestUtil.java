@@ -380,6 +380,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            ZoneMap.sideFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,225 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    /** Counts the number of readPage operations. */
+    static class CountingHeapFile extends HeapFile {
+        public volatile int readCount = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private File data;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private CountingHeapFile table;
+
+    /**
+     * Writes a table (i, i % 7) for i in 0 .. ROWS-1, i.e. sorted on its
+     * first field, with HeapFileEncoder.
+     */
+    @Before public void createSortedTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        }
+        data = File.createTempFile("sorted", ".dat");
+        data.deleteOnExit();
+        ZoneMap.sideFile(data).deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+        table = new CountingHeapFile(data, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    private ArrayList<ArrayList<Integer>> select(Predicate p) {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(toTuple(t))) {
+                res.add(t);
+            }
+        }
+        return res;
+    }
+
+    private static Tuple toTuple(ArrayList<Integer> t) {
+        return Utility.getHeapTuple(new int[] {t.get(0), t.get(1)});
+    }
+
+    private void checkScan(Predicate p, int pagesRead) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(p);
+        SystemTestUtil.matchTuples(new Filter(p, scan), select(p));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pagesRead, table.readCount);
+    }
+
+    /**
+     * A scan with a pushed-down predicate reads only the pages whose zone
+     * may hold a matching tuple.
+     */
+    @Test public void skipsPages() throws Exception {
+        // tuples per page as HeapFileEncoder lays them out
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        checkScan(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 10)), 1);
+        checkScan(new Predicate(0, Predicate.Op.EQUALS, new IntField(perPage * 5 + 3)), 1);
+        checkScan(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)), 0);
+        // the second field does not let the scan skip anything
+        checkScan(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)), table.numPages());
+    }
+
+    /**
+     * Inserted tuples widen the zone of the page they land on, and deletes
+     * never make a scan miss a tuple.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), toTuple(tuples.get(0)));
+        Tuple t = Utility.getHeapTuple(new int[] {-5, 0});
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(0, 0)));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(-5, 0)));
+        Database.getBufferPool().flushAllPages();
+        checkScan(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0)), 2);
+
+        // delete a tuple in an aborted transaction: it must still be found
+        tid = new TransactionId();
+        Predicate isLast = new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS - 1));
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(isLast);
+        Filter filter = new Filter(isLast, scan);
+        filter.open();
+        Database.getBufferPool().deleteTuple(tid, filter.next());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkScan(isLast, 1);
+    }
+
+    /**
+     * Committed deletes tighten the zone of their page once it is written.
+     */
+    @Test public void deletesTighten() throws Exception {
+        Predicate isTail = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 10));
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        Filter filter = new Filter(isTail, scan);
+        filter.open();
+        ArrayList<Tuple> tail = new ArrayList<Tuple>();
+        while (filter.hasNext()) {
+            tail.add(filter.next());
+        }
+        filter.close();
+        for (Tuple t : tail) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tuples.subList(ROWS - 9, ROWS).clear();
+        checkScan(isTail, 0);
+    }
+
+    /**
+     * The zone map is saved in a side file, which is ignored once the heap
+     * file was written after it.
+     */
+    @Test public void sideFile() throws Exception {
+        // written by HeapFileEncoder
+        assertTrue(ZoneMap.sideFile(data).exists());
+        HeapFile reopened = new HeapFile(data, Utility.getTupleDesc(2));
+        assertTrue(reopened.getZoneMap().isSummarized(table.numPages() - 1));
+        assertFalse(reopened.getZoneMap().mayMatch(0, Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)))));
+
+        TransactionId tid = new TransactionId();
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        table.writePage(page);
+        Database.getBufferPool().transactionComplete(tid);
+        reopened = new HeapFile(data, Utility.getTupleDesc(2));
+        assertFalse(reopened.getZoneMap().isSummarized(0));
+
+        table.close();
+        reopened = new HeapFile(data, Utility.getTupleDesc(2));
+        assertTrue(reopened.getZoneMap().isSummarized(0));
+    }
+
+    /**
+     * A write marks the side file stale even if it leaves the heap file with
+     * the same length and modification time, and a damaged side file is
+     * ignored.
+     */
+    @Test public void staleOrDamagedSideFile() throws Exception {
+        FileTime stamp = Files.getLastModifiedTime(data.toPath());
+        TransactionId tid = new TransactionId();
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        table.writePage(page);
+        Database.getBufferPool().transactionComplete(tid);
+        Files.setLastModifiedTime(data.toPath(), stamp);
+        assertFalse(new HeapFile(data, Utility.getTupleDesc(2)).getZoneMap().isSummarized(0));
+
+        table.close();
+        File side = ZoneMap.sideFile(data);
+        byte[] b = Files.readAllBytes(side.toPath());
+        b[b.length / 2] ^= 1;
+        Files.write(side.toPath(), b);
+        assertFalse(new HeapFile(data, Utility.getTupleDesc(2)).getZoneMap().isSummarized(0));
+    }
+
+    /**
+     * The planner pushes filters down into the scans of heap files.
+     */
+    @Test public void planPushesFilters() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN_OR_EQ, String.valueOf(ROWS - 3));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        SystemTestUtil.matchTuples(plan, select(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(ROWS - 3))));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, table.readCount);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}